@@ -0,0 +1,97 @@
+package org.greenmercury.speat.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.Sax;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * Benchmarks for the conversions between SAX and SMAX, and for serializing a SMAX document.
+ * {@code saxToSmax} includes XML parsing, because that is how the adapter is used.
+ * {@code smaxToSax} sends the SAX events to a handler that only consumes them.
+ *<p>
+ * @author Rakensi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdapterBenchmark {
+
+  @Param({"1000000"})
+  public int size;
+
+  @Param({"1", "8", "32"})
+  public int depth;
+
+  private String xml;
+  private SmaxDocument document;
+
+  /**
+   * A SAX handler that consumes the events.
+   */
+  static class DiscardingSax extends DefaultHandler2 implements Sax {
+    long chars = 0L;
+    @Override
+    public void characters(char[] ch, int start, int length) {
+      chars += length;
+    }
+  }
+
+  @Setup
+  public void setUp() throws Exception {
+    xml = new CorpusGenerator().setSize(size).setDepth(depth).generate().getXml();
+    document = SmaxBenchmarks.parse(xml);
+  }
+
+  @Benchmark
+  public void saxToSmax(Blackhole blackhole) throws Exception {
+    try (StringInputSource input = new StringInputSource(xml)) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      reader.append(new SaxToSmaxAdapter()).setHandler(blackhole::consume);
+      reader.read();
+    }
+  }
+
+  @Benchmark
+  public long smaxToSax() throws Exception {
+    SmaxToSaxAdapter adapter = new SmaxToSaxAdapter();
+    DiscardingSax handler = new DiscardingSax();
+    adapter.setHandler(handler);
+    adapter.process(document);
+    return handler.chars;
+  }
+
+  @Benchmark
+  public int smaxWriter() throws Exception {
+    try (StringOutputSource output = new StringOutputSource()) {
+      SmaxWriter writer = new SmaxWriter();
+      writer.setHandler(output);
+      writer.process(document);
+      return output.getBuffer().length();
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+package org.greenmercury.speat.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a synthetic corpus for the benchmarks: an XML document, its text content, and a grammar for the
+ * {@code NamedEntityRecognizer}, whose entities occur in the text.
+ *<p>
+ * The corpus is made from pseudo-words, so it does not depend on downloaded data, and the same settings and seed
+ * always give the same corpus. The settings control
+ * <ul>
+ *   <li>the size of the text content, in characters;</li>
+ *   <li>the nesting depth of the markup: paragraphs are inside this many levels of sections;</li>
+ *   <li>the entity density: the fraction of words in the text that are the start of an entity from the grammar;</li>
+ *   <li>the case mix: the fraction of entity occurrences that are written in upper case or title case instead of lower case;</li>
+ *   <li>the number of entities in the grammar.</li>
+ * </ul>
+ * Entity words and other words are made from different syllables, so other words never match an entity.
+ *<p>
+ * Run {@code main} to write a corpus to files, for use outside the benchmarks.
+ *<p>
+ * @author Rakensi
+ */
+public class CorpusGenerator {
+
+  private static final String[] ENTITY_SYLLABLES = {
+    "ka", "lo", "mi", "ne", "ru", "sa", "to", "vi", "za", "bo", "di", "fe", "gu", "ha", "jo", "pe"
+  };
+  private static final String[] FILLER_SYLLABLES = {
+    "an", "el", "in", "or", "us", "ex", "am", "et", "is", "on"
+  };
+  private static final String[] PUNCTUATION = {",", ",", ".", ";", ":"};
+
+  private long seed = 42L;
+  private int size = 100_000;
+  private int depth = 3;
+  private double entityDensity = 0.05;
+  private double caseMix = 0.2;
+  private int entityCount = 10_000;
+
+  /**
+   * The generated corpus.
+   */
+  public static class Corpus {
+    private final String xml;
+    private final String text;
+    private final String grammar;
+    private final int mentions;
+
+    private Corpus(String xml, String text, String grammar, int mentions) {
+      this.xml = xml;
+      this.text = text;
+      this.grammar = grammar;
+      this.mentions = mentions;
+    }
+
+    /**
+     * @return the XML document
+     */
+    public String getXml() {
+      return xml;
+    }
+
+    /**
+     * @return the text content of the XML document
+     */
+    public String getText() {
+      return text;
+    }
+
+    /**
+     * @return the grammar, with lines {@code id <- entity}
+     */
+    public String getGrammar() {
+      return grammar;
+    }
+
+    /**
+     * @return the number of entity occurrences in the text
+     */
+    public int getMentions() {
+      return mentions;
+    }
+  }
+
+  public CorpusGenerator setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  /**
+   * @param size the approximate number of characters in the text content
+   */
+  public CorpusGenerator setSize(int size) {
+    this.size = size;
+    return this;
+  }
+
+  /**
+   * @param depth the number of levels of sections around each paragraph, at least 0
+   */
+  public CorpusGenerator setDepth(int depth) {
+    this.depth = depth;
+    return this;
+  }
+
+  /**
+   * @param entityDensity the fraction of words that start an entity, between 0 and 1
+   */
+  public CorpusGenerator setEntityDensity(double entityDensity) {
+    this.entityDensity = entityDensity;
+    return this;
+  }
+
+  /**
+   * @param caseMix the fraction of entity occurrences in upper case or title case, between 0 and 1
+   */
+  public CorpusGenerator setCaseMix(double caseMix) {
+    this.caseMix = caseMix;
+    return this;
+  }
+
+  /**
+   * @param entityCount the number of entities in the grammar
+   */
+  public CorpusGenerator setEntityCount(int entityCount) {
+    this.entityCount = entityCount;
+    return this;
+  }
+
+  /**
+   * Generate a corpus with the current settings.
+   * @return the corpus
+   */
+  public Corpus generate() {
+    Random random = new Random(seed);
+    List<String> entities = makeEntities(random);
+    StringBuilder grammar = new StringBuilder();
+    for (int i = 0; i < entities.size(); ++i) {
+      grammar.append('E').append(i).append(" <- ").append(entities.get(i)).append('\n');
+    }
+    StringBuilder xml = new StringBuilder(size + size / 4);
+    StringBuilder text = new StringBuilder(size + 100);
+    int mentions = 0;
+    xml.append("<corpus>");
+    while (text.length() < size) {
+      // Open sections down to the paragraph.
+      for (int level = 0; level < depth; ++level) {
+        xml.append("<section level=\"").append(level + 1).append("\">");
+      }
+      int paragraphs = 1 + random.nextInt(5);
+      for (int p = 0; p < paragraphs && text.length() < size; ++p) {
+        xml.append("<p>");
+        int words = 20 + random.nextInt(100);
+        boolean inEmphasis = false;
+        for (int w = 0; w < words; ++w) {
+          String word;
+          if (random.nextDouble() < entityDensity) {
+            word = applyCase(entities.get(random.nextInt(entities.size())), random);
+            ++mentions;
+          } else {
+            word = makeWord(FILLER_SYLLABLES, 1 + random.nextInt(3), random);
+          }
+          if (w > 0) {
+            xml.append(' ');
+            text.append(' ');
+          }
+          if (!inEmphasis && random.nextInt(20) == 0) {
+            xml.append("<em>");
+            inEmphasis = true;
+          }
+          appendEscaped(xml, word);
+          text.append(word);
+          if (inEmphasis && random.nextInt(3) == 0) {
+            xml.append("</em>");
+            inEmphasis = false;
+          }
+          if (random.nextInt(10) == 0) {
+            String punctuation = PUNCTUATION[random.nextInt(PUNCTUATION.length)];
+            xml.append(punctuation);
+            text.append(punctuation);
+          }
+        }
+        if (inEmphasis) {
+          xml.append("</em>");
+        }
+        xml.append("</p>");
+      }
+      for (int level = 0; level < depth; ++level) {
+        xml.append("</section>");
+      }
+    }
+    xml.append("</corpus>");
+    return new Corpus(xml.toString(), text.toString(), grammar.toString(), mentions);
+  }
+
+  /**
+   * Make distinct lower-case entities of one to three words.
+   */
+  private List<String> makeEntities(Random random) {
+    Set<String> seen = new HashSet<>();
+    List<String> entities = new ArrayList<>(entityCount);
+    while (entities.size() < entityCount) {
+      int words = 1 + random.nextInt(3);
+      StringBuilder entity = new StringBuilder();
+      for (int w = 0; w < words; ++w) {
+        if (w > 0) {
+          entity.append(' ');
+        }
+        entity.append(makeWord(ENTITY_SYLLABLES, 2 + random.nextInt(3), random));
+      }
+      if (seen.add(entity.toString())) {
+        entities.add(entity.toString());
+      }
+    }
+    return entities;
+  }
+
+  private static String makeWord(String[] syllables, int length, Random random) {
+    StringBuilder word = new StringBuilder();
+    for (int i = 0; i < length; ++i) {
+      word.append(syllables[random.nextInt(syllables.length)]);
+    }
+    return word.toString();
+  }
+
+  private String applyCase(String entity, Random random) {
+    if (random.nextDouble() >= caseMix) {
+      return entity;
+    } else if (random.nextBoolean()) {
+      return entity.toUpperCase(Locale.ROOT);
+    } else {
+      StringBuilder title = new StringBuilder(entity);
+      for (int i = 0; i < title.length(); ++i) {
+        if (i == 0 || title.charAt(i - 1) == ' ') {
+          title.setCharAt(i, Character.toUpperCase(title.charAt(i)));
+        }
+      }
+      return title.toString();
+    }
+  }
+
+  private static void appendEscaped(StringBuilder xml, String text) {
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&': xml.append("&amp;"); break;
+        case '<': xml.append("&lt;"); break;
+        default: xml.append(c);
+      }
+    }
+  }
+
+  /**
+   * Write a corpus to {@code corpus.xml}, {@code corpus.txt} and {@code grammar.txt} in a directory.
+   * Arguments: directory [size [depth [entityDensity [caseMix [entityCount [seed]]]]]]
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: CorpusGenerator directory [size [depth [entityDensity [caseMix [entityCount [seed]]]]]]");
+      System.exit(1);
+    }
+    CorpusGenerator generator = new CorpusGenerator();
+    if (args.length > 1) generator.setSize(Integer.parseInt(args[1]));
+    if (args.length > 2) generator.setDepth(Integer.parseInt(args[2]));
+    if (args.length > 3) generator.setEntityDensity(Double.parseDouble(args[3]));
+    if (args.length > 4) generator.setCaseMix(Double.parseDouble(args[4]));
+    if (args.length > 5) generator.setEntityCount(Integer.parseInt(args[5]));
+    if (args.length > 6) generator.setSeed(Long.parseLong(args[6]));
+    Corpus corpus = generator.generate();
+    Path directory = Files.createDirectories(Paths.get(args[0]));
+    Files.write(directory.resolve("corpus.xml"), corpus.getXml().getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("corpus.txt"), corpus.getText().getBytes(StandardCharsets.UTF_8));
+    Files.write(directory.resolve("grammar.txt"), corpus.getGrammar().getBytes(StandardCharsets.UTF_8));
+    System.out.println("Wrote "+corpus.getText().length()+" characters with "+corpus.getMentions()+" entity occurrences to "+directory);
+  }
+
+}
@@ -0,0 +1,92 @@
+package org.greenmercury.speat.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.speat.smax.Balancing;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for {@code SmaxDocument.insertMarkup}, which inserts an element for every entity occurrence in the corpus,
+ * like the {@code NamedEntityRecognizer} does.
+ * The occurrences are found once, and each invocation gets a freshly parsed document, which is not measured.
+ *<p>
+ * @author Rakensi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertMarkupBenchmark {
+
+  @Param({"100000"})
+  public int size;
+
+  @Param({"1", "8"})
+  public int depth;
+
+  @Param({"0.1"})
+  public double entityDensity;
+
+  @Param({"OUTER", "INNER"})
+  public Balancing balancing;
+
+  private String xml;
+  private int[] starts;
+  private int[] ends;
+  private SmaxDocument document;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws Exception {
+    CorpusGenerator.Corpus corpus = new CorpusGenerator().
+      setSize(size).setDepth(depth).setEntityDensity(entityDensity).setCaseMix(0.0).setEntityCount(1000).generate();
+    xml = corpus.getXml();
+    SmaxDocument parsed = SmaxBenchmarks.parse(xml);
+    List<int[]> spans = new ArrayList<>();
+    TrieScannerBenchmark.CountingTrieNER scanner = new TrieScannerBenchmark.CountingTrieNER() {
+      @Override
+      public void match(CharSequence text, int start, int end, List<String> ids) {
+        spans.add(new int[] {start, end});
+      }
+    };
+    TrieScannerBenchmark.compile(corpus.getGrammar(), scanner);
+    scanner.scan(parsed.getContentView(), -1, -1);
+    starts = new int[spans.size()];
+    ends = new int[spans.size()];
+    for (int i = 0; i < spans.size(); ++i) {
+      starts[i] = spans.get(i)[0];
+      ends[i] = spans.get(i)[1];
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInvocation() throws Exception {
+    document = SmaxBenchmarks.parse(xml);
+  }
+
+  @Benchmark
+  public SmaxDocument insertMarkup() {
+    SmaxElement template = new SmaxElement("ntt");
+    for (int i = 0; i < starts.length; ++i) {
+      document.insertMarkup(template.shallowCopy(), balancing, starts[i], ends[i]);
+    }
+    return document;
+  }
+
+}
@@ -0,0 +1,32 @@
+package org.greenmercury.speat.benchmarks;
+
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxDocument;
+
+/**
+ * Helpers for the benchmarks.
+ *<p>
+ * @author Rakensi
+ */
+final class SmaxBenchmarks {
+
+  private SmaxBenchmarks() {
+  }
+
+  /**
+   * Parse an XML document into a {@code SmaxDocument}.
+   */
+  static SmaxDocument parse(String xml) throws Exception {
+    SmaxDocument[] document = new SmaxDocument[1];
+    try (StringInputSource input = new StringInputSource(xml)) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      reader.append(new SaxToSmaxAdapter()).setHandler(parsed -> document[0] = parsed);
+      reader.read();
+    }
+    return document[0];
+  }
+
+}
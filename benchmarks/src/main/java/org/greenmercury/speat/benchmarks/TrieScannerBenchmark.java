@@ -0,0 +1,105 @@
+package org.greenmercury.speat.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.greenmercury.speat.text.trie.TrieNER;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for named entity recognition with a trie: compiling a grammar, and scanning a text.
+ *<p>
+ * @author Rakensi
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrieScannerBenchmark {
+
+  /** The same word characters and case-insensitive length as the {@code NamedEntityRecognizer} tests. */
+  static final String WORD_CHARS = "-/()[].,;:'\"";
+  static final int CASE_INSENSITIVE_MIN_LENGTH = 3;
+
+  @Param({"1000000"})
+  public int size;
+
+  @Param({"0.01", "0.1"})
+  public double entityDensity;
+
+  @Param({"0.0", "0.5"})
+  public double caseMix;
+
+  @Param({"10000"})
+  public int entityCount;
+
+  private String text;
+  private String grammar;
+  private TrieNER scanner;
+
+  /**
+   * A {@code TrieNER} that counts its matches.
+   */
+  static class CountingTrieNER extends TrieNER {
+    int matches = 0;
+    CountingTrieNER() {
+      super(WORD_CHARS, "", "");
+    }
+    @Override
+    public void match(CharSequence text, int start, int end, List<String> ids) {
+      ++matches;
+    }
+    @Override
+    public void noMatch(CharSequence text, int start, int end) {
+      // No action is needed.
+    }
+  }
+
+  /**
+   * Put the rules of a grammar into the trie of a {@code TrieNER}, like the {@code NamedEntityRecognizer} does.
+   */
+  static void compile(String grammar, TrieNER triener) {
+    for (String line : grammar.split("\n")) {
+      String[] parts = line.split("\\s*<-\\s*", 2);
+      triener.getTrie().put(parts[1], parts[0]);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    CorpusGenerator.Corpus corpus = new CorpusGenerator().
+      setSize(size).setEntityDensity(entityDensity).setCaseMix(caseMix).setEntityCount(entityCount).generate();
+    text = corpus.getText();
+    grammar = corpus.getGrammar();
+    scanner = new CountingTrieNER();
+    compile(grammar, scanner);
+  }
+
+  @Benchmark
+  public int scan() {
+    CountingTrieNER counter = new CountingTrieNER();
+    counter.setTrie(scanner.getTrie());
+    counter.scan(text, CASE_INSENSITIVE_MIN_LENGTH, -1);
+    return counter.matches;
+  }
+
+  @Benchmark
+  public Object compileGrammar() {
+    CountingTrieNER triener = new CountingTrieNER();
+    compile(grammar, triener);
+    return triener.getTrie();
+  }
+
+}
@@ -1,17 +1,20 @@
 package org.greenmercury.speat;
 
+import org.greenmercury.speat.metrics.PipelineMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * This class implements pipeline methods that are not doing actual pipelining.
- * Currently, this is only logging.
+ * Currently, this is logging and metrics.
  *<p>
  * @author Rakensi
  */
 public abstract class AbstractPipeline<S, T> implements Pipeline<S, T> {
 
   private Logger logger = null;
+  private PipelineMetrics metrics = PipelineMetrics.NONE;
+  private String metricsName = null;
 
   @Override
   public Logger getLogger() {
@@ -27,4 +30,38 @@ public abstract class AbstractPipeline<S, T> implements Pipeline<S, T> {
     return this;
   }
 
+  @Override
+  public PipelineMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public Pipeline<S, T> setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics != null ? metrics : PipelineMetrics.NONE;
+    return this;
+  }
+
+  /**
+   * The name under which this pipeline records its metrics.
+   * If the name is not set by {@code setMetricsName}, it is the simple name of the class, or the full name of an anonymous class.
+   * @return the metrics name
+   */
+  public String getMetricsName() {
+    if (metricsName == null) {
+      String simpleName = this.getClass().getSimpleName();
+      metricsName = simpleName.isEmpty() ? this.getClass().getName() : simpleName;
+    }
+    return metricsName;
+  }
+
+  /**
+   * Set the name under which this pipeline records its metrics, to distinguish stages of the same class.
+   * @param metricsName the metrics name
+   * @return the pipeline
+   */
+  public AbstractPipeline<S, T> setMetricsName(String metricsName) {
+    this.metricsName = metricsName;
+    return this;
+  }
+
 }
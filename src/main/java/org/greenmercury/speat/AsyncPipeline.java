@@ -0,0 +1,273 @@
+package org.greenmercury.speat;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.greenmercury.speat.metrics.PipelineMetrics;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.text.TextLineStreamApi;
+import org.slf4j.Logger;
+
+/**
+ * A pipeline that runs a stage on another thread, so that it can work in parallel with the stages before it.
+ * Use {@code Pipeline.async} to make one.
+ *<p>
+ * Events are put in a bounded queue, and handled in order by one consumer task, which runs on an {@code Executor}.
+ * When the queue is full, the thread that sends the events waits, so a slow stage slows down the stages before it,
+ * instead of letting the queue grow.
+ *<p>
+ * This works for event APIs where each event is self-contained, which are {@code Smax} and {@code TextLineStreamApi}.
+ * The event objects are handed off to the other thread, so a {@code SmaxDocument} must not be used after it has been sent.
+ *<p>
+ * An exception in the stage is thrown to the thread that sends the events, when it sends the next event,
+ * or when it calls {@code close}. Events after a failure are discarded.
+ * This is also the case when the executor rejects the consumer task, or when the consumer task is interrupted.
+ * {@code close} waits until all queued events have been handled, so an {@code AsyncPipeline} must be closed,
+ * preferably in a try-with-resources.
+ *<p>
+ * @author Rakensi
+ */
+public class AsyncPipeline<T, U> extends AbstractPipeline<T, U> implements AutoCloseable {
+
+  /**
+   * A queued event.
+   */
+  @FunctionalInterface
+  private interface Task {
+    void run() throws Exception;
+  }
+
+  /**
+   * The task that tells the consumer to stop.
+   */
+  private static final Task END = () -> {};
+
+  /**
+   * While the queue is full, the thread that sends the events checks this often if the consumer task has stopped.
+   */
+  private static final long CONSUMER_CHECK_MILLIS = 100L;
+
+  private final Pipeline<T, U> stage;
+  private final BlockingQueue<Task> queue;
+  private final Executor executor;
+  private final CountDownLatch finished = new CountDownLatch(1);
+  private final T eventApi;
+  private boolean started = false;
+  private boolean closed = false;
+  private volatile Throwable failure = null;
+
+  /**
+   * Constructor for an {@code AsyncPipeline}.
+   * @param stage the stage that will run on another thread
+   * @param queueCapacity the maximum number of events waiting to be handled
+   * @param executor the executor that runs the consumer task
+   * @throws ConfigurationException if the event API of the stage can not be handled asynchronously
+   * @throws PipelineException if the event API of the stage can not be obtained
+   */
+  @SuppressWarnings("unchecked")
+  AsyncPipeline(Pipeline<T, U> stage, int queueCapacity, Executor executor) throws ConfigurationException, PipelineException {
+    this.stage = stage;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.executor = executor;
+    T stageApi = stage.getEventApi();
+    if (stageApi instanceof Smax) {
+      eventApi = (T)new AsyncSmax((Smax)stageApi);
+    } else if (stageApi instanceof TextLineStreamApi) {
+      eventApi = (T)new AsyncTextLineStream((TextLineStreamApi)stageApi);
+    } else {
+      throw new ConfigurationException("The event API "+(stageApi == null ? null : stageApi.getClass().getName())+" can not be used asynchronously.");
+    }
+  }
+
+  @Override
+  public T getEventApi() {
+    return eventApi;
+  }
+
+  @Override
+  public void setHandler(U handler) throws ConfigurationException, PipelineException {
+    stage.setHandler(handler);
+  }
+
+  @Override
+  public U getHandler() {
+    return stage.getHandler();
+  }
+
+  @Override
+  public Pipeline<T, U> setLogger(Logger logger) {
+    stage.setLogger(logger);
+    return super.setLogger(logger);
+  }
+
+  @Override
+  public Pipeline<T, U> setMetrics(PipelineMetrics metrics) {
+    stage.setMetrics(metrics);
+    return super.setMetrics(metrics);
+  }
+
+  /**
+   * Put an event in the queue, waiting while the queue is full.
+   * If the consumer task has stopped, nobody will take the event, so it is discarded, and the failure is reported later.
+   * This is only called by the thread that sends the events.
+   */
+  private void enqueue(Task task) throws PipelineException {
+    if (closed) {
+      throw new IllegalStateException(getClass().getSimpleName()+" has been closed.");
+    }
+    if (!started) {
+      try {
+        executor.execute(this::consume);
+      } catch (RuntimeException e) {
+        failure = e;
+        finished.countDown();
+        throw new PipelineException("The asynchronous pipeline stage can not be started.", e);
+      }
+      started = true;
+    }
+    try {
+      while (!queue.offer(task, CONSUMER_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+        if (finished.getCount() == 0) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PipelineException("Interrupted while waiting for an asynchronous pipeline stage.", e);
+    }
+  }
+
+  /**
+   * Handle queued events until the {@code END} task. After a failure, events are taken and discarded,
+   * so that the thread that sends them does not wait forever.
+   */
+  private void consume() {
+    try {
+      Task task;
+      while ((task = queue.take()) != END) {
+        if (failure == null) {
+          try {
+            task.run();
+          } catch (Throwable e) {
+            getLogger().error("Asynchronous pipeline stage failed.", e);
+            failure = e;
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      failure = e;
+    } finally {
+      finished.countDown();
+    }
+  }
+
+  /**
+   * Wait until all queued events have been handled, and stop the consumer task.
+   * @throws PipelineException if the stage has failed, with the failure as its cause, unless it was a {@code PipelineException}
+   */
+  @Override
+  public void close() throws PipelineException {
+    if (closed) {
+      return;
+    }
+    if (started) {
+      enqueue(END);
+      closed = true;
+      try {
+        finished.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PipelineException("Interrupted while closing an asynchronous pipeline stage.", e);
+      }
+    }
+    closed = true;
+    Throwable e = failure;
+    if (e instanceof PipelineException) {
+      throw (PipelineException)e;
+    } else if (e != null) {
+      throw new PipelineException(e);
+    }
+  }
+
+  /**
+   * Rethrow a failure of the stage if it is an unchecked exception.
+   */
+  private void throwUncheckedFailure() {
+    Throwable e = failure;
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException)e;
+    } else if (e instanceof Error) {
+      throw (Error)e;
+    }
+  }
+
+  /**
+   * The {@code Smax} API in front of the queue.
+   */
+  private class AsyncSmax implements Smax {
+    private final Smax api;
+    AsyncSmax(Smax api) {
+      this.api = api;
+    }
+    @Override
+    public void process(SmaxDocument document) throws PipelineException, ConfigurationException, IOException {
+      Throwable e = failure;
+      if (e != null) {
+        throwUncheckedFailure();
+        if (e instanceof PipelineException) throw (PipelineException)e;
+        if (e instanceof ConfigurationException) throw (ConfigurationException)e;
+        if (e instanceof IOException) throw (IOException)e;
+        throw new PipelineException(e);
+      }
+      enqueue(() -> api.process(document));
+    }
+  }
+
+  /**
+   * The {@code TextLineStreamApi} in front of the queue.
+   * This API has no checked exceptions, so failures and interrupts are thrown as unchecked exceptions.
+   */
+  private class AsyncTextLineStream implements TextLineStreamApi {
+    private final TextLineStreamApi api;
+    AsyncTextLineStream(TextLineStreamApi api) {
+      this.api = api;
+    }
+    private void send(Task task) {
+      if (failure != null) {
+        throwUncheckedFailure();
+        throw new IllegalStateException("Asynchronous pipeline stage failed.", failure);
+      }
+      try {
+        enqueue(task);
+      } catch (PipelineException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+    @Override
+    public void line(String line) {
+      send(() -> api.line(line));
+    }
+    @Override
+    public void startDocument() {
+      send(api::startDocument);
+    }
+    @Override
+    public void endDocument() {
+      send(api::endDocument);
+    }
+    /**
+     * The lines are queued in order, so they are not sent from several threads.
+     */
+    @Override
+    public void processParallel(Stream<String> lines) {
+      process(lines.sequential());
+    }
+  }
+
+}
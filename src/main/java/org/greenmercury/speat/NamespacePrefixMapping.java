@@ -1,6 +1,8 @@
 package org.greenmercury.speat;
 
 public class NamespacePrefixMapping {
+  /** A shared empty array, for elements without namespace declarations. */
+  public static final NamespacePrefixMapping[] NONE = new NamespacePrefixMapping[0];
   public String prefix;
   public String uri;
   public NamespacePrefixMapping(String prefix, String uri) {
@@ -1,5 +1,10 @@
 package org.greenmercury.speat;
 
+import java.util.concurrent.Executor;
+
+import org.greenmercury.speat.metrics.PipelineMetrics;
+import org.greenmercury.speat.sax.SaxTee;
+import org.greenmercury.speat.smax.SmaxTee;
 import org.slf4j.Logger;
 
 /**
@@ -27,6 +32,25 @@ public interface Pipeline<S, T> extends EventHandler<S>, EventSupplier<T> {
    */
   public Pipeline<S, T> setLogger(Logger logger);
 
+  /**
+   * A pipeline can record metrics, like the time it takes to process a document.
+   * By default, no metrics are recorded.
+   * @return the metrics for this pipeline. This must not be {@code null}.
+   */
+  public default PipelineMetrics getMetrics() {
+    return PipelineMetrics.NONE;
+  }
+
+  /**
+   * Set the metrics, where this pipeline records its counters and timers.
+   * Pipelines that do not record metrics ignore this, and pipelines made of other pipelines pass it on to them.
+   * @param metrics the metrics, or {@code PipelineMetrics.NONE} to record nothing
+   * @return the pipeline
+   */
+  public default Pipeline<S, T> setMetrics(PipelineMetrics metrics) {
+    return this;
+  }
+
   /**
    * Method for building pipelines by chaining.
    * It turns a {@code Pipeline<S, T>} and a {@code Pipeline<T, U> next} into a {@code Pipeline<S, U>}.
@@ -71,9 +95,85 @@ public interface Pipeline<S, T> extends EventHandler<S>, EventSupplier<T> {
         next.setLogger(logger);
         return this;
       }
+      @Override
+      public Pipeline<S, U> setMetrics(PipelineMetrics metrics) {
+        // The same metrics are set in the sub-pipelines.
+        previous.setMetrics(metrics);
+        next.setMetrics(metrics);
+        return this;
+      }
     };
   }
 
+  /**
+   * Run a pipeline stage on another thread, with a bounded queue of events between the caller and the stage.
+   * This lets the stages of a pipeline work in parallel on different documents.
+   * The event API of the stage must be {@code Smax} or {@code TextLineStreamApi}.
+   * The returned pipeline must be closed, which waits until all events have been handled.
+   * @param stage the stage that will run on another thread
+   * @param queueCapacity the maximum number of events waiting to be handled, after which the caller waits
+   * @param executor the executor that runs the stage
+   * @return an {@code AsyncPipeline} that can be used instead of {@code stage}
+   * @see AsyncPipeline
+   */
+  public static <T, U> AsyncPipeline<T, U> async(Pipeline<T, U> stage, int queueCapacity, Executor executor)
+      throws ConfigurationException, PipelineException {
+    return new AsyncPipeline<>(stage, queueCapacity, executor);
+  }
+
+  /**
+   * Run a pipeline stage on its own daemon thread, with a bounded queue of events between the caller and the stage.
+   * @param stage the stage that will run on another thread
+   * @param queueCapacity the maximum number of events waiting to be handled, after which the caller waits
+   * @return an {@code AsyncPipeline} that can be used instead of {@code stage}
+   * @see #async(Pipeline, int, Executor)
+   */
+  public static <T, U> AsyncPipeline<T, U> async(Pipeline<T, U> stage, int queueCapacity)
+      throws ConfigurationException, PipelineException {
+    return async(stage, queueCapacity, task -> {
+      Thread thread = new Thread(task, "speat-async-"+stage.getClass().getSimpleName());
+      thread.setDaemon(true);
+      thread.start();
+    });
+  }
+
+  /**
+   * Make a pipeline that sends its events to its handler, and also to a number of branches.
+   * The branches are typically the event APIs of pipelines that end in their own output.
+   * The event API must be {@code Smax} or {@code Sax}. Each {@code Smax} branch gets a snapshot of the document,
+   * which shares the content buffer, so the document is parsed once and its content is not copied.
+   * @param branches the event APIs that receive the events, next to the handler
+   * @return a {@code SmaxTee} or {@code SaxTee}
+   * @see SmaxTee
+   * @see SaxTee
+   */
+  @SafeVarargs
+  public static <T> Pipeline<T, T> tee(T... branches) throws ConfigurationException {
+    // Copy the branches, so that the generic array is not passed on.
+    Object[] copy = new Object[branches.length];
+    for (int i = 0; i < branches.length; ++i) {
+      copy[i] = branches[i];
+    }
+    return TeeSupport.tee(null, copy);
+  }
+
+  /**
+   * Make a pipeline that sends its events to its handler, and also to a number of branches,
+   * which run in parallel on an executor. This is only possible for {@code Smax}, where each event is a complete document.
+   * @param executor the executor for the branches, or {@code null} to run them in the calling thread
+   * @param branches the event APIs that receive the events, next to the handler
+   * @return a {@code SmaxTee} or {@code SaxTee}
+   * @see #tee(Object...)
+   */
+  @SafeVarargs
+  public static <T> Pipeline<T, T> tee(Executor executor, T... branches) throws ConfigurationException {
+    Object[] copy = new Object[branches.length];
+    for (int i = 0; i < branches.length; ++i) {
+      copy[i] = branches[i];
+    }
+    return TeeSupport.tee(executor, copy);
+  }
+
   /**
    * Make a pipeline that passes on events to the next step.
    * This is an identity function, but the term 'identity' is overloaded, so I prefer {@code passOn}.
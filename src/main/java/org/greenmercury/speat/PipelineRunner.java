@@ -0,0 +1,391 @@
+package org.greenmercury.speat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.greenmercury.speat.io.input.FileInputSource;
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.io.output.FileOutputSource;
+import org.greenmercury.speat.io.output.OutputSource;
+import org.greenmercury.speat.jfr.SpeatEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a pipeline over many documents in parallel.
+ *<p>
+ * The pipelines come from a {@code PipelineTemplate}, so each document is processed by a pipeline that is used
+ * by one thread at a time. The documents are given as a stream of {@code Job}s, each with an input and an output,
+ * which are opened when the job starts, and closed when it is done, so that only the documents in progress have open files.
+ * The stream is consumed lazily, and at most {@code maxInFlight} jobs are in progress or waiting to be reported.
+ *<p>
+ * A failure in one document does not stop the others. Each job is reported to a {@code Listener},
+ * in the order of the input stream if {@code ordered} is set, or in the order of completion otherwise.
+ * Listener methods are always called by the thread that calls {@code run}, so they do not have to be thread-safe.
+ * The progress can be read by any thread with {@code getProgress}, and is logged every {@code progressInterval} documents.
+ *<p>
+ * The default executor is the common {@code ForkJoinPool}, which suits pipelines that are limited by the CPU.
+ * Pipelines that spend most of their time waiting for I/O, for example reading from a {@code UrlInputSource},
+ * can run each document on a virtual thread, with {@code newVirtualThreadExecutor()} and a larger {@code maxInFlight}.
+ *<p>
+ * @author Rakensi
+ */
+public class PipelineRunner<T> {
+
+  /**
+   * Opens an input or output of a job.
+   */
+  @FunctionalInterface
+  public interface Opener<R> {
+    public R open() throws Exception;
+  }
+
+  /**
+   * A document to process: an input and an output, which are opened when the job starts.
+   */
+  public static final class Job<T> {
+    private final String name;
+    private final Opener<? extends InputSource> input;
+    private final Opener<? extends T> output;
+    private Job(String name, Opener<? extends InputSource> input, Opener<? extends T> output) {
+      this.name = name;
+      this.input = input;
+      this.output = output;
+    }
+    /**
+     * Make a job that opens its input and output when it starts.
+     * @param name a name for the job, used in reports
+     * @param input opens the input source
+     * @param output opens the output
+     * @return a new job
+     */
+    public static <T> Job<T> of(String name, Opener<? extends InputSource> input, Opener<? extends T> output) {
+      return new Job<>(name, input, output);
+    }
+    /**
+     * Make a job with an input and output that are already open.
+     * @return a new job
+     */
+    public static <T> Job<T> of(InputSource input, T output) {
+      return new Job<>(String.valueOf(input), () -> input, () -> output);
+    }
+    /**
+     * @return the name of the job
+     */
+    public String getName() {
+      return name;
+    }
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * Receives the outcome of each job.
+   */
+  public interface Listener<T> {
+    public default void succeeded(Job<T> job, long index, Duration duration) {
+    }
+    public default void failed(Job<T> job, long index, Throwable failure) {
+    }
+  }
+
+  /**
+   * A snapshot of the progress of a run.
+   */
+  public static final class Progress {
+    private final long submitted, succeeded, failed;
+    private final Duration elapsed;
+    private Progress(long submitted, long succeeded, long failed, Duration elapsed) {
+      this.submitted = submitted;
+      this.succeeded = succeeded;
+      this.failed = failed;
+      this.elapsed = elapsed;
+    }
+    /** @return the number of jobs that have been started */
+    public long getSubmitted() { return submitted; }
+    /** @return the number of jobs that have succeeded */
+    public long getSucceeded() { return succeeded; }
+    /** @return the number of jobs that have failed */
+    public long getFailed() { return failed; }
+    /** @return the number of jobs that have finished */
+    public long getCompleted() { return succeeded + failed; }
+    /** @return the number of jobs that have been started, but not finished */
+    public long getInFlight() { return submitted - succeeded - failed; }
+    /** @return the time since the start of the run */
+    public Duration getElapsed() { return elapsed; }
+    /** @return the number of finished jobs per second */
+    public double getDocumentsPerSecond() {
+      long millis = elapsed.toMillis();
+      return millis == 0 ? 0.0 : getCompleted() * 1000.0 / millis;
+    }
+    @Override
+    public String toString() {
+      return getCompleted()+" of "+submitted+" documents done ("+failed+" failed) in "+elapsed.toMillis()+" ms, "+
+          String.format("%.1f", getDocumentsPerSecond())+" documents/s";
+    }
+  }
+
+  /**
+   * The outcome of a job, sent from the worker thread to the thread that runs the jobs.
+   */
+  private static final class Outcome<T> {
+    final Job<T> job;
+    final long index;
+    final Duration duration;
+    final Throwable failure;
+    Outcome(Job<T> job, long index, Duration duration, Throwable failure) {
+      this.job = job;
+      this.index = index;
+      this.duration = duration;
+      this.failure = failure;
+    }
+  }
+
+  private final PipelineTemplate<InputSource, T> template;
+  private Executor executor = ForkJoinPool.commonPool();
+  private int maxInFlight = 2 * ForkJoinPool.getCommonPoolParallelism();
+  private boolean ordered = false;
+  private long progressInterval = 1000;
+  private Listener<T> listener;
+  private Logger logger = LoggerFactory.getLogger(PipelineRunner.class);
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong succeeded = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private volatile Instant startTime = Instant.now();
+
+  /**
+   * Constructor for a {@code PipelineRunner}.
+   * @param template the template for the pipelines, which must start with an {@code InputSourceReader}
+   */
+  public PipelineRunner(PipelineTemplate<InputSource, T> template) {
+    this.template = template;
+    this.listener = new Listener<T>() {
+      @Override
+      public void failed(Job<T> job, long index, Throwable failure) {
+        logger.error("Processing "+job+" failed.", failure);
+      }
+    };
+  }
+
+  /**
+   * @param executor the executor that runs the jobs
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  /**
+   * @param maxInFlight the maximum number of jobs that are in progress or waiting to be reported
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setMaxInFlight(int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("maxInFlight must be at least 1, not "+maxInFlight);
+    }
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
+  /**
+   * @param ordered whether jobs are reported in the order of the input stream
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setOrdered(boolean ordered) {
+    this.ordered = ordered;
+    return this;
+  }
+
+  /**
+   * @param progressInterval log the progress after this number of documents, or never if it is 0
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setProgressInterval(long progressInterval) {
+    this.progressInterval = progressInterval;
+    return this;
+  }
+
+  /**
+   * @param listener receives the outcome of each job; by default, failures are logged
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setListener(Listener<T> listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * @param logger the logger for progress and failures
+   * @return the {@code PipelineRunner} itself
+   */
+  public PipelineRunner<T> setLogger(Logger logger) {
+    this.logger = logger;
+    return this;
+  }
+
+  /**
+   * @return the progress of the current or last run
+   */
+  public Progress getProgress() {
+    return new Progress(submitted.get(), succeeded.get(), failed.get(), Duration.between(startTime, Instant.now()));
+  }
+
+  /**
+   * Process all jobs, and wait until they are done.
+   * Jobs that the executor rejects, for example because it has been shut down, are reported as failed.
+   * @param jobs the jobs, which are consumed lazily
+   * @return the progress at the end of the run
+   * @throws InterruptedException if the thread is interrupted while waiting; jobs in progress are not cancelled
+   */
+  public Progress run(Stream<Job<T>> jobs) throws InterruptedException {
+    submitted.set(0);
+    succeeded.set(0);
+    failed.set(0);
+    startTime = Instant.now();
+    BlockingQueue<Outcome<T>> outcomes = new LinkedBlockingQueue<>();
+    Map<Long, Outcome<T>> waiting = new HashMap<>();
+    long nextToReport = 0;
+    long reported = 0;
+    long index = 0;
+    Iterator<Job<T>> iterator = jobs.iterator();
+    while (iterator.hasNext() || reported < index) {
+      // Start jobs while there is room, otherwise wait for an outcome.
+      if (iterator.hasNext() && index - reported < maxInFlight) {
+        Job<T> job = iterator.next();
+        long jobIndex = index++;
+        submitted.incrementAndGet();
+        try {
+          executor.execute(() -> outcomes.add(process(job, jobIndex)));
+        } catch (RejectedExecutionException e) {
+          // The job will never run, so it is reported as failed.
+          failed.incrementAndGet();
+          outcomes.add(new Outcome<>(job, jobIndex, Duration.ZERO, e));
+        }
+        continue;
+      }
+      Outcome<T> outcome = outcomes.take();
+      if (ordered) {
+        waiting.put(outcome.index, outcome);
+        while ((outcome = waiting.remove(nextToReport)) != null) {
+          report(outcome, ++reported);
+          ++nextToReport;
+        }
+      } else {
+        report(outcome, ++reported);
+      }
+    }
+    Progress progress = getProgress();
+    logger.info(progress.toString());
+    return progress;
+  }
+
+  /**
+   * Process one job in a worker thread, and close its input and output.
+   * The name of the job is the document id for Java Flight Recorder events.
+   */
+  private Outcome<T> process(Job<T> job, long index) {
+    Instant jobStart = Instant.now();
+    Throwable failure = null;
+    InputSource input = null;
+    T output = null;
+    String previousId = SpeatEvents.setDocumentId(job.getName());
+    try {
+      input = job.input.open();
+      output = job.output.open();
+      template.read(input, output);
+    } catch (Throwable e) {
+      failure = e;
+    } finally {
+      for (Object resource : new Object[] {input, output}) {
+        if (resource instanceof AutoCloseable) {
+          try {
+            ((AutoCloseable)resource).close();
+          } catch (Exception e) {
+            if (failure == null) {
+              failure = e;
+            }
+          }
+        }
+      }
+      SpeatEvents.setDocumentId(previousId);
+    }
+    if (failure == null) {
+      succeeded.incrementAndGet();
+    } else {
+      failed.incrementAndGet();
+    }
+    return new Outcome<>(job, index, Duration.between(jobStart, Instant.now()), failure);
+  }
+
+  private void report(Outcome<T> outcome, long reported) {
+    try {
+      if (outcome.failure == null) {
+        listener.succeeded(outcome.job, outcome.index, outcome.duration);
+      } else {
+        listener.failed(outcome.job, outcome.index, outcome.failure);
+      }
+    } catch (RuntimeException e) {
+      logger.error("The listener failed for "+outcome.job, e);
+    }
+    if (progressInterval > 0 && reported % progressInterval == 0) {
+      logger.info(getProgress().toString());
+    }
+  }
+
+  /**
+   * Make an executor that runs each task on a new virtual thread.
+   * Virtual threads are available from Java 21. They are found by reflection, so that this class can be compiled for Java 8.
+   * @return a new {@code ExecutorService}, which must be shut down by the caller
+   * @throws UnsupportedOperationException if virtual threads are not available
+   */
+  public static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Virtual threads need Java 21 or later, not "+System.getProperty("java.version"));
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Cannot make an executor with virtual threads.", e);
+    }
+  }
+
+  /**
+   * Make jobs for all regular files under a directory, writing the output to the same relative path under another directory.
+   * The returned stream must be closed, because it walks the directory tree lazily.
+   * @param inputDirectory the directory with input files, which are read as UTF-8
+   * @param outputDirectory the directory for output files, which are written as UTF-8
+   * @return a stream of jobs
+   */
+  public static Stream<Job<OutputSource>> files(Path inputDirectory, Path outputDirectory) throws IOException {
+    return Files.walk(inputDirectory).
+      filter(Files::isRegularFile).
+      map(inputFile -> {
+        Path outputFile = outputDirectory.resolve(inputDirectory.relativize(inputFile).toString());
+        return Job.<OutputSource>of(inputFile.toString(),
+          () -> new FileInputSource(inputFile.toFile()),
+          () -> {
+            Files.createDirectories(outputFile.getParent());
+            return new FileOutputSource(outputFile.toFile());
+          });
+      });
+  }
+
+}
@@ -0,0 +1,248 @@
+package org.greenmercury.speat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.io.input.InputSourceReader;
+
+/**
+ * A recipe for a pipeline, which makes pipeline instances that can be used by several threads at the same time.
+ *<p>
+ * A pipeline that is built with {@code append} is stateful, and can only process one document at a time.
+ * A {@code PipelineTemplate} records how the stages are made, with a {@code StageFactory} for each stage,
+ * and makes a new pipeline when it is needed. Pipelines are kept in a pool, or per thread, so they are re-used.
+ * Stages reset their per-document state when a document starts, so a pipeline can process any number of documents,
+ * but only one at a time.
+ *<p>
+ * Expensive resources are shared by the pipeline instances: {@code SaxReader} and {@code SaxWriter} use pooled parsers
+ * and serializers, and {@code NamedEntityRecognizer}s with the same grammar and configuration share a compiled trie.
+ *<p>
+ * Typical use:
+ * <pre>{@code
+ *   PipelineTemplate<InputSource, OutputSource> template = PipelineTemplate.
+ *     of(SaxReader::new).
+ *     append(SaxToSmaxAdapter::new).
+ *     append(() -> new NamedEntityRecognizer(...).setMatchNodeTemplate(...)).
+ *     append(SmaxWriter::new);
+ *   // For each request, in any thread:
+ *   template.read(inputSource, outputSource);
+ * }</pre>
+ *<p>
+ * @author Rakensi
+ */
+public class PipelineTemplate<S, T> {
+
+  /**
+   * Makes a new instance of a pipeline stage.
+   */
+  @FunctionalInterface
+  public interface StageFactory<A, B> {
+    public Pipeline<A, B> newStage() throws Exception;
+  }
+
+  /**
+   * The stage factories, in order. The types are checked by {@code of} and {@code append}.
+   */
+  private final List<StageFactory<?, ?>> stageFactories;
+
+  private boolean perThread = false;
+  private final Queue<PooledPipeline<S, T>> pool = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<PooledPipeline<S, T>> threadPipeline = new ThreadLocal<>();
+
+  private PipelineTemplate(List<StageFactory<?, ?>> stageFactories) {
+    this.stageFactories = stageFactories;
+  }
+
+  /**
+   * Start a pipeline template with its first stage.
+   * @param first the factory for the first stage
+   * @return a new {@code PipelineTemplate}
+   */
+  public static <S, T> PipelineTemplate<S, T> of(StageFactory<S, T> first) {
+    return new PipelineTemplate<>(Collections.singletonList(first));
+  }
+
+  /**
+   * Make a pipeline template with an additional stage. This template is not changed.
+   * @param next the factory for the next stage
+   * @return a new {@code PipelineTemplate}
+   */
+  public <U> PipelineTemplate<S, U> append(StageFactory<T, U> next) {
+    List<StageFactory<?, ?>> factories = new ArrayList<>(stageFactories);
+    factories.add(next);
+    PipelineTemplate<S, U> template = new PipelineTemplate<>(factories);
+    template.perThread = perThread;
+    return template;
+  }
+
+  /**
+   * Keep one pipeline per thread, instead of a shared pool.
+   * This avoids synchronization between threads, but a thread pool with many threads will have many pipelines.
+   * @param perThread whether to keep one pipeline per thread
+   * @return the {@code PipelineTemplate} itself
+   */
+  public PipelineTemplate<S, T> setPerThread(boolean perThread) {
+    this.perThread = perThread;
+    return this;
+  }
+
+  /**
+   * Make a new pipeline from the stage factories.
+   * @return a new pipeline, that is not pooled
+   */
+  public PooledPipeline<S, T> newPipeline() throws ConfigurationException, PipelineException {
+    List<Pipeline<?, ?>> stages = new ArrayList<>(stageFactories.size());
+    for (StageFactory<?, ?> factory : stageFactories) {
+      try {
+        stages.add(factory.newStage());
+      } catch (ConfigurationException | PipelineException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new ConfigurationException("Cannot make a pipeline stage.", e);
+      }
+    }
+    return new PooledPipeline<>(this, stages);
+  }
+
+  /**
+   * Get a pipeline for exclusive use by the current thread, until it is closed.
+   * @return a pipeline from the pool or for the current thread, or a new one
+   */
+  public PooledPipeline<S, T> acquire() throws ConfigurationException, PipelineException {
+    PooledPipeline<S, T> pipeline;
+    if (perThread) {
+      pipeline = threadPipeline.get();
+      if (pipeline == null || pipeline.inUse) {
+        // A nested acquire in the same thread gets a pipeline of its own.
+        pipeline = newPipeline();
+        if (threadPipeline.get() == null) {
+          threadPipeline.set(pipeline);
+        }
+      }
+    } else {
+      pipeline = pool.poll();
+      if (pipeline == null) {
+        pipeline = newPipeline();
+      }
+    }
+    pipeline.inUse = true;
+    return pipeline;
+  }
+
+  /**
+   * Return a pipeline after use. Pipelines that have failed are not re-used.
+   */
+  void release(PooledPipeline<S, T> pipeline) {
+    pipeline.inUse = false;
+    if (pipeline.failed) {
+      if (threadPipeline.get() == pipeline) {
+        threadPipeline.remove();
+      }
+    } else if (!perThread) {
+      pool.offer(pipeline);
+    }
+  }
+
+  /**
+   * Read one document with a pipeline from the pool, and send the output to {@code output}.
+   * The first stage must be an {@code InputSourceReader}.
+   * @param inputSource the input
+   * @param output the handler for the output of the pipeline, for example an {@code OutputSource}
+   */
+  public void read(InputSource inputSource, T output) throws ConfigurationException, PipelineException, IOException {
+    try (PooledPipeline<S, T> pipeline = acquire()) {
+      pipeline.read(inputSource, output);
+    }
+  }
+
+  /**
+   * A pipeline made by a {@code PipelineTemplate}. Closing it returns it to the template.
+   */
+  public static class PooledPipeline<S, T> implements AutoCloseable {
+
+    private final PipelineTemplate<S, T> template;
+    private final List<Pipeline<?, ?>> stages;
+    private final Pipeline<S, T> pipeline;
+    private boolean inUse = false;
+    private boolean failed = false;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private PooledPipeline(PipelineTemplate<S, T> template, List<Pipeline<?, ?>> stages) throws ConfigurationException, PipelineException {
+      this.template = template;
+      this.stages = stages;
+      Pipeline chain = stages.get(0);
+      for (int i = 1; i < stages.size(); ++i) {
+        chain = chain.append(stages.get(i));
+      }
+      this.pipeline = chain;
+    }
+
+    /**
+     * @return the pipeline, made by appending all stages
+     */
+    public Pipeline<S, T> getPipeline() {
+      return pipeline;
+    }
+
+    /**
+     * @return the first stage, which receives the input
+     */
+    public Pipeline<S, ?> getFirstStage() {
+      @SuppressWarnings("unchecked")
+      Pipeline<S, ?> first = (Pipeline<S, ?>)stages.get(0);
+      return first;
+    }
+
+    /**
+     * Read one document and send the output to {@code output}.
+     * The first stage must be an {@code InputSourceReader}.
+     * @param inputSource the input
+     * @param output the handler for the output of the pipeline
+     */
+    public void read(InputSource inputSource, T output) throws ConfigurationException, PipelineException, IOException {
+      if (!(stages.get(0) instanceof InputSourceReader)) {
+        throw new ConfigurationException("The first stage of the pipeline must be an InputSourceReader, not "+stages.get(0).getClass().getName());
+      }
+      InputSourceReader<?> reader = (InputSourceReader<?>)stages.get(0);
+      boolean succeeded = false;
+      try {
+        pipeline.setHandler(output);
+        reader.setInputSource(inputSource);
+        reader.read();
+        succeeded = true;
+      } finally {
+        failed |= !succeeded;
+        // Do not keep the input and output alive in the pool.
+        reader.setInputSource(null);
+        try {
+          pipeline.setHandler(null);
+        } catch (RuntimeException | ConfigurationException | PipelineException e) {
+          // The last stage can not release the output, so it must not stay in the pool.
+          failed = true;
+        }
+      }
+    }
+
+    /**
+     * Mark this pipeline as failed, so that it will not be re-used.
+     */
+    public void discard() {
+      failed = true;
+    }
+
+    /**
+     * Return this pipeline to its template.
+     */
+    @Override
+    public void close() {
+      template.release(this);
+    }
+
+  }
+
+}
@@ -0,0 +1,36 @@
+package org.greenmercury.speat;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import org.greenmercury.speat.sax.Sax;
+import org.greenmercury.speat.sax.SaxTee;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxTee;
+
+/**
+ * Makes the tees for {@code Pipeline.tee}.
+ * The branches are passed as an {@code Object[]}, so that the generic varargs array of {@code Pipeline.tee} is not passed on.
+ *<p>
+ * @author Rakensi
+ */
+final class TeeSupport {
+
+  private TeeSupport() {
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> Pipeline<T, T> tee(Executor executor, Object[] branches) throws ConfigurationException {
+    if (Arrays.stream(branches).allMatch(branch -> branch instanceof Smax)) {
+      return (Pipeline<T, T>)new SmaxTee(Arrays.copyOf(branches, branches.length, Smax[].class)).setExecutor(executor);
+    } else if (Arrays.stream(branches).allMatch(branch -> branch instanceof Sax)) {
+      if (executor != null) {
+        throw new ConfigurationException("SAX events can not be sent to the branches of a tee in parallel.");
+      }
+      return (Pipeline<T, T>)new SaxTee(Arrays.copyOf(branches, branches.length, Sax[].class));
+    } else {
+      throw new ConfigurationException("The branches of a tee must all be Smax or all be Sax.");
+    }
+  }
+
+}
@@ -36,6 +36,15 @@ public class FileInputSource extends InputSourceBase {
     this(file, "UTF-8");
   }
 
+  /**
+   * The length hint is the file size in bytes.
+   * @see org.greenmercury.speat.io.input.InputSource#getLengthHint()
+   */
+  @Override
+  public long getLengthHint() {
+    return file.length();
+  }
+
   @Override
   public long getLastModified() {
     return file.lastModified();
@@ -39,6 +39,15 @@ public interface InputSource extends AutoCloseable {
    */
   public long getLastModified();
 
+  /**
+   * Get an estimate of the number of characters in this input source, which can be used to pre-size buffers.
+   * For byte streams, this may be the number of bytes, which is at least the number of characters in most encodings.
+   * @return the estimated length, or {@code -1L} if it is not known
+   */
+  public default long getLengthHint() {
+    return -1L;
+  }
+
   /**
    * @return the URL of this input source, or null if it is not known
    */
@@ -8,6 +8,7 @@ import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Base implementation for {@code InputSource}.
@@ -28,6 +29,8 @@ public class InputSourceBase implements InputSource {
   private InputStream inputStream = null;
   private Reader reader = null;
 
+  private final ReentrantLock closeLock = new ReentrantLock();
+
   /**
    * Set the character encoding of the input source.
    * @param encoding the encoding to set
@@ -94,14 +97,19 @@ public class InputSourceBase implements InputSource {
    * @see java.lang.AutoCloseable#close()
    */
   @Override
-  public synchronized void close() throws IOException {
-    if (reader != null) {
-      reader.close();
-      reader = null;
-    }
-    if (inputStream != null) {
-      inputStream.close();
-      inputStream = null;
+  public void close() throws IOException {
+    closeLock.lock();
+    try {
+      if (reader != null) {
+        reader.close();
+        reader = null;
+      }
+      if (inputStream != null) {
+        inputStream.close();
+        inputStream = null;
+      }
+    } finally {
+      closeLock.unlock();
     }
   }
 
@@ -4,6 +4,7 @@ import java.io.IOException;
 
 import org.greenmercury.speat.AbstractPipeline;
 import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.jfr.SpeatEvents;
 
 /**
  * Abstract class that is the start of a pipeline, which reads from different kinds of inputSource sources
@@ -14,6 +15,8 @@ import org.greenmercury.speat.PipelineException;
  *<p>
  * Pipelines are re-useable; It must be possible to {@code read} more than one source document.
  *<p>
+ * If the handler is a {@code LengthHintHandler}, it gets the length hint of the input source before each document is read.
+ *<p>
  *
  * @author Rakensi
  */
@@ -33,10 +36,26 @@ public abstract class InputSourceReader<Api> extends AbstractPipeline<InputSourc
   /**
    * Read the inputSource source and send events to the handler.
    * Also keeps track of when the input source was read by this reader.
+   * If the thread has no document id for Java Flight Recorder events, the URL of the input source is used while it is read.
    */
   public void read() throws IOException, PipelineException {
     checkReadable();
-    readInputAndSendEvents();
+    if (handler instanceof LengthHintHandler) {
+      ((LengthHintHandler)handler).setLengthHint(inputSource.getLengthHint());
+    }
+    boolean setDocumentId = SpeatEvents.getDocumentId() == null && inputSource.getUrl() != null;
+    if (setDocumentId) {
+      SpeatEvents.setDocumentId(inputSource.getUrl().toString());
+    }
+    try {
+      Object event = SpeatEvents.beginStage();
+      readInputAndSendEvents();
+      SpeatEvents.endStage(event, getMetricsName(), getClass(), -1L);
+    } finally {
+      if (setDocumentId) {
+        SpeatEvents.setDocumentId(null);
+      }
+    }
     lastRead = System.currentTimeMillis();
   }
 
@@ -0,0 +1,19 @@
+package org.greenmercury.speat.io.input;
+
+/**
+ * A handler that can use the estimated length of the input, for example to pre-size a buffer.
+ * An {@code InputSourceReader} passes the length hint of its input source to a handler that implements this interface,
+ * before it reads a document.
+ *<p>
+ * @author Rakensi
+ */
+public interface LengthHintHandler {
+
+  /**
+   * Set the estimated length of the next document.
+   * @param lengthHint the estimated number of characters, or {@code -1L} if it is not known
+   * @see InputSource#getLengthHint()
+   */
+  public void setLengthHint(long lengthHint);
+
+}
@@ -25,6 +25,11 @@ public class StringInputSource extends InputSourceBase {
     setLastModified(System.currentTimeMillis());
   }
 
+  @Override
+  public long getLengthHint() {
+    return input.length();
+  }
+
   @Override
   public boolean hasReader() throws UnsupportedEncodingException {
     return true;
@@ -8,6 +8,7 @@ import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class OutputSourceBase implements OutputSource {
 
@@ -18,6 +19,8 @@ public class OutputSourceBase implements OutputSource {
   private OutputStream outputStream = null;
   private Writer writer = null;
 
+  private final ReentrantLock closeLock = new ReentrantLock();
+
   /**
    * Set the character encoding of the output source.
    * @param encoding the encoding to set
@@ -70,14 +73,19 @@ public class OutputSourceBase implements OutputSource {
    * @see java.lang.AutoCloseable#close()
    */
   @Override
-  public synchronized void close() throws IOException {
-    if (writer != null) {
-      writer.close();
-      writer = null;
-    }
-    if (outputStream != null) {
-      outputStream.close();
-      outputStream = null;
+  public void close() throws IOException {
+    closeLock.lock();
+    try {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+      if (outputStream != null) {
+        outputStream.close();
+        outputStream = null;
+      }
+    } finally {
+      closeLock.unlock();
     }
   }
 
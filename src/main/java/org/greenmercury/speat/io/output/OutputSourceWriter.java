@@ -11,12 +11,15 @@ public abstract class OutputSourceWriter<Api> extends AbstractPipeline<Api, Outp
   /**
    * Set the {@code Api} handler.
    * Before events are received, the {@code outputSource} must be writable.
+   * Setting it to {@code null} releases the previous output source, for example when a pipeline is pooled.
    * @see org.greenmercury.speat.EventSupplier#setHandler(java.lang.Object)
    */
   @Override
   public void setHandler(OutputSource outputSource) throws ConfigurationException, PipelineException {
     this.outputSource = outputSource;
-    checkWritable();
+    if (outputSource != null) {
+      checkWritable();
+    }
   }
 
   @Override
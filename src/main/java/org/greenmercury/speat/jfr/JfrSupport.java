@@ -0,0 +1,78 @@
+package org.greenmercury.speat.jfr;
+
+/**
+ * The only class that uses the event classes, so that they are not loaded when Java Flight Recorder is not available.
+ * It is only used by {@code SpeatEvents}, after it has checked that the {@code jdk.jfr} API is there.
+ *<p>
+ * Each {@code begin} method returns an event that has begun, or {@code null} when the event is not enabled in a recording.
+ *<p>
+ * @author Rakensi
+ */
+final class JfrSupport {
+
+  private JfrSupport() {
+  }
+
+  static Object beginStage() {
+    PipelineStageEvent event = new PipelineStageEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endStage(Object begun, String stage, Class<?> stageClass, String documentId, long chars) {
+    PipelineStageEvent event = (PipelineStageEvent)begun;
+    event.end();
+    if (event.shouldCommit()) {
+      event.stage = stage;
+      event.stageClass = stageClass;
+      event.documentId = documentId;
+      event.chars = chars;
+      event.commit();
+    }
+  }
+
+  static Object beginTrieCompile() {
+    TrieCompileEvent event = new TrieCompileEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endTrieCompile(Object begun, String grammarUrl, int keys, int nodes, long bytes) {
+    TrieCompileEvent event = (TrieCompileEvent)begun;
+    event.end();
+    if (event.shouldCommit()) {
+      event.grammarUrl = grammarUrl;
+      event.keys = keys;
+      event.nodes = nodes;
+      event.bytes = bytes;
+      event.commit();
+    }
+  }
+
+  static Object beginNerScan() {
+    NerScanEvent event = new NerScanEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void endNerScan(Object begun, String documentId, int fragmentLength, int matches) {
+    NerScanEvent event = (NerScanEvent)begun;
+    event.end();
+    if (event.shouldCommit()) {
+      event.documentId = documentId;
+      event.fragmentLength = fragmentLength;
+      event.matches = matches;
+      event.commit();
+    }
+  }
+
+}
@@ -0,0 +1,33 @@
+package org.greenmercury.speat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for the scan of a document fragment by a named entity recognizer.
+ *<p>
+ * Do not use this class directly, because it is not available on all Java platforms; use {@code SpeatEvents}.
+ *<p>
+ * @author Rakensi
+ */
+@Name("org.greenmercury.speat.NerScan")
+@Label("NER Scan")
+@Category("SPEAT")
+@Description("A named entity recognizer scanned a fragment of a document")
+public class NerScanEvent extends jdk.jfr.Event {
+
+  @Label("Document")
+  @Description("The document id of the thread that transforms the document, see SpeatEvents.setDocumentId")
+  String documentId;
+
+  @Label("Fragment Length")
+  @Description("The number of characters in the fragment")
+  int fragmentLength;
+
+  @Label("Matches")
+  @Description("The number of recognized entities")
+  int matches;
+
+}
@@ -0,0 +1,38 @@
+package org.greenmercury.speat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for the processing of a document by a pipeline stage.
+ * Its duration is the time the stage took; for stages that pass on events while they work, like readers,
+ * this includes the stages after it.
+ *<p>
+ * Do not use this class directly, because it is not available on all Java platforms; use {@code SpeatEvents}.
+ *<p>
+ * @author Rakensi
+ */
+@Name("org.greenmercury.speat.PipelineStage")
+@Label("Pipeline Stage")
+@Category("SPEAT")
+@Description("A pipeline stage processed a document")
+public class PipelineStageEvent extends jdk.jfr.Event {
+
+  @Label("Stage")
+  @Description("The metrics name of the stage")
+  String stage;
+
+  @Label("Stage Class")
+  Class<?> stageClass;
+
+  @Label("Document")
+  @Description("The document id of the thread, see SpeatEvents.setDocumentId")
+  String documentId;
+
+  @Label("Characters")
+  @Description("The number of content characters, or -1 if not known")
+  long chars;
+
+}
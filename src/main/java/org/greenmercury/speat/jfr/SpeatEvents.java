@@ -0,0 +1,130 @@
+package org.greenmercury.speat.jfr;
+
+/**
+ * Emits Java Flight Recorder events for pipeline stages, grammar compilation and named entity recognition,
+ * so that slow documents can be found in a running application, without logging.
+ *<p>
+ * The events are only emitted when the {@code jdk.jfr} API is available, which is the case in Java 11 and later,
+ * and when they are enabled in a running recording, for example with {@code -XX:StartFlightRecording}
+ * or with {@code jcmd <pid> JFR.start}. Otherwise, the {@code begin} methods return {@code null}, and nothing is measured.
+ * Set the system property {@code speat.jfr} to {@code false} to switch off the events altogether.
+ *<p>
+ * Events are emitted in pairs: a {@code begin} method returns a token, which is passed to the matching {@code end} method.
+ * The token may be {@code null}, and the {@code end} methods do nothing in that case.
+ *<p>
+ * Each thread has a document id, which is added to the events, so that they can be related to the document.
+ * {@code InputSourceReader.read} sets it to the URL of its input source, unless it has already been set,
+ * for example by {@code PipelineRunner}, which sets it to the name of the job.
+ *<p>
+ * @author Rakensi
+ */
+public final class SpeatEvents {
+
+  /**
+   * Whether the events can be emitted.
+   */
+  public static final boolean AVAILABLE = isAvailable();
+
+  private static final ThreadLocal<String> documentId = new ThreadLocal<>();
+
+  private SpeatEvents() {
+  }
+
+  private static boolean isAvailable() {
+    if ("false".equals(System.getProperty("speat.jfr"))) {
+      return false;
+    }
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Set the document id of the current thread.
+   * @param id the document id, or {@code null} to remove it
+   * @return the previous document id, so that it can be restored
+   */
+  public static String setDocumentId(String id) {
+    String previous = documentId.get();
+    if (id == null) {
+      documentId.remove();
+    } else {
+      documentId.set(id);
+    }
+    return previous;
+  }
+
+  /**
+   * @return the document id of the current thread, or {@code null} if it has not been set
+   */
+  public static String getDocumentId() {
+    return documentId.get();
+  }
+
+  /**
+   * Begin a {@code PipelineStageEvent}.
+   * @return a token for {@code endStage}, or {@code null} if the event is not recorded
+   */
+  public static Object beginStage() {
+    return AVAILABLE ? JfrSupport.beginStage() : null;
+  }
+
+  /**
+   * End a {@code PipelineStageEvent}, and emit it.
+   * @param token the token returned by {@code beginStage}
+   * @param stage the metrics name of the stage
+   * @param stageClass the class of the stage
+   * @param chars the number of content characters, or -1 if not known
+   */
+  public static void endStage(Object token, String stage, Class<?> stageClass, long chars) {
+    if (token != null) {
+      JfrSupport.endStage(token, stage, stageClass, documentId.get(), chars);
+    }
+  }
+
+  /**
+   * Begin a {@code TrieCompileEvent}.
+   * @return a token for {@code endTrieCompile}, or {@code null} if the event is not recorded
+   */
+  public static Object beginTrieCompile() {
+    return AVAILABLE ? JfrSupport.beginTrieCompile() : null;
+  }
+
+  /**
+   * End a {@code TrieCompileEvent}, and emit it.
+   * @param token the token returned by {@code beginTrieCompile}
+   * @param grammarUrl the URL of the grammar
+   * @param keys the number of keys in the trie
+   * @param nodes the number of nodes in the trie
+   * @param bytes the estimated size of the trie in memory
+   */
+  public static void endTrieCompile(Object token, String grammarUrl, int keys, int nodes, long bytes) {
+    if (token != null) {
+      JfrSupport.endTrieCompile(token, grammarUrl, keys, nodes, bytes);
+    }
+  }
+
+  /**
+   * Begin a {@code NerScanEvent}.
+   * @return a token for {@code endNerScan}, or {@code null} if the event is not recorded
+   */
+  public static Object beginNerScan() {
+    return AVAILABLE ? JfrSupport.beginNerScan() : null;
+  }
+
+  /**
+   * End a {@code NerScanEvent}, and emit it.
+   * @param token the token returned by {@code beginNerScan}
+   * @param fragmentLength the number of characters in the scanned fragment
+   * @param matches the number of recognized entities
+   */
+  public static void endNerScan(Object token, int fragmentLength, int matches) {
+    if (token != null) {
+      JfrSupport.endNerScan(token, documentId.get(), fragmentLength, matches);
+    }
+  }
+
+}
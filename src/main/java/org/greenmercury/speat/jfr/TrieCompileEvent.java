@@ -0,0 +1,36 @@
+package org.greenmercury.speat.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for the compilation of a grammar into a trie.
+ *<p>
+ * Do not use this class directly, because it is not available on all Java platforms; use {@code SpeatEvents}.
+ *<p>
+ * @author Rakensi
+ */
+@Name("org.greenmercury.speat.TrieCompile")
+@Label("Trie Compile")
+@Category("SPEAT")
+@Description("A grammar was compiled into a trie")
+public class TrieCompileEvent extends jdk.jfr.Event {
+
+  @Label("Grammar")
+  String grammarUrl;
+
+  @Label("Keys")
+  int keys;
+
+  @Label("Nodes")
+  int nodes;
+
+  @Label("Size")
+  @Description("The estimated size of the trie in memory")
+  @DataAmount
+  long bytes;
+
+}
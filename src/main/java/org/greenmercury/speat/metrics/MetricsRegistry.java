@@ -0,0 +1,228 @@
+package org.greenmercury.speat.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@code PipelineMetrics} implementation that keeps counters and timers in memory, where they can be queried or dumped.
+ *<p>
+ * Each timer keeps the number of recorded durations, their total, minimum and maximum,
+ * and a histogram with a bucket for each power of two nanoseconds.
+ * Percentiles are estimated from the histogram, so they are accurate within a factor of two.
+ * Recording does not lock, so the values that are read while stages are running may be slightly inconsistent.
+ *<p>
+ * @author Rakensi
+ */
+public class MetricsRegistry implements PipelineMetrics {
+
+  /**
+   * The counters and timers of each stage.
+   */
+  private final Map<String, Map<String, LongAdder>> counters = new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Timer>> timers = new ConcurrentHashMap<>();
+
+  /**
+   * A timer, which keeps statistics of recorded durations.
+   */
+  public static final class Timer {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong minNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxNanos = new AtomicLong(0L);
+    /** Bucket {@code i} counts durations {@code d} with {@code 2^(i-1) <= d < 2^i}, and bucket 0 counts durations of 0. */
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private Timer() {
+    }
+
+    private void record(long nanos) {
+      if (nanos < 0) {
+        nanos = 0;
+      }
+      count.increment();
+      totalNanos.add(nanos);
+      minNanos.accumulateAndGet(nanos, Math::min);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+      histogram.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+    }
+
+    /**
+     * @return the number of recorded durations
+     */
+    public long getCount() {
+      return count.sum();
+    }
+
+    /**
+     * @return the total of the recorded durations, in nanoseconds
+     */
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    /**
+     * @return the shortest recorded duration, in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getMinNanos() {
+      long min = minNanos.get();
+      return min == Long.MAX_VALUE ? 0L : min;
+    }
+
+    /**
+     * @return the longest recorded duration, in nanoseconds
+     */
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    /**
+     * @return the mean of the recorded durations, in nanoseconds, or 0 if nothing has been recorded
+     */
+    public double getMeanNanos() {
+      long n = getCount();
+      return n == 0 ? 0.0 : (double)getTotalNanos() / n;
+    }
+
+    /**
+     * Estimate a percentile of the recorded durations.
+     * The estimate is the upper bound of the histogram bucket that contains the percentile, but not more than the maximum.
+     * @param percentile a number between 0 and 100
+     * @return the estimated duration, in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("A percentile must be between 0 and 100, not "+percentile);
+      }
+      long total = 0L;
+      for (int i = 0; i < BUCKETS; ++i) {
+        total += histogram.get(i);
+      }
+      long rank = (long)Math.ceil(percentile / 100.0 * total);
+      long seen = 0L;
+      for (int i = 0; i < BUCKETS; ++i) {
+        seen += histogram.get(i);
+        if (seen >= rank && seen > 0) {
+          long upperBound = i == 0 ? 0L : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+          return Math.min(upperBound, getMaxNanos());
+        }
+      }
+      return 0L;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("count=%d total=%.3fms mean=%.3fms min=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+          getCount(), getTotalNanos() / 1e6, getMeanNanos() / 1e6, getMinNanos() / 1e6,
+          getPercentileNanos(50) / 1e6, getPercentileNanos(99) / 1e6, getMaxNanos() / 1e6);
+    }
+
+  }
+
+  @Override
+  public void count(String stage, String name, long amount) {
+    counters.computeIfAbsent(stage, s -> new ConcurrentHashMap<>()).computeIfAbsent(name, n -> new LongAdder()).add(amount);
+  }
+
+  @Override
+  public void recordNanos(String stage, String name, long nanos) {
+    timers.computeIfAbsent(stage, s -> new ConcurrentHashMap<>()).computeIfAbsent(name, n -> new Timer()).record(nanos);
+  }
+
+  /**
+   * @return the names of the stages that have recorded metrics, in alphabetical order
+   */
+  public Set<String> getStages() {
+    Set<String> stages = new TreeSet<>(counters.keySet());
+    stages.addAll(timers.keySet());
+    return stages;
+  }
+
+  /**
+   * @param stage the name of a stage
+   * @param name the name of a counter
+   * @return the value of the counter, which is 0 if nothing has been counted
+   */
+  public long getCount(String stage, String name) {
+    Map<String, LongAdder> stageCounters = counters.get(stage);
+    LongAdder counter = stageCounters == null ? null : stageCounters.get(name);
+    return counter == null ? 0L : counter.sum();
+  }
+
+  /**
+   * @param stage the name of a stage
+   * @param name the name of a timer
+   * @return the timer, or {@code null} if nothing has been recorded in it
+   */
+  public Timer getTimer(String stage, String name) {
+    Map<String, Timer> stageTimers = timers.get(stage);
+    return stageTimers == null ? null : stageTimers.get(name);
+  }
+
+  /**
+   * @param stage the name of a stage
+   * @return the values of the counters of the stage, by name
+   */
+  public Map<String, Long> getCounts(String stage) {
+    Map<String, Long> counts = new TreeMap<>();
+    Map<String, LongAdder> stageCounters = counters.get(stage);
+    if (stageCounters != null) {
+      stageCounters.forEach((name, counter) -> counts.put(name, counter.sum()));
+    }
+    return counts;
+  }
+
+  /**
+   * @param stage the name of a stage
+   * @return the timers of the stage, by name
+   */
+  public Map<String, Timer> getTimers(String stage) {
+    Map<String, Timer> stageTimers = timers.get(stage);
+    return stageTimers == null ? new TreeMap<>() : new TreeMap<>(stageTimers);
+  }
+
+  /**
+   * Forget all recorded metrics.
+   */
+  public void reset() {
+    counters.clear();
+    timers.clear();
+  }
+
+  /**
+   * Write all metrics in a readable form, one line per counter or timer.
+   * @param out where the metrics are written
+   */
+  public void dump(Appendable out) throws IOException {
+    for (String stage : getStages()) {
+      for (Map.Entry<String, Long> counter : getCounts(stage).entrySet()) {
+        out.append(stage).append('.').append(counter.getKey()).append(": ").append(counter.getValue().toString()).append('\n');
+      }
+      for (Map.Entry<String, Timer> timer : getTimers(stage).entrySet()) {
+        out.append(stage).append('.').append(timer.getKey()).append(": ").append(timer.getValue().toString()).append('\n');
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder out = new StringBuilder();
+    try {
+      dump(out);
+    } catch (IOException e) {
+      // A StringBuilder does not throw IOExceptions.
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+}
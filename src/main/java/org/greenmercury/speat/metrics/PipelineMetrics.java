@@ -0,0 +1,100 @@
+package org.greenmercury.speat.metrics;
+
+/**
+ * Service provider interface for recording metrics of pipeline stages.
+ * A pipeline stage records counters, like the number of documents and characters it has processed,
+ * and timers, which are the durations of its work, under its stage name.
+ * Set an implementation with {@code Pipeline.setMetrics}; the default is {@code NONE}, which records nothing.
+ *<p>
+ * Timing is done by getting a start time from {@code startTime()}, and passing it to {@code recordTime()} when done.
+ * When metrics are not enabled, the clock is not read at all, so a disabled timer costs nothing.
+ *<p>
+ * Implementations must be thread-safe, because stages may run on several threads, and may share an implementation.
+ *<p>
+ * @author Rakensi
+ */
+public interface PipelineMetrics {
+
+  /** The counter for the number of documents processed by a stage. */
+  public static final String DOCUMENTS = "documents";
+  /** The counter for the number of content characters processed by a stage. */
+  public static final String CHARS = "chars";
+  /** The counter for the number of (sub-)documents transformed by a stage, which is more than the documents when {@code transformWithin} is used. */
+  public static final String FRAGMENTS = "fragments";
+  /** The counter for the number of markup elements inserted by a stage. */
+  public static final String MATCHES = "matches";
+  /**
+   * The timer for processing a document by a stage, until the stage passes it on, not including the stages after it.
+   * For a stage that receives SAX events, the time starts at {@code startDocument}, so it includes the parser that sends them.
+   * {@code SmaxToSaxAdapter} is the exception: it sends SAX events to the next stages while it traverses a document,
+   * so its time includes the stages that handle these events.
+   */
+  public static final String PROCESS = "process";
+
+  /**
+   * Metrics that records nothing, and never reads the clock.
+   */
+  public static final PipelineMetrics NONE = new PipelineMetrics() {
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+    @Override
+    public long startTime() {
+      return 0L;
+    }
+    @Override
+    public void count(String stage, String name, long amount) {
+      // Do nothing.
+    }
+    @Override
+    public void recordNanos(String stage, String name, long nanos) {
+      // Do nothing.
+    }
+    @Override
+    public void recordTime(String stage, String name, long startTime) {
+      // Do nothing.
+    }
+  };
+
+  /**
+   * @return whether metrics are recorded. Stages can skip work that is only needed for metrics when this is false.
+   */
+  public default boolean isEnabled() {
+    return true;
+  }
+
+  /**
+   * @return a start time in nanoseconds, to be passed to {@code recordTime}
+   */
+  public default long startTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Add to a counter.
+   * @param stage the name of the pipeline stage
+   * @param name the name of the counter
+   * @param amount the amount to add
+   */
+  public void count(String stage, String name, long amount);
+
+  /**
+   * Record a duration in a timer.
+   * @param stage the name of the pipeline stage
+   * @param name the name of the timer
+   * @param nanos the duration in nanoseconds
+   */
+  public void recordNanos(String stage, String name, long nanos);
+
+  /**
+   * Record the time since a start time in a timer.
+   * @param stage the name of the pipeline stage
+   * @param name the name of the timer
+   * @param startTime the start time, from {@code startTime()}
+   */
+  public default void recordTime(String stage, String name, long startTime) {
+    recordNanos(stage, name, System.nanoTime() - startTime);
+  }
+
+}
@@ -12,21 +12,23 @@ import org.greenmercury.speat.PipelineException;
 import org.greenmercury.speat.io.input.InputSource;
 import org.greenmercury.speat.io.input.InputSourceReader;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 /**
  * This reads HTML from an InputSourceEventSupplier and produces SAX events, using TagSoup [http://vrici.lojban.org/~cowan/XML/tagsoup/].
  *<p>
+ * The TagSoup parser is taken from a pool for each document, and returned when the document has been read.
+ *<p>
  * @author Rakensi
  */
 public class HtmlSaxReader extends InputSourceReader<Sax> implements Pipeline<InputSource, Sax> {
 
-  private Parser htmlParser;
+  private static final XMLReaderPool pool = new XMLReaderPool(Parser::new);
 
   /**
    * Constructor for HtmlSaxReader.
    */
   public HtmlSaxReader() throws ParserConfigurationException {
-    htmlParser = new Parser();
   }
 
   /**
@@ -34,6 +36,17 @@ public class HtmlSaxReader extends InputSourceReader<Sax> implements Pipeline<In
    */
   @Override
   protected void readInputAndSendEvents() throws IOException, PipelineException {
+    XMLReader htmlParser;
+    try {
+      htmlParser = pool.borrow();
+    } catch (SAXException | ParserConfigurationException e) {
+      throw new PipelineException("Cannot make an HTML parser.", e);
+    }
+    parse(htmlParser);
+    pool.release(htmlParser);
+  }
+
+  private void parse(XMLReader htmlParser) throws IOException, PipelineException {
     htmlParser.setContentHandler(handler);
     htmlParser.setDTDHandler(handler);
     htmlParser.setEntityResolver(handler);
@@ -3,6 +3,7 @@ package org.greenmercury.speat.sax;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
@@ -20,19 +21,42 @@ import org.xml.sax.XMLReader;
  * Wrapper for org.xml.sax.XMLReader for use in a SPEAT pipeline.
  * This reads XML from an InputSource and produces SAX events.
  *<p>
+ * Unless an {@code XMLReader} is given in the constructor, the parser is taken from a pool for each document,
+ * and returned when the document has been read. The parsers in the pool come from one shared {@code SAXParserFactory},
+ * so that making a {@code SaxReader} is cheap.
+ *<p>
  * @author Rakensi
  */
 public class SaxReader extends InputSourceReader<Sax> implements Pipeline<InputSource, Sax> {
 
+  private static final SAXParserFactory factory = SAXParserFactory.newInstance();
+  static {
+    factory.setNamespaceAware(true);
+  }
+
+  /**
+   * The pool of namespace-aware XML parsers. A {@code SAXParserFactory} is not thread-safe, so its use is guarded by a lock.
+   */
+  private static final ReentrantLock factoryLock = new ReentrantLock();
+  private static final XMLReaderPool pool = new XMLReaderPool(() -> {
+    factoryLock.lock();
+    try {
+      return factory.newSAXParser().getXMLReader();
+    } finally {
+      factoryLock.unlock();
+    }
+  });
+
+  /**
+   * The XMLReader given in the constructor, or {@code null} if readers are taken from the pool.
+   */
   private XMLReader xmlReader;
 
   /**
    * Constructor for SaxReader.
    */
   public SaxReader() throws SAXException, ParserConfigurationException {
-    SAXParserFactory factory = SAXParserFactory.newInstance();
-    factory.setNamespaceAware(true);
-    xmlReader = factory.newSAXParser().getXMLReader();
+    xmlReader = null;
   }
 
   /**
@@ -48,6 +72,21 @@ public class SaxReader extends InputSourceReader<Sax> implements Pipeline<InputS
    */
   @Override
   protected void readInputAndSendEvents() throws IOException, PipelineException {
+    if (this.xmlReader != null) {
+      parse(this.xmlReader);
+    } else {
+      XMLReader xmlReader;
+      try {
+        xmlReader = pool.borrow();
+      } catch (SAXException | ParserConfigurationException e) {
+        throw new PipelineException("Cannot make an XML parser.", e);
+      }
+      parse(xmlReader);
+      pool.release(xmlReader);
+    }
+  }
+
+  private void parse(XMLReader xmlReader) throws IOException, PipelineException {
     xmlReader.setContentHandler(handler);
     xmlReader.setDTDHandler(handler);
     xmlReader.setEntityResolver(handler);
@@ -0,0 +1,363 @@
+package org.greenmercury.speat.sax;
+
+import java.io.IOException;
+
+import org.greenmercury.speat.AbstractPipeline;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * A pipeline that sends all SAX events to its handler, and also to a number of branches.
+ * Use {@code Pipeline.tee} to make one.
+ *<p>
+ * Events are sent to the handler first, and then to the branches, in order.
+ * The {@code char[]} and {@code Attributes} arguments are shared by all targets, which must not change them,
+ * as required by the SAX specification.
+ * For the {@code EntityResolver} methods, the first target that returns an {@code InputSource} determines the result.
+ *<p>
+ * The handler may be {@code null}, so that a tee can be the last stage of a pipeline.
+ *<p>
+ * @author Rakensi
+ */
+public class SaxTee extends AbstractPipeline<Sax, Sax> implements Sax {
+
+  private final Sax[] branches;
+  private Sax handler = null;
+
+  /**
+   * All targets of the events: the handler, if it is set, and the branches.
+   */
+  private Sax[] targets;
+
+  /**
+   * Constructor for a {@code SaxTee}.
+   * @param branches the event APIs that receive the events, next to the handler
+   */
+  public SaxTee(Sax... branches) {
+    this.branches = branches.clone();
+    this.targets = this.branches;
+  }
+
+  @Override
+  public Sax getEventApi() {
+    return this;
+  }
+
+  @Override
+  public void setHandler(Sax handler) {
+    this.handler = handler;
+    if (handler == null) {
+      targets = branches;
+    } else {
+      targets = new Sax[branches.length + 1];
+      targets[0] = handler;
+      System.arraycopy(branches, 0, targets, 1, branches.length);
+    }
+  }
+
+  @Override
+  public Sax getHandler() {
+    return handler;
+  }
+
+  // ContentHandler methods
+
+  /* (@see org.xml.sax.ContentHandler#setDocumentLocator(org.xml.sax.Locator)
+   */
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    for (Sax sax : targets) {
+      sax.setDocumentLocator(locator);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#startDocument()
+   */
+  @Override
+  public void startDocument() throws SAXException {
+    for (Sax sax : targets) {
+      sax.startDocument();
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#endDocument()
+   */
+  @Override
+  public void endDocument() throws SAXException {
+    for (Sax sax : targets) {
+      sax.endDocument();
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#startPrefixMapping(java.lang.String, java.lang.String)
+   */
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    for (Sax sax : targets) {
+      sax.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#endPrefixMapping(java.lang.String)
+   */
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    for (Sax sax : targets) {
+      sax.endPrefixMapping(prefix);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+   */
+  @Override
+  public void startElement(String namespaceUri, String localName, String qualifiedName, Attributes attributes) throws SAXException {
+    for (Sax sax : targets) {
+      sax.startElement(namespaceUri, localName, qualifiedName, attributes);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void endElement(String namespaceUri, String localName, String qualifiedName) throws SAXException {
+    for (Sax sax : targets) {
+      sax.endElement(namespaceUri, localName, qualifiedName);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#characters(char[], int, int)
+   */
+  @Override
+  public void characters(char[] characters, int start, int length) throws SAXException {
+    for (Sax sax : targets) {
+      sax.characters(characters, start, length);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#ignorableWhitespace(char[], int, int)
+   */
+  @Override
+  public void ignorableWhitespace(char[] characters, int start, int length) throws SAXException {
+    for (Sax sax : targets) {
+      sax.ignorableWhitespace(characters, start, length);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#processingInstruction(java.lang.String, java.lang.String)
+   */
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    for (Sax sax : targets) {
+      sax.processingInstruction(target, data);
+    }
+  }
+
+  /* (@see org.xml.sax.ContentHandler#skippedEntity(java.lang.String)
+   */
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    for (Sax sax : targets) {
+      sax.skippedEntity(name);
+    }
+  }
+
+  // DTDHandler methods
+
+  /* (@see org.xml.sax.DTDHandler#notationDecl(java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+    for (Sax sax : targets) {
+      sax.notationDecl(name, publicId, systemId);
+    }
+  }
+
+  /* (@see org.xml.sax.DTDHandler#unparsedEntityDecl(java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+    for (Sax sax : targets) {
+      sax.unparsedEntityDecl(name, publicId, systemId, notationName);
+    }
+  }
+
+  // EntityResolver methods
+
+  /* (@see org.xml.sax.EntityResolver#resolveEntity(java.lang.String, java.lang.String)
+   * The first target that resolves the entity determines the result.
+   */
+  @Override
+  public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+    for (Sax sax : targets) {
+      InputSource inputSource = sax.resolveEntity(publicId, systemId);
+      if (inputSource != null) {
+        return inputSource;
+      }
+    }
+    return null;
+  }
+
+  // ErrorHandler methods
+
+  /* (@see org.xml.sax.ErrorHandler#warning(org.xml.sax.SAXParseException)
+   */
+  @Override
+  public void warning(SAXParseException exception) throws SAXException {
+    for (Sax sax : targets) {
+      sax.warning(exception);
+    }
+  }
+
+  /* (@see org.xml.sax.ErrorHandler#error(org.xml.sax.SAXParseException)
+   */
+  @Override
+  public void error(SAXParseException exception) throws SAXException {
+    for (Sax sax : targets) {
+      sax.error(exception);
+    }
+  }
+
+  /* (@see org.xml.sax.ErrorHandler#fatalError(org.xml.sax.SAXParseException)
+   */
+  @Override
+  public void fatalError(SAXParseException exception) throws SAXException {
+    for (Sax sax : targets) {
+      sax.fatalError(exception);
+    }
+  }
+
+  // DeclHandler methods
+
+  /* (@see org.xml.sax.ext.DeclHandler#elementDecl(java.lang.String, java.lang.String)
+   */
+  @Override
+  public void elementDecl(String name, String model) throws SAXException {
+    for (Sax sax : targets) {
+      sax.elementDecl(name, model);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.DeclHandler#attributeDecl(java.lang.String, java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void attributeDecl(String eName, String aName, String type, String mode, String value) throws SAXException {
+    for (Sax sax : targets) {
+      sax.attributeDecl(eName, aName, type, mode, value);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.DeclHandler#internalEntityDecl(java.lang.String, java.lang.String)
+   */
+  @Override
+  public void internalEntityDecl(String name, String value) throws SAXException {
+    for (Sax sax : targets) {
+      sax.internalEntityDecl(name, value);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.DeclHandler#externalEntityDecl(java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void externalEntityDecl(String name, String publicId, String systemId) throws SAXException {
+    for (Sax sax : targets) {
+      sax.externalEntityDecl(name, publicId, systemId);
+    }
+  }
+
+  // EntityResolver2 methods
+
+  /* (@see org.xml.sax.ext.EntityResolver2#getExternalSubset(java.lang.String, java.lang.String)
+   */
+  @Override
+  public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
+    for (Sax sax : targets) {
+      InputSource inputSource = sax.getExternalSubset(name, baseURI);
+      if (inputSource != null) {
+        return inputSource;
+      }
+    }
+    return null;
+  }
+
+  /* (@see org.xml.sax.ext.EntityResolver2#resolveEntity(java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+    for (Sax sax : targets) {
+      InputSource inputSource = sax.resolveEntity(name, publicId, baseURI, systemId);
+      if (inputSource != null) {
+        return inputSource;
+      }
+    }
+    return null;
+  }
+
+  // LexicalHandler methods
+
+  /* (@see org.xml.sax.ext.LexicalHandler#startDTD(java.lang.String, java.lang.String, java.lang.String)
+   */
+  @Override
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {
+    for (Sax sax : targets) {
+      sax.startDTD(name, publicId, systemId);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#endDTD()
+   */
+  @Override
+  public void endDTD() throws SAXException {
+    for (Sax sax : targets) {
+      sax.endDTD();
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#startEntity(java.lang.String)
+   */
+  @Override
+  public void startEntity(String name) throws SAXException {
+    for (Sax sax : targets) {
+      sax.startEntity(name);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#endEntity(java.lang.String)
+   */
+  @Override
+  public void endEntity(String name) throws SAXException {
+    for (Sax sax : targets) {
+      sax.endEntity(name);
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#startCDATA()
+   */
+  @Override
+  public void startCDATA() throws SAXException {
+    for (Sax sax : targets) {
+      sax.startCDATA();
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#endCDATA()
+   */
+  @Override
+  public void endCDATA() throws SAXException {
+    for (Sax sax : targets) {
+      sax.endCDATA();
+    }
+  }
+
+  /* (@see org.xml.sax.ext.LexicalHandler#comment(char[], int, int)
+   */
+  @Override
+  public void comment(char[] characters, int start, int length) throws SAXException {
+    for (Sax sax : targets) {
+      sax.comment(characters, start, length);
+    }
+  }
+
+}
@@ -1,5 +1,10 @@
 package org.greenmercury.speat.sax;
 
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.stream.StreamResult;
@@ -10,6 +15,7 @@ import org.greenmercury.speat.PipelineException;
 import org.greenmercury.speat.io.output.OutputSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 import net.sf.saxon.Configuration;
@@ -21,26 +27,43 @@ import net.sf.saxon.jaxp.IdentityTransformerHandler;
  * This consumes SAX events and writes XML to an OutputSource.
  * It extends {@code SaxEventHandler}, and therefore cannot also extend {@code OutputSourceWriter<Sax>}.
  *<p>
+ * All {@code SaxWriter}s share one Saxon {@code Configuration}, which is thread-safe, and expensive to make.
+ * The serializer handlers are kept in a pool. A {@code SaxWriter} takes a handler from the pool when a document
+ * starts, and returns it when the document ends, so that making a {@code SaxWriter} for each request is cheap.
+ * If a document is not ended, for example because of an exception, the handler is not returned, and is garbage collected.
+ *<p>
  * @author Rakensi
  */
 public class SaxWriter extends SaxEventHandler implements Pipeline<Sax, OutputSource> {
 
-  private SerializerIdentityTransformerHandler serializer;
+  /**
+   * The Saxon configuration that is shared by all {@code SaxWriter}s.
+   */
+  private static final Configuration CONFIGURATION = Configuration.newConfiguration();
+
+  /**
+   * The maximum number of idle serializer handlers in the pool.
+   */
+  private static final int MAX_POOL_SIZE = 64;
+  private static final Queue<SerializerIdentityTransformerHandler> pool = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger poolSize = new AtomicInteger();
+
+  private final Properties outputProperties = new Properties();
+  private StreamResult result = null;
   private OutputSource outputSource = null;
+  private SerializerIdentityTransformerHandler serializer = null;
+  private Locator locator = null;
 
   /**
    * Constructor
    */
   public SaxWriter() throws TransformerConfigurationException {
-    serializer = new SerializerIdentityTransformerHandler();
-    setContentHandler(serializer);
-    setDTDHandler(serializer);
-    setLexicalHandler(serializer);
   }
 
   /**
    * Set the output source and make its writer the result of the serializer.
    * We want a writer, because it has a better chance of handling character encoding correctly.
+   * Setting it to {@code null} releases the previous output source and its writer, for example when a pipeline is pooled.
    * @param outputSource
    * @see org.greenmercury.speat.EventSupplier#setHandler(java.lang.Object)
    * @see <a href="https://docs.oracle.com/javase/8/docs/api/javax/xml/transform/OutputKeys.html">javax.xml.transform.OutputKeys</a>
@@ -48,14 +71,16 @@ public class SaxWriter extends SaxEventHandler implements Pipeline<Sax, OutputSo
   @Override
   public void setHandler(OutputSource outputSource) throws ConfigurationException, PipelineException {
     this.outputSource = outputSource;
+    if (outputSource == null) {
+      result = null;
+      return;
+    }
     if (outputSource.hasWriter()) {
-      StreamResult result;
       try {
         result = new StreamResult(outputSource.getWriter());
       } catch (Exception e) {
         throw new ConfigurationException("No Writer for "+outputSource.toString(), e);
       }
-      serializer.setResult(result);
     } else {
       throw new ConfigurationException("No Writer for "+outputSource.toString());
     }
@@ -77,35 +102,84 @@ public class SaxWriter extends SaxEventHandler implements Pipeline<Sax, OutputSo
    * @see javax.xml.transform.OutputKeys
    */
   public SaxWriter setOutputProperty(String name, String value) {
-    serializer.transformer.setOutputProperty(name, value);
+    outputProperties.setProperty(name, value);
     return this;
   }
 
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    // The locator is passed on when the serializer is taken from the pool.
+    this.locator = locator;
+  }
+
+  /**
+   * Take a serializer from the pool, and configure it for this {@code SaxWriter}.
+   */
+  @Override
+  public void startDocument() throws SAXException {
+    if (result == null) {
+      throw new IllegalStateException("SaxWriter must have an outputSource before it can write.");
+    }
+    serializer = pool.poll();
+    if (serializer == null) {
+      serializer = new SerializerIdentityTransformerHandler();
+    } else {
+      poolSize.decrementAndGet();
+    }
+    serializer.transformer.reset();
+    for (String name : outputProperties.stringPropertyNames()) {
+      serializer.transformer.setOutputProperty(name, outputProperties.getProperty(name));
+    }
+    serializer.setResult(result);
+    setContentHandler(serializer);
+    setDTDHandler(serializer);
+    setLexicalHandler(serializer);
+    if (locator != null) {
+      serializer.setDocumentLocator(locator);
+    }
+    super.startDocument();
+  }
+
+  /**
+   * End the document, and return the serializer to the pool.
+   */
+  @Override
+  public void endDocument() throws SAXException {
+    super.endDocument();
+    SerializerIdentityTransformerHandler finished = serializer;
+    serializer = null;
+    locator = null;
+    setContentHandler(null);
+    setDTDHandler(null);
+    setLexicalHandler(null);
+    if (finished != null) {
+      // Release the writer of this document. Saxon does not accept a null result, so an empty one is set.
+      finished.setResult(new StreamResult());
+      if (poolSize.incrementAndGet() <= MAX_POOL_SIZE) {
+        pool.offer(finished);
+      } else {
+        poolSize.decrementAndGet();
+      }
+    }
+  }
+
   /* The SerializerIdentityTransformerHandler and SerializerIdentityTransformer
    * solve the problem that the standard TransformerHandler does not allow output properties.
    */
-  private class SerializerIdentityTransformerHandler extends IdentityTransformerHandler {
-    // public transformer for setting output properties
-    public IdentityTransformer transformer;
-    // public constructor for use by SaxWriter
+  private static class SerializerIdentityTransformerHandler extends IdentityTransformerHandler {
+    // transformer for setting output properties
+    private final IdentityTransformer transformer;
     public SerializerIdentityTransformerHandler() {
-      this(new SerializerIdentityTransformer(Configuration.newConfiguration()));
+      this(new SerializerIdentityTransformer(CONFIGURATION));
     }
     protected SerializerIdentityTransformerHandler(IdentityTransformer transformer) {
       super(transformer);
       this.transformer = transformer;
     }
-    @Override
-    public void startDocument() throws SAXException {
-      if (getResult() == null) {
-        throw new IllegalStateException("SaxWriter must have an outputSource before it can write.");
-      }
-      super.startDocument();
-    }
   }
 
   // SerializerIdentityTransformer is needed because IdentityTransformer is not visible here.
-  private class SerializerIdentityTransformer extends IdentityTransformer {
+  private static class SerializerIdentityTransformer extends IdentityTransformer {
     protected SerializerIdentityTransformer(Configuration config) {
       super(config);
     }
@@ -0,0 +1,81 @@
+package org.greenmercury.speat.sax;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+
+/**
+ * A pool of {@code XMLReader}s, used by {@code SaxReader} and {@code HtmlSaxReader}.
+ *<p>
+ * A reader is taken from the pool for one document, and is only used by one thread while it parses.
+ * When it is returned, its handlers are reset, so that the pool does not keep pipelines alive.
+ * Readers that failed to parse a document are not returned, because their state is not known.
+ *<p>
+ * @author Rakensi
+ */
+final class XMLReaderPool {
+
+  /**
+   * Makes new {@code XMLReader}s when the pool is empty.
+   */
+  interface Factory {
+    XMLReader newXMLReader() throws SAXException, ParserConfigurationException;
+  }
+
+  /**
+   * The maximum number of idle readers in the pool.
+   */
+  private static final int MAX_POOL_SIZE = 64;
+
+  /**
+   * The handler that is set on idle readers.
+   */
+  private static final DefaultHandler2 NO_HANDLER = new DefaultHandler2();
+
+  private final Factory factory;
+  private final Queue<XMLReader> pool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger size = new AtomicInteger();
+
+  XMLReaderPool(Factory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Take a reader from the pool, or make a new one if the pool is empty.
+   */
+  XMLReader borrow() throws SAXException, ParserConfigurationException {
+    XMLReader reader = pool.poll();
+    if (reader == null) {
+      return factory.newXMLReader();
+    }
+    size.decrementAndGet();
+    return reader;
+  }
+
+  /**
+   * Return a reader to the pool after it has parsed a document.
+   */
+  void release(XMLReader reader) {
+    reader.setContentHandler(NO_HANDLER);
+    reader.setDTDHandler(NO_HANDLER);
+    reader.setEntityResolver(NO_HANDLER);
+    reader.setErrorHandler(NO_HANDLER);
+    try {
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", NO_HANDLER);
+    } catch (SAXException e) {
+      // The reader does not support a lexical handler, so it does not refer to one.
+    }
+    if (size.incrementAndGet() <= MAX_POOL_SIZE) {
+      pool.offer(reader);
+    } else {
+      size.decrementAndGet();
+    }
+  }
+
+}
@@ -1,52 +1,79 @@
 package org.greenmercury.speat.sax.to.smax;
 
 import java.io.IOException;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.function.Supplier;
 
 import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.NamespacePrefixMapping;
 import org.greenmercury.speat.Pipeline;
 import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.io.input.LengthHintHandler;
+import org.greenmercury.speat.jfr.SpeatEvents;
+import org.greenmercury.speat.metrics.PipelineMetrics;
 import org.greenmercury.speat.sax.Sax;
 import org.greenmercury.speat.sax.SaxEventHandler;
+import org.greenmercury.speat.smax.ContentBuffer;
 import org.greenmercury.speat.smax.Smax;
 import org.greenmercury.speat.smax.SmaxDocument;
 import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxName;
+import org.greenmercury.speat.smax.StringBufferContentBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.AttributesImpl;
 
 /**
  * Adapt SAX events into SMAX document events.
  *<p>
+ * Each document gets a new {@code ContentBuffer}, which is handed off to the next pipeline stage with the {@code SmaxDocument}.
+ * The adapter does not use the buffer after that, so the buffer does not have to be thread-safe.
+ * By default, the buffer is a {@code StringBufferContentBuffer}, so that {@code SmaxDocument.getContentBuffer()} works.
+ * If the next stages do not need a {@code StringBuffer}, the unsynchronized {@code StringBuilderContentBuffer} is faster.
+ * For documents with more than 2^31-1 characters, use {@code SegmentedContentBuffer}.
+ * For documents that are mostly Latin-1, {@code Latin1ContentBuffer} uses half the memory.
+ * The content buffer is pre-sized with the length hint of the input source, if the {@code SaxReader} passes it on,
+ * up to {@code MAX_PRESIZE} characters. The length hint of a file includes its markup, so it can be much larger than the content.
+ *<p>
+ * The stack of ancestor nodes and the namespace declarations are re-used for all documents,
+ * so that parsing an element allocates only the {@code SmaxElement}, its attributes, and its namespace declarations if it has any.
+ *<p>
+ * In streaming mode, set by {@code setStreamWithin}, each element that matches a pattern becomes a separate {@code SmaxDocument},
+ * which is passed on as soon as the end tag of the element has been parsed. Text and markup outside matching elements is ignored.
+ * This makes it possible to process very large documents that consist of many records, using memory for one record at a time.
+ *<p>
  * @see <a href="http://sax.sourceforge.net/quickstart.html">SAX</a>
  *<p>
  * @author Rakensi
  */
-public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, Smax> {
+public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, Smax>, LengthHintHandler {
 
   /**
-   * Shared empty attributes instance.
+   * The maximum number of characters for which a content buffer is pre-sized. Larger documents grow the buffer as they are read.
    */
-  private Attributes emptyAttributes = new AttributesImpl();
+  private static final long MAX_PRESIZE = 1L << 24;
 
   /**
    * Handler for {@code SmaxDocument} instances produced by this adapter.
    */
   private Smax handler;
 
+  /**
+   * Makes a new content buffer for each document.
+   */
+  private Supplier<ContentBuffer> contentBufferSupplier;
+
   /**
    * The text content of the parsed document up to the current parse position.
-   * For very large documents, something else than a StringBuffer must be used to hold text content.
-   * A StringBuffer is used, because it is thread-safe. A StringBuilder is faster, but not thread-safe.
    */
-  private StringBuffer currentContent;
+  private ContentBuffer currentContent;
 
   /**
    * The node that is being constructed.
@@ -54,18 +81,51 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
   private SmaxElement currentNode;
 
   /**
-   * Ancestors of the current node.
+   * Ancestors of the current node, used as a stack. The root has a {@code null} parent, so this is not an {@code ArrayDeque}.
    */
-  private Stack<SmaxElement> ancestorNodes;
+  private final ArrayList<SmaxElement> ancestorNodes = new ArrayList<>();
 
   /**
    * The namespaces and their prefixes that are declared for the next XML element.
    * @see <a href="http://sax.sourceforge.net/namespaces.html">SAX namespaces</a>
    */
-  private List<NamespacePrefixMapping> namespaces = null;
+  private final List<NamespacePrefixMapping> namespaces = new ArrayList<>(5);
+
+  /**
+   * The estimated length of the next document, or {@code -1L}.
+   */
+  private long lengthHint = -1L;
+
+  /**
+   * In streaming mode, the pattern for the elements that become separate documents, otherwise {@code null}.
+   */
+  private SmaxElement streamWithin = null;
+
+  /**
+   * In streaming mode, the namespace declarations of the open elements outside a matching element.
+   */
+  private final Deque<NamespacePrefixMapping[]> outerNamespaces = new ArrayDeque<>();
+
+  /**
+   * In streaming mode, whether the parser is inside a matching element.
+   */
+  private boolean inStreamedElement;
+
+  /**
+   * The start time of the current document, for metrics.
+   */
+  private long startTime;
+
+  /**
+   * The time spent in the next pipeline stages for the current document, in streaming mode.
+   */
+  private long streamedNanos;
 
-  // Measure performance
-  Instant startTime;
+  /**
+   * The Java Flight Recorder event for the current document, and the number of characters in its documents.
+   */
+  private Object event;
+  private long chars;
 
 
   /**
@@ -73,7 +133,36 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   public SaxToSmaxAdapter() {
     handler = null;
-    currentContent = new StringBuffer();
+    contentBufferSupplier = StringBufferContentBuffer::new;
+  }
+
+  /**
+   * Set the supplier of content buffers. A new content buffer is requested for each document.
+   * Use {@code StringBuilderContentBuffer::new} for faster parsing, if the next stages do not use {@code getContentBuffer()},
+   * and do not use the document content in several threads at the same time.
+   * @param contentBufferSupplier supplies a new, empty {@code ContentBuffer}
+   * @return the {@code SaxToSmaxAdapter} itself
+   */
+  public SaxToSmaxAdapter setContentBufferSupplier(Supplier<ContentBuffer> contentBufferSupplier) {
+    this.contentBufferSupplier = contentBufferSupplier;
+    return this;
+  }
+
+  /**
+   * Switch on streaming mode. Each element that matches {@code pattern}, and is not inside another matching element,
+   * is passed on as a separate {@code SmaxDocument}, with its own content buffer. No document is made for the whole input.
+   * The root of each document gets the namespace declarations that are in scope, so it can be serialized on its own.
+   * @param pattern a {@code SmaxElement} used as a pattern, like in {@code SmaxElement.matches}, or {@code null} to switch off streaming
+   * @return the {@code SaxToSmaxAdapter} itself
+   */
+  public SaxToSmaxAdapter setStreamWithin(SmaxElement pattern) {
+    this.streamWithin = pattern;
+    return this;
+  }
+
+  @Override
+  public void setLengthHint(long lengthHint) {
+    this.lengthHint = lengthHint;
   }
 
   @Override
@@ -92,11 +181,25 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   @Override
   public void startDocument() throws SAXException {
-    startTime = Instant.now();
-    currentContent.setLength(0); // More efficient than constructing a new instance.
+    startTime = metrics.startTime();
+    streamedNanos = 0L;
+    event = SpeatEvents.beginStage();
+    chars = 0L;
+    // The content buffer of the previous document belongs to the next pipeline stage, so make a new one.
+    // In streaming mode, a content buffer is made for each matching element.
+    currentContent = null;
+    if (streamWithin == null) {
+      currentContent = contentBufferSupplier.get();
+      if (lengthHint > 0) {
+        currentContent.ensureCapacity(Math.min(lengthHint, MAX_PRESIZE));
+      }
+    }
+    lengthHint = -1L;
     currentNode = null;
-    ancestorNodes = new Stack<>();
-    namespaces = new ArrayList<NamespacePrefixMapping>(5);
+    ancestorNodes.clear();
+    namespaces.clear();
+    outerNamespaces.clear();
+    inStreamedElement = false;
   }
 
   /* At the end of a document, produce a {@code SmaxDocument}.
@@ -104,20 +207,72 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   @Override
   public void endDocument() throws SAXException {
-    Instant endTime = Instant.now();
-    logger.info("Sax to Smax took "+Duration.between(startTime, endTime).toMillis()+" ms, from "+startTime.toString()+" to "+endTime.toString());
-    // Pass on the current node to the next pipeline stage.
+    if (streamWithin == null && currentNode != null) {
+      chars = currentNode.getLongEndPos() - currentNode.getLongStartPos();
+    }
+    SpeatEvents.endStage(event, getMetricsName(), getClass(), chars);
+    event = null;
+    // The time does not include the next pipeline stages, which have already processed the documents in streaming mode.
+    metrics.recordTime(getMetricsName(), PipelineMetrics.PROCESS, startTime + streamedNanos);
+    // Pass on the current node to the next pipeline stage. In streaming mode, this has already been done.
+    if (streamWithin == null) {
+      emit(new SmaxDocument(currentNode, currentContent));
+    }
+    // Reset properties, to let the garbage collector find them.
+    currentContent = null;
+    currentNode = null;
+    ancestorNodes.clear();
+    outerNamespaces.clear();
+  }
+
+  /**
+   * Pass on a document to the next pipeline stage.
+   */
+  private void emit(SmaxDocument document) throws SAXException {
+    long documentChars = document.getMarkup().getLongEndPos() - document.getMarkup().getLongStartPos();
+    if (streamWithin != null) {
+      chars += documentChars;
+    }
+    metrics.count(getMetricsName(), PipelineMetrics.DOCUMENTS, 1);
+    metrics.count(getMetricsName(), PipelineMetrics.CHARS, documentChars);
     if (handler != null) {
-      SmaxDocument document = new SmaxDocument(currentNode, currentContent);
+      long handlerStartTime = streamWithin != null ? metrics.startTime() : 0L;
       try {
         handler.process(document);
       } catch (PipelineException | ConfigurationException | IOException e) {
         throw new SAXException(e);
       }
+      if (streamWithin != null) {
+        streamedNanos += metrics.startTime() - handlerStartTime;
+      }
     }
-    // Reset properties, to let the garbage collector find them.
-    ancestorNodes = null;
-    namespaces = null;
+  }
+
+  /**
+   * Collect the namespace declarations in scope for an element outside a matching element, and its own declarations.
+   * Undeclarations of the default namespace outside the element are not needed.
+   */
+  private NamespacePrefixMapping[] inScopeNamespaces(NamespacePrefixMapping[] declared) {
+    Map<String, String> inScope = new LinkedHashMap<>();
+    Iterator<NamespacePrefixMapping[]> outer = outerNamespaces.descendingIterator();
+    while (outer.hasNext()) {
+      for (NamespacePrefixMapping mapping : outer.next()) {
+        inScope.put(mapping.prefix, mapping.uri);
+      }
+    }
+    inScope.values().removeIf(String::isEmpty);
+    for (NamespacePrefixMapping mapping : declared) {
+      inScope.put(mapping.prefix, mapping.uri);
+    }
+    if (inScope.size() == declared.length) {
+      return declared;
+    }
+    NamespacePrefixMapping[] mappings = new NamespacePrefixMapping[inScope.size()];
+    int i = 0;
+    for (Map.Entry<String, String> entry : inScope.entrySet()) {
+      mappings[i++] = new NamespacePrefixMapping(entry.getKey(), entry.getValue());
+    }
+    return mappings;
   }
 
   /* Collect the namespace declarations that are relevant for the next {@code SmaxElement}.
@@ -148,18 +303,35 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-    ancestorNodes.push(currentNode);
     // Most XMLReader implementations also report the original qName, but that parameter might simply be an empty string (except for elements that aren't in a namespace).
     if (qName == null || qName.length() == 0) {
       qName = localName;
     }
-    // Attributes are re-used in SAX events, so we need to copy them.
-    Attributes attributesCopy = attributes.getLength() > 0 ?  new AttributesImpl(attributes) : emptyAttributes;
-    currentNode = new SmaxElement(uri, localName, qName, attributesCopy).
-        setStartPos(currentContent.length()).
-        setNamespacePrefixMappings(namespaces.toArray(new NamespacePrefixMapping[namespaces.size()]));
-    // Namespaces for this element will not be registered again in child elements, so throw them away.
-    namespaces.clear();
+    NamespacePrefixMapping[] declared = NamespacePrefixMapping.NONE;
+    if (!namespaces.isEmpty()) {
+      declared = namespaces.toArray(new NamespacePrefixMapping[namespaces.size()]);
+      // Namespaces for this element will not be registered again in child elements, so throw them away.
+      namespaces.clear();
+    }
+    SmaxName name = SmaxName.of(uri, localName, qName);
+    if (streamWithin != null && !inStreamedElement) {
+      if (name.getExpandedName() != streamWithin.getName().getExpandedName() ||
+          !new SmaxElement(name, attributes).matches(streamWithin)) {
+        // Outside matching elements, only the namespace declarations are kept.
+        outerNamespaces.push(declared);
+        return;
+      }
+      // Start a new document for the matching element.
+      inStreamedElement = true;
+      currentContent = contentBufferSupplier.get();
+      currentNode = null;
+      declared = inScopeNamespaces(declared);
+    }
+    ancestorNodes.add(currentNode);
+    // Attributes are re-used in SAX events, so they are copied, which the SmaxElement constructor does.
+    currentNode = new SmaxElement(name, attributes).
+        setStartPos(currentContent.longLength()).
+        setNamespacePrefixMappings(declared);
   }
 
   /* (non-Javadoc)
@@ -167,17 +339,30 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   @Override
   public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (streamWithin != null && !inStreamedElement) {
+      outerNamespaces.pop();
+      return;
+    }
     // Most XMLReader implementations also report the original qName, but that parameter might simply be an empty string (except for elements that aren't in a namespace).
     if (qName == null || qName.length() == 0) {
       qName = localName;
     }
-    if (uri != currentNode.getNamespaceUri() || localName != currentNode.getLocalName() || qName != currentNode.getQualifiedName()) {
+    // Parsers usually intern names, so the strings are the same instances as in the SmaxName, and equals returns at once.
+    SmaxName name = currentNode.getName();
+    if (!(uri == null ? "" : uri).equals(name.getNamespaceUri()) || !localName.equals(name.getLocalName()) || !qName.equals(name.getQualifiedName())) {
       throw new SAXException(this.getClass().getCanonicalName()+" does not transform SAX events correctly.");
     }
-    currentNode.setEndPos(currentContent.length());
-    SmaxElement parent = ancestorNodes.pop();
+    currentNode.setEndPos(currentContent.longLength());
+    SmaxElement parent = ancestorNodes.remove(ancestorNodes.size() - 1);
     if (parent != null) {
       currentNode = parent.appendChild(currentNode);
+    } else if (streamWithin != null) {
+      // The matching element is complete, so pass it on, and release its content and markup.
+      inStreamedElement = false;
+      SmaxDocument document = new SmaxDocument(currentNode, currentContent);
+      currentNode = null;
+      currentContent = null;
+      emit(document);
     }
   }
 
@@ -186,7 +371,9 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
    */
   @Override
   public void characters(char[] text, int start, int length) throws SAXException {
-    currentContent.append(text, start, length);
+    if (currentContent != null) {
+      currentContent.append(text, start, length);
+    }
   }
 
   /* Stuff that cannot be inherited from AbstractPipeline. */
@@ -207,4 +394,35 @@ public class SaxToSmaxAdapter extends SaxEventHandler implements Pipeline<Sax, S
     return this;
   }
 
+  private PipelineMetrics metrics = PipelineMetrics.NONE;
+  private String metricsName = this.getClass().getSimpleName();
+
+  @Override
+  public PipelineMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override
+  public Pipeline<Sax, Smax> setMetrics(PipelineMetrics metrics) {
+    this.metrics = metrics != null ? metrics : PipelineMetrics.NONE;
+    return this;
+  }
+
+  /**
+   * @return the name under which this pipeline records its metrics
+   */
+  public String getMetricsName() {
+    return metricsName;
+  }
+
+  /**
+   * Set the name under which this pipeline records its metrics, to distinguish stages of the same class.
+   * @param metricsName the metrics name
+   * @return the {@code SaxToSmaxAdapter} itself
+   */
+  public SaxToSmaxAdapter setMetricsName(String metricsName) {
+    this.metricsName = metricsName;
+    return this;
+  }
+
 }
@@ -0,0 +1,166 @@
+package org.greenmercury.speat.smax;
+
+/**
+ * The backing store for the text content of a SMAX document.
+ *<p>
+ * A {@code ContentBuffer} is a mutable {@code CharSequence} with the {@code StringBuffer} methods that
+ * {@code SmaxContent} needs. Different implementations make different trade-offs,
+ * for example {@code StringBufferContentBuffer} is thread-safe and {@code PieceTableContentBuffer} has cheap edits.
+ *<p>
+ * The start and end positions of {@code SmaxElement}s in a {@code SmaxDocument} are positions in the {@code ContentBuffer}.
+ *<p>
+ * Positions are {@code long}, so that a {@code ContentBuffer} like {@code SegmentedContentBuffer} can hold more than
+ * 2^31-1 characters. The {@code CharSequence} and editing methods use {@code int} positions,
+ * so for such large buffers, they can only be used on a {@code window}, or on a {@code SmaxContent} view.
+ * The default implementations of the {@code long} methods are for buffers that can only hold int-addressed content.
+ *<p>
+ * @author Rakensi
+ */
+public interface ContentBuffer extends CharSequence {
+
+  /**
+   * @return the number of characters in the buffer
+   */
+  public default long longLength() {
+    return length();
+  }
+
+  /**
+   * Get the character at a {@code long} position.
+   * @param index
+   * @return the character at {@code index}
+   */
+  public default char charAt(long index) {
+    return charAt(Math.toIntExact(index));
+  }
+
+  /**
+   * Copy characters between {@code long} positions into a destination array.
+   * @param srcBegin start position (inclusive)
+   * @param srcEnd end position (exclusive)
+   * @param dst the destination array
+   * @param dstBegin start position in {@code dst}
+   */
+  public default void getChars(long srcBegin, long srcEnd, char[] dst, int dstBegin) {
+    getChars(Math.toIntExact(srcBegin), Math.toIntExact(srcEnd), dst, dstBegin);
+  }
+
+  /**
+   * Get a {@code CharSequence} with {@code int} positions for a part of the buffer.
+   * The part must not be longer than 2^31-1 characters. It may be a copy or a view.
+   * @param start start position (inclusive)
+   * @param end end position (exclusive)
+   * @return a {@code CharSequence} with the characters between {@code start} and {@code end}
+   */
+  public default CharSequence window(long start, long end) {
+    return subSequence(Math.toIntExact(start), Math.toIntExact(end));
+  }
+
+  /**
+   * Make room for at least {@code minimumCapacity} characters, so that appending up to that length does not re-allocate.
+   * This is a hint, and implementations that can not use it may ignore it.
+   * @param minimumCapacity the expected number of characters
+   */
+  public default void ensureCapacity(long minimumCapacity) {
+  }
+
+  /**
+   * Copy characters into a destination array, like {@code StringBuffer.getChars}.
+   * @param srcBegin start position (inclusive)
+   * @param srcEnd end position (exclusive)
+   * @param dst the destination array
+   * @param dstBegin start position in {@code dst}
+   */
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin);
+
+  /**
+   * Replace the character at a position.
+   * @param index
+   * @param ch
+   */
+  public void setCharAt(int index, char ch);
+
+  /**
+   * Insert a part of a character sequence.
+   * @param offset the position where the characters are inserted
+   * @param csq the characters to insert
+   * @param start start position in {@code csq} (inclusive)
+   * @param end end position in {@code csq} (exclusive)
+   * @return the {@code ContentBuffer} itself
+   */
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end);
+
+  /**
+   * Insert a character sequence.
+   * @param offset the position where the characters are inserted
+   * @param csq the characters to insert
+   * @return the {@code ContentBuffer} itself
+   */
+  public default ContentBuffer insert(int offset, CharSequence csq) {
+    return insert(offset, csq, 0, csq.length());
+  }
+
+  /**
+   * Insert a single character.
+   * @param offset the position where the character is inserted
+   * @param c the character to insert
+   * @return the {@code ContentBuffer} itself
+   */
+  public default ContentBuffer insert(int offset, char c) {
+    return insert(offset, String.valueOf(c), 0, 1);
+  }
+
+  /**
+   * Append characters from an array, like the {@code characters} event in SAX.
+   * @param str the characters
+   * @param offset start position in {@code str}
+   * @param len number of characters to append
+   * @return the {@code ContentBuffer} itself
+   */
+  public ContentBuffer append(char[] str, int offset, int len);
+
+  /**
+   * Remove the characters between two positions.
+   * @param start start position (inclusive)
+   * @param end end position (exclusive)
+   * @return the {@code ContentBuffer} itself
+   */
+  public ContentBuffer delete(int start, int end);
+
+  /**
+   * Replace the characters between two positions by a character sequence.
+   * @param start start position (inclusive)
+   * @param end end position (exclusive)
+   * @param csq the replacement
+   * @return the {@code ContentBuffer} itself
+   */
+  public default ContentBuffer replace(int start, int end, CharSequence csq) {
+    delete(start, end);
+    return insert(start, csq);
+  }
+
+  /**
+   * Get the characters between two positions as a {@code String}.
+   * @param start start position (inclusive)
+   * @param end end position (exclusive)
+   * @return a new {@code String}
+   */
+  public default String substring(int start, int end) {
+    char[] chars = new char[end - start];
+    getChars(start, end, chars, 0);
+    return new String(chars);
+  }
+
+  /**
+   * Get the characters between two {@code long} positions as a {@code String}.
+   * @param start start position (inclusive)
+   * @param end end position (exclusive)
+   * @return a new {@code String}
+   */
+  public default String substring(long start, long end) {
+    char[] chars = new char[Math.toIntExact(end - start)];
+    getChars(start, end, chars, 0);
+    return new String(chars);
+  }
+
+}
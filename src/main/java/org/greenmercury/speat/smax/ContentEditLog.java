@@ -0,0 +1,358 @@
+package org.greenmercury.speat.smax;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A log of content edits in a {@code SmaxDocument}, used to remap the positions of the markup.
+ *<p>
+ * Edits are recorded, and applied to the markup when it is needed, so that a sequence of edits costs
+ * one pass over the markup tree, instead of one pass per edit.
+ * An edit replaces the characters between {@code start} and {@code end} by {@code length} new characters.
+ * A position {@code p} is then mapped as follows:
+ * <ul>
+ *   <li>{@code p <= start}: p is not changed;</li>
+ *   <li>{@code start < p < end}: p is in the replaced range, and moves to {@code start + length};</li>
+ *   <li>{@code p >= end}: p moves by {@code length - (end - start)}.</li>
+ * </ul>
+ * This mapping keeps the order of positions, so elements stay properly nested.
+ *<p>
+ * Text that is inserted at the end of the root element of the editing document must become part of that element.
+ * For such an insertion, a position {@code p == start} also moves by {@code length}
+ * if it is at or after the end of that element in document order.
+ * This includes the end of the element and its ancestors, and the start of the elements that follow it.
+ *<p>
+ * A {@code SmaxDocument} and its sub-documents share one edit log, because they share the content.
+ *<p>
+ * @author Rakensi
+ */
+final class ContentEditLog {
+
+  private long[] starts = new long[16];
+  private long[] ends = new long[16];
+  private int[] lengths = new int[16];
+  private SmaxElement[] appendedTo = new SmaxElement[16];
+  private int size = 0;
+
+  /**
+   * The document that recorded the pending edits. Its content view is up to date.
+   */
+  private SmaxDocument lastEditor;
+
+  /**
+   * The generation is incremented each time the edits are applied.
+   * Documents use it to find out if their content view is outdated.
+   */
+  private int generation = 0;
+
+  /**
+   * Record an edit.
+   * @param start absolute start position of the replaced range
+   * @param end absolute end position of the replaced range
+   * @param length length of the new text
+   * @param editor the document in which the edit was done
+   * @param appendedTo the root element of the editing document if the text is inserted at its end, otherwise {@code null}
+   */
+  void record(long start, long end, int length, SmaxDocument editor, SmaxElement appendedTo) {
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, 2 * size);
+      ends = Arrays.copyOf(ends, 2 * size);
+      lengths = Arrays.copyOf(lengths, 2 * size);
+      this.appendedTo = Arrays.copyOf(this.appendedTo, 2 * size);
+    }
+    starts[size] = start;
+    ends[size] = end;
+    lengths[size] = length;
+    this.appendedTo[size] = appendedTo;
+    ++size;
+    lastEditor = editor;
+  }
+
+  boolean hasPendingEdits() {
+    return size > 0;
+  }
+
+  SmaxDocument getLastEditor() {
+    return lastEditor;
+  }
+
+  int getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Map a position through one edit.
+   */
+  static long map(long p, long start, long end, int length) {
+    if (p <= start) {
+      return p;
+    } else if (p < end) {
+      return start + length;
+    } else {
+      return p + length - (end - start);
+    }
+  }
+
+  /**
+   * Apply the pending edits to the positions in a markup tree, and clear the log.
+   * @param root the root of the whole markup tree that shares the content
+   */
+  void apply(SmaxElement root) {
+    if (size == 0) {
+      return;
+    }
+    int from = 0;
+    for (int e = 0; e < size; ++e) {
+      if (appendedTo[e] != null) {
+        applyEdits(root, from, e);
+        applyAppend(root, e);
+        from = e + 1;
+      }
+    }
+    applyEdits(root, from, size);
+    Arrays.fill(appendedTo, 0, size, null);
+    size = 0;
+    lastEditor = null;
+    ++generation;
+  }
+
+  /**
+   * Apply the edits from {@code from} (inclusive) to {@code to} (exclusive), which do not insert at the end of an element.
+   */
+  private void applyEdits(SmaxElement root, int from, int to) {
+    if (from == to) {
+      return;
+    }
+    // Elements that end before the first edit are not changed, and neither are their descendants.
+    long minStart = Long.MAX_VALUE;
+    for (int e = from; e < to; ++e) {
+      minStart = Math.min(minStart, starts[e]);
+    }
+    // Collect the elements that may be changed.
+    SmaxElement[] elements = new SmaxElement[64];
+    int nrElements = 0;
+    Deque<SmaxElement> todo = new ArrayDeque<>();
+    todo.push(root);
+    while (!todo.isEmpty()) {
+      SmaxElement element = todo.pop();
+      if (element.getLongEndPos() <= minStart) {
+        continue;
+      }
+      if (nrElements == elements.length) {
+        elements = Arrays.copyOf(elements, 2 * nrElements);
+      }
+      elements[nrElements++] = element;
+      for (SmaxElement child : element.getChildren()) {
+        todo.push(child);
+      }
+    }
+    if (to - from == 1) {
+      for (int i = 0; i < nrElements; ++i) {
+        SmaxElement element = elements[i];
+        element.setStartPos(map(element.getLongStartPos(), starts[from], ends[from], lengths[from]));
+        element.setEndPos(map(element.getLongEndPos(), starts[from], ends[from], lengths[from]));
+      }
+    } else {
+      // Map the distinct positions through all edits, using a segment tree.
+      long[] positions = new long[2 * nrElements];
+      for (int i = 0; i < nrElements; ++i) {
+        positions[2 * i] = elements[i].getLongStartPos();
+        positions[2 * i + 1] = elements[i].getLongEndPos();
+      }
+      Arrays.sort(positions);
+      int nrPositions = 0;
+      for (int i = 0; i < positions.length; ++i) {
+        if (nrPositions == 0 || positions[i] != positions[nrPositions - 1]) {
+          positions[nrPositions++] = positions[i];
+        }
+      }
+      PositionTree tree = new PositionTree(positions, nrPositions);
+      for (int e = from; e < to; ++e) {
+        long start = starts[e], end = ends[e];
+        int length = lengths[e];
+        int first = tree.firstGreaterThan(start);
+        int firstAfter = Math.max(first, tree.firstGreaterThan(end - 1));
+        tree.assign(first, firstAfter, start + length);
+        tree.add(firstAfter, nrPositions, length - (end - start));
+      }
+      long[] mapped = tree.values();
+      for (int i = 0; i < nrElements; ++i) {
+        SmaxElement element = elements[i];
+        element.setStartPos(mapped[Arrays.binarySearch(positions, 0, nrPositions, element.getLongStartPos())]);
+        element.setEndPos(mapped[Arrays.binarySearch(positions, 0, nrPositions, element.getLongEndPos())]);
+      }
+    }
+  }
+
+  /**
+   * Apply an edit that inserts text at the end of the root element of the editing document.
+   * The markup is visited in document order, to find the positions at the insertion point that come after that element.
+   */
+  private void applyAppend(SmaxElement root, int e) {
+    long start = starts[e];
+    int length = lengths[e];
+    boolean after = false;
+    Deque<SmaxElement> open = new ArrayDeque<>();
+    Deque<Iterator<SmaxElement>> children = new ArrayDeque<>();
+    root.setStartPos(move(root.getLongStartPos(), start, length, after));
+    open.push(root);
+    children.push(root.getChildren().iterator());
+    while (!open.isEmpty()) {
+      Iterator<SmaxElement> siblings = children.peek();
+      if (siblings.hasNext()) {
+        SmaxElement child = siblings.next();
+        // Elements that end before the insertion point are not changed, and neither are their descendants.
+        if (child.getLongEndPos() >= start) {
+          child.setStartPos(move(child.getLongStartPos(), start, length, after));
+          open.push(child);
+          children.push(child.getChildren().iterator());
+        }
+      } else {
+        SmaxElement element = open.pop();
+        children.pop();
+        if (element == appendedTo[e]) {
+          after = true;
+        }
+        element.setEndPos(move(element.getLongEndPos(), start, length, after));
+      }
+    }
+  }
+
+  /**
+   * Map a position through an insertion of {@code length} characters at {@code start}.
+   */
+  private static long move(long p, long start, int length, boolean after) {
+    return p > start || (after && p == start) ? p + length : p;
+  }
+
+  /**
+   * A segment tree over a sorted array of positions, with lazy range-assign and range-add.
+   * The positions stay sorted, because the mapping of an edit keeps their order.
+   */
+  private static final class PositionTree {
+    private final int n;
+    private final long[] max;
+    private final long[] addTag;
+    private final long[] assignTag;
+    private final boolean[] assigned;
+
+    PositionTree(long[] positions, int n) {
+      this.n = n;
+      int treeSize = 4 * Math.max(n, 1);
+      max = new long[treeSize];
+      addTag = new long[treeSize];
+      assignTag = new long[treeSize];
+      assigned = new boolean[treeSize];
+      build(1, 0, n, positions);
+    }
+
+    private void build(int node, int lo, int hi, long[] positions) {
+      if (hi - lo == 1) {
+        max[node] = positions[lo];
+      } else if (hi > lo) {
+        int mid = (lo + hi) >>> 1;
+        build(2 * node, lo, mid, positions);
+        build(2 * node + 1, mid, hi, positions);
+        max[node] = Math.max(max[2 * node], max[2 * node + 1]);
+      }
+    }
+
+    private void applyAssign(int node, long value) {
+      max[node] = value;
+      assignTag[node] = value;
+      assigned[node] = true;
+      addTag[node] = 0;
+    }
+
+    private void applyAdd(int node, long delta) {
+      max[node] += delta;
+      if (assigned[node]) {
+        assignTag[node] += delta;
+      } else {
+        addTag[node] += delta;
+      }
+    }
+
+    private void pushDown(int node) {
+      if (assigned[node]) {
+        applyAssign(2 * node, assignTag[node]);
+        applyAssign(2 * node + 1, assignTag[node]);
+        assigned[node] = false;
+      }
+      if (addTag[node] != 0) {
+        applyAdd(2 * node, addTag[node]);
+        applyAdd(2 * node + 1, addTag[node]);
+        addTag[node] = 0;
+      }
+    }
+
+    /**
+     * @return the index of the first position that is greater than {@code value}, or {@code n} if there is none.
+     */
+    int firstGreaterThan(long value) {
+      if (n == 0 || max[1] <= value) {
+        return n;
+      }
+      int node = 1, lo = 0, hi = n;
+      while (hi - lo > 1) {
+        pushDown(node);
+        int mid = (lo + hi) >>> 1;
+        if (max[2 * node] > value) {
+          node = 2 * node;
+          hi = mid;
+        } else {
+          node = 2 * node + 1;
+          lo = mid;
+        }
+      }
+      return lo;
+    }
+
+    void assign(int from, int to, long value) {
+      if (from < to) update(1, 0, n, from, to, true, value);
+    }
+
+    void add(int from, int to, long delta) {
+      if (from < to && delta != 0) update(1, 0, n, from, to, false, delta);
+    }
+
+    private void update(int node, int lo, int hi, int from, int to, boolean assign, long value) {
+      if (to <= lo || hi <= from) {
+        return;
+      }
+      if (from <= lo && hi <= to) {
+        if (assign) {
+          applyAssign(node, value);
+        } else {
+          applyAdd(node, value);
+        }
+        return;
+      }
+      pushDown(node);
+      int mid = (lo + hi) >>> 1;
+      update(2 * node, lo, mid, from, to, assign, value);
+      update(2 * node + 1, mid, hi, from, to, assign, value);
+      max[node] = Math.max(max[2 * node], max[2 * node + 1]);
+    }
+
+    long[] values() {
+      long[] values = new long[n];
+      collect(1, 0, n, values);
+      return values;
+    }
+
+    private void collect(int node, int lo, int hi, long[] values) {
+      if (hi - lo == 1) {
+        values[lo] = max[node];
+      } else if (hi > lo) {
+        pushDown(node);
+        int mid = (lo + hi) >>> 1;
+        collect(2 * node, lo, mid, values);
+        collect(2 * node + 1, mid, hi, values);
+      }
+    }
+  }
+
+}
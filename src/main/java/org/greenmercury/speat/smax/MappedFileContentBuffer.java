@@ -0,0 +1,177 @@
+package org.greenmercury.speat.smax;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only {@code ContentBuffer} on a memory-mapped file, so that large text files can be marked up
+ * without loading their content onto the heap.
+ *<p>
+ * Characters are decoded when they are read, which is only possible for single-byte character encodings,
+ * like ISO-8859-1, windows-1252 and US-ASCII. Multi-byte encodings like UTF-8 are rejected before the file is mapped,
+ * even if the file happens to contain only ASCII characters, because checking that would mean reading the whole file.
+ * Positions are {@code long}, so files larger than 2 GB can be the content of a {@code SmaxDocument},
+ * in the same way as a {@code SegmentedContentBuffer}.
+ * The {@code CharSequence} methods, like {@code length()} and {@code toString()}, can not be used on such files.
+ *<p>
+ * The content cannot be changed, but markup can be inserted into a {@code SmaxDocument} that uses this buffer,
+ * because that does not change the content.
+ * Line ends are not normalized, because that would change the positions in the file.
+ *<p>
+ * @author Rakensi
+ */
+public class MappedFileContentBuffer implements ContentBuffer {
+
+  /**
+   * A {@code MappedByteBuffer} can not be larger than 2 GB, so large files are mapped in regions of 2^REGION_BITS bytes.
+   */
+  private static final int REGION_BITS = 30;
+  private static final long REGION_SIZE = 1L << REGION_BITS;
+  private static final int REGION_MASK = (int)REGION_SIZE - 1;
+
+  private final MappedByteBuffer[] regions;
+  private final long length;
+
+  /**
+   * Maps bytes to characters.
+   */
+  private final char[] decodeTable;
+
+  /**
+   * Map a file into memory.
+   * @param path the file
+   * @param charset the character encoding of the file, which must be a single-byte encoding
+   * @throws UnsupportedEncodingException if the encoding is not a single-byte encoding
+   * @throws IOException if the file can not be mapped
+   */
+  public MappedFileContentBuffer(Path path, Charset charset) throws IOException {
+    decodeTable = decodeTable(charset);
+    if (decodeTable == null) {
+      throw new UnsupportedEncodingException("A memory-mapped file must have a single-byte encoding, but "+path+" is "+charset.name());
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      length = channel.size();
+      regions = new MappedByteBuffer[(int)((length + REGION_SIZE - 1) >>> REGION_BITS)];
+      for (int i = 0; i < regions.length; ++i) {
+        long position = (long)i << REGION_BITS;
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, length - position));
+      }
+    }
+  }
+
+  /**
+   * Make a table that maps bytes to characters.
+   * @return the table, or {@code null} if the encoding is not a single-byte encoding
+   */
+  private static char[] decodeTable(Charset charset) {
+    char[] table = new char[256];
+    CharsetDecoder decoder = charset.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    if (decoder.maxCharsPerByte() != 1.0f || charset.newEncoder().maxBytesPerChar() != 1.0f) {
+      return null;
+    }
+    try {
+      for (int b = 0; b < 256; ++b) {
+        CharBuffer decoded = decoder.reset().decode(ByteBuffer.wrap(new byte[] {(byte)b}));
+        table[b] = decoded.length() == 1 ? decoded.get(0) : '\uFFFD';
+      }
+    } catch (CharacterCodingException e) {
+      return null;
+    }
+    return table;
+  }
+
+  private UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException("A "+getClass().getSimpleName()+" is read-only.");
+  }
+
+  @Override
+  public long longLength() {
+    return length;
+  }
+
+  @Override
+  public int length() {
+    return Math.toIntExact(length);
+  }
+
+  @Override
+  public char charAt(long index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index "+index+", length "+length);
+    }
+    return decodeTable[regions[(int)(index >>> REGION_BITS)].get((int)index & REGION_MASK) & 0xFF];
+  }
+
+  @Override
+  public char charAt(int index) {
+    return charAt((long)index);
+  }
+
+  @Override
+  public void getChars(long srcBegin, long srcEnd, char[] dst, int dstBegin) {
+    if (srcBegin < 0 || srcBegin > srcEnd || srcEnd > length) {
+      throw new IndexOutOfBoundsException("start "+srcBegin+", end "+srcEnd+", length "+length);
+    }
+    for (long i = srcBegin; i < srcEnd; ++i) {
+      dst[dstBegin++] = decodeTable[regions[(int)(i >>> REGION_BITS)].get((int)i & REGION_MASK) & 0xFF];
+    }
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    getChars((long)srcBegin, (long)srcEnd, dst, dstBegin);
+  }
+
+  @Override
+  public CharSequence window(long start, long end) {
+    return new SmaxContent(this, start, end);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return window(start, end);
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return substring((long)start, (long)end);
+  }
+
+  @Override
+  public String toString() {
+    return substring(0L, length);
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    throw readOnly();
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+    throw readOnly();
+  }
+
+  @Override
+  public ContentBuffer append(char[] str, int offset, int len) {
+    throw readOnly();
+  }
+
+  @Override
+  public ContentBuffer delete(int start, int end) {
+    throw readOnly();
+  }
+
+}
@@ -0,0 +1,316 @@
+package org.greenmercury.speat.smax;
+
+import java.util.Random;
+
+/**
+ * A {@code ContentBuffer} that is a piece table, for large documents with many edits.
+ *<p>
+ * The text is a sequence of pieces. Each piece refers to a range of characters in either the original text,
+ * which is never modified, or in an add buffer, to which inserted text is appended.
+ * The pieces are kept in a balanced search tree (a treap), ordered by their position in the text,
+ * so inserting, deleting and finding a character all take O(log n) time, where n is the number of pieces.
+ * Deleted characters remain in the original text or the add buffer.
+ *<p>
+ * Reading characters one by one in sequence, like most scanners do, is fast, because the last piece is cached.
+ *<p>
+ * This class is not synchronized. A {@code PieceTableContentBuffer} must not be edited in one thread
+ * while it is used in another thread.
+ *<p>
+ * @author Rakensi
+ */
+public class PieceTableContentBuffer implements ContentBuffer {
+
+  /**
+   * A piece of text, and a node in the treap.
+   */
+  private static final class Piece {
+    final boolean added; // Whether the characters are in the add buffer or in the original text.
+    final int offset; // The start of the characters in the add buffer or original text.
+    int length; // The number of characters.
+    final int priority; // The heap-priority of the node in the treap.
+    int size; // The number of characters in the sub-tree.
+    Piece left;
+    Piece right;
+
+    Piece(boolean added, int offset, int length, int priority) {
+      this.added = added;
+      this.offset = offset;
+      this.length = length;
+      this.priority = priority;
+      this.size = length;
+    }
+
+    void update() {
+      size = size(left) + length + size(right);
+    }
+  }
+
+  private final CharSequence original;
+  private final StringBuilder add;
+  private Piece root;
+  private final Random random = new Random();
+
+  /**
+   * Results of {@code split}.
+   */
+  private Piece splitLeft;
+  private Piece splitRight;
+
+  /**
+   * Cache for sequential access: the last piece found by {@code charAt}, and its position in the text.
+   * The cache is cleared by any edit.
+   */
+  private Piece lastPiece;
+  private int lastPieceStart;
+
+  /**
+   * Constructor for a {@code PieceTableContentBuffer} with initial text.
+   * The initial text is not copied, so it must not be modified while the {@code PieceTableContentBuffer} is in use.
+   * @param original the initial text
+   */
+  public PieceTableContentBuffer(CharSequence original) {
+    this.original = original;
+    this.add = new StringBuilder();
+    if (original.length() > 0) {
+      this.root = new Piece(false, 0, original.length(), random.nextInt());
+    }
+  }
+
+  /**
+   * Constructor for an empty {@code PieceTableContentBuffer}.
+   */
+  public PieceTableContentBuffer() {
+    this("");
+  }
+
+  private static int size(Piece piece) {
+    return piece == null ? 0 : piece.size;
+  }
+
+  private char pieceChar(Piece piece, int index) {
+    return piece.added ? add.charAt(piece.offset + index) : original.charAt(piece.offset + index);
+  }
+
+  private void checkRange(int start, int end, int length) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException("start "+start+", end "+end+", length "+length);
+    }
+  }
+
+  /**
+   * Split a treap into the pieces before and after a position.
+   * A piece that contains the position is cut in two.
+   * The results are in {@code splitLeft} and {@code splitRight}.
+   * @param piece the root of the treap
+   * @param pos the position, relative to the start of the treap
+   */
+  private void split(Piece piece, int pos) {
+    if (piece == null) {
+      splitLeft = splitRight = null;
+      return;
+    }
+    int leftSize = size(piece.left);
+    if (pos <= leftSize) {
+      split(piece.left, pos);
+      piece.left = splitRight;
+      piece.update();
+      splitRight = piece;
+    } else if (pos >= leftSize + piece.length) {
+      split(piece.right, pos - leftSize - piece.length);
+      piece.right = splitLeft;
+      piece.update();
+      splitLeft = piece;
+    } else {
+      // Cut the piece. The second part inherits the priority, which keeps the heap property for the right sub-tree.
+      int cut = pos - leftSize;
+      Piece second = new Piece(piece.added, piece.offset + cut, piece.length - cut, piece.priority);
+      second.right = piece.right;
+      second.update();
+      piece.length = cut;
+      piece.right = null;
+      piece.update();
+      splitLeft = piece;
+      splitRight = second;
+    }
+  }
+
+  /**
+   * Merge two treaps, where all pieces in {@code a} come before all pieces in {@code b}.
+   */
+  private static Piece merge(Piece a, Piece b) {
+    if (a == null) return b;
+    if (b == null) return a;
+    if (a.priority > b.priority) {
+      a.right = merge(a.right, b);
+      a.update();
+      return a;
+    } else {
+      b.left = merge(a, b.left);
+      b.update();
+      return b;
+    }
+  }
+
+  /**
+   * Insert characters that have just been appended to the add buffer.
+   * @param offset the position in the text
+   * @param addStart start of the characters in the add buffer
+   * @param length number of characters
+   */
+  private void insertAdded(int offset, int addStart, int length) {
+    lastPiece = null;
+    if (offset == size(root) && root != null) {
+      // Extend the last piece if the new characters follow it in the add buffer, which is common when appending text.
+      Piece last = root;
+      while (last.right != null) {
+        last = last.right;
+      }
+      if (last.added && last.offset + last.length == addStart) {
+        last.length += length;
+        for (Piece piece = root; piece != null; piece = piece.right) {
+          piece.size += length;
+        }
+        return;
+      }
+    }
+    split(root, offset);
+    Piece left = splitLeft, right = splitRight;
+    root = merge(merge(left, new Piece(true, addStart, length, random.nextInt())), right);
+  }
+
+  @Override
+  public int length() {
+    return size(root);
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (lastPiece != null && index >= lastPieceStart && index < lastPieceStart + lastPiece.length) {
+      return pieceChar(lastPiece, index - lastPieceStart);
+    }
+    if (index < 0 || index >= size(root)) {
+      throw new IndexOutOfBoundsException("index "+index+", length "+size(root));
+    }
+    Piece piece = root;
+    int pieceStart = 0;
+    while (true) {
+      int leftSize = size(piece.left);
+      if (index < pieceStart + leftSize) {
+        piece = piece.left;
+      } else if (index >= pieceStart + leftSize + piece.length) {
+        pieceStart += leftSize + piece.length;
+        piece = piece.right;
+      } else {
+        pieceStart += leftSize;
+        lastPiece = piece;
+        lastPieceStart = pieceStart;
+        return pieceChar(piece, index - pieceStart);
+      }
+    }
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return substring(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return substring(0, length());
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    checkRange(srcBegin, srcEnd, length());
+    getChars(root, 0, srcBegin, srcEnd, dst, dstBegin);
+  }
+
+  /**
+   * Copy the characters between {@code from} and {@code to} in a sub-tree that starts at {@code pieceStart}.
+   */
+  private void getChars(Piece piece, int pieceStart, int from, int to, char[] dst, int dstBegin) {
+    while (piece != null && from < to) {
+      int leftSize = size(piece.left);
+      int start = pieceStart + leftSize;
+      int end = start + piece.length;
+      if (from < start) {
+        getChars(piece.left, pieceStart, from, Math.min(to, start), dst, dstBegin);
+      }
+      if (from < end && to > start) {
+        int s = Math.max(from, start);
+        int e = Math.min(to, end);
+        int d = dstBegin + (s - from);
+        if (piece.added) {
+          add.getChars(piece.offset + s - start, piece.offset + e - start, dst, d);
+        } else if (original instanceof String) {
+          ((String)original).getChars(piece.offset + s - start, piece.offset + e - start, dst, d);
+        } else {
+          for (int i = s; i < e; ++i) {
+            dst[d++] = original.charAt(piece.offset + i - start);
+          }
+        }
+      }
+      // Continue in the right sub-tree, without recursion.
+      if (to <= end) {
+        return;
+      }
+      if (from < end) {
+        dstBegin += end - from;
+        from = end;
+      }
+      pieceStart = end;
+      piece = piece.right;
+    }
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    replace(index, index + 1, String.valueOf(ch));
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+    checkRange(offset, offset, length());
+    if (end > start) {
+      int addStart = add.length();
+      add.append(csq, start, end);
+      insertAdded(offset, addStart, end - start);
+    }
+    return this;
+  }
+
+  @Override
+  public ContentBuffer append(char[] str, int offset, int len) {
+    if (len > 0) {
+      int addStart = add.length();
+      add.append(str, offset, len);
+      insertAdded(length(), addStart, len);
+    }
+    return this;
+  }
+
+  @Override
+  public ContentBuffer delete(int start, int end) {
+    int length = length();
+    if (end > length) {
+      end = length; // Like StringBuffer.delete.
+    }
+    checkRange(start, end, length);
+    if (end > start) {
+      lastPiece = null;
+      split(root, start);
+      Piece left = splitLeft;
+      split(splitRight, end - start);
+      root = merge(left, splitRight);
+    }
+    return this;
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    char[] chars = new char[end - start];
+    getChars(start, end, chars, 0);
+    return new String(chars);
+  }
+
+}
@@ -0,0 +1,181 @@
+package org.greenmercury.speat.smax;
+
+import java.util.Arrays;
+
+/**
+ * A {@code ContentBuffer} for very large documents, with more than 2^31-1 characters.
+ *<p>
+ * The characters are stored in segments of fixed size, so the buffer can grow without copying,
+ * and positions are {@code long}. Characters can only be appended, which is what {@code SaxToSmaxAdapter} does.
+ * Use {@code SaxToSmaxAdapter.setContentBufferSupplier(SegmentedContentBuffer::new)} to parse very large documents.
+ *<p>
+ * The {@code int} methods of {@code CharSequence} only work when the buffer is smaller than 2^31 characters.
+ * Otherwise, use {@code window} or a {@code SmaxContent} view on a part of the buffer, for example
+ * the content view of a sub-document, which is what {@code SmaxDocumentTransformer} does when {@code transformWithin} is set.
+ * This lets {@code TrieNER} and regular expressions run over the parts of a very large document.
+ *<p>
+ * This class is not synchronized.
+ *<p>
+ * @author Rakensi
+ */
+public class SegmentedContentBuffer implements ContentBuffer {
+
+  /**
+   * Segments have 2^SEGMENT_BITS characters.
+   */
+  private static final int SEGMENT_BITS = 20;
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private char[][] segments = new char[16][];
+  private int nrSegments = 0;
+  private long length = 0;
+
+  /**
+   * Constructor for an empty {@code SegmentedContentBuffer}.
+   */
+  public SegmentedContentBuffer() {
+  }
+
+  /**
+   * Make room for the segment references, and make the first segment as large as needed, up to the segment size.
+   */
+  @Override
+  public void ensureCapacity(long minimumCapacity) {
+    int neededSegments = (int)Math.min((minimumCapacity + SEGMENT_SIZE - 1) >>> SEGMENT_BITS, Integer.MAX_VALUE - 8);
+    if (neededSegments > segments.length) {
+      segments = Arrays.copyOf(segments, neededSegments);
+    }
+    if (nrSegments == 0 && minimumCapacity > 0) {
+      segments[0] = new char[(int)Math.min(minimumCapacity, SEGMENT_SIZE)];
+      nrSegments = 1;
+    } else if (nrSegments == 1 && segments[0].length < SEGMENT_SIZE && minimumCapacity > segments[0].length) {
+      segments[0] = Arrays.copyOf(segments[0], (int)Math.min(minimumCapacity, SEGMENT_SIZE));
+    }
+  }
+
+  private void checkRange(long start, long end) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException("start "+start+", end "+end+", length "+length);
+    }
+  }
+
+  private UnsupportedOperationException appendOnly() {
+    return new UnsupportedOperationException("A "+getClass().getSimpleName()+" only supports appending text.");
+  }
+
+  @Override
+  public long longLength() {
+    return length;
+  }
+
+  @Override
+  public int length() {
+    return Math.toIntExact(length);
+  }
+
+  @Override
+  public char charAt(long index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index "+index+", length "+length);
+    }
+    return segments[(int)(index >>> SEGMENT_BITS)][(int)index & SEGMENT_MASK];
+  }
+
+  @Override
+  public char charAt(int index) {
+    return charAt((long)index);
+  }
+
+  @Override
+  public void getChars(long srcBegin, long srcEnd, char[] dst, int dstBegin) {
+    checkRange(srcBegin, srcEnd);
+    while (srcBegin < srcEnd) {
+      int offset = (int)srcBegin & SEGMENT_MASK;
+      int n = (int)Math.min(srcEnd - srcBegin, SEGMENT_SIZE - offset);
+      System.arraycopy(segments[(int)(srcBegin >>> SEGMENT_BITS)], offset, dst, dstBegin, n);
+      srcBegin += n;
+      dstBegin += n;
+    }
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    getChars((long)srcBegin, (long)srcEnd, dst, dstBegin);
+  }
+
+  @Override
+  public CharSequence window(long start, long end) {
+    checkRange(start, end);
+    return new SmaxContent(this, start, end);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return substring((long)start, (long)end);
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return substring((long)start, (long)end);
+  }
+
+  @Override
+  public String toString() {
+    return substring(0L, length);
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index "+index+", length "+length);
+    }
+    segments[index >>> SEGMENT_BITS][index & SEGMENT_MASK] = ch;
+  }
+
+  @Override
+  public ContentBuffer append(char[] str, int offset, int len) {
+    while (len > 0) {
+      int segmentIndex = (int)(length >>> SEGMENT_BITS);
+      int segmentOffset = (int)length & SEGMENT_MASK;
+      if (segmentIndex == nrSegments) {
+        if (nrSegments == segments.length) {
+          segments = Arrays.copyOf(segments, 2 * nrSegments);
+        }
+        // The first segment starts small and grows, so that small documents do not waste memory.
+        segments[nrSegments] = new char[nrSegments == 0 ? INITIAL_CAPACITY : SEGMENT_SIZE];
+        ++nrSegments;
+      }
+      int n = Math.min(len, SEGMENT_SIZE - segmentOffset);
+      char[] segment = segments[segmentIndex];
+      if (segmentOffset + n > segment.length) {
+        segment = Arrays.copyOf(segment, Math.min(SEGMENT_SIZE, Math.max(2 * segment.length, segmentOffset + n)));
+        segments[segmentIndex] = segment;
+      }
+      System.arraycopy(str, offset, segment, segmentOffset, n);
+      length += n;
+      offset += n;
+      len -= n;
+    }
+    return this;
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+    if (offset != length) {
+      throw appendOnly();
+    }
+    char[] chars = csq.subSequence(start, end).toString().toCharArray();
+    return append(chars, 0, chars.length);
+  }
+
+  @Override
+  public ContentBuffer delete(int start, int end) {
+    if (start != end) {
+      throw appendOnly();
+    }
+    return this;
+  }
+
+}
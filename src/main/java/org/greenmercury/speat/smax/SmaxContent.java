@@ -1,38 +1,42 @@
 package org.greenmercury.speat.smax;
 
 /**
- * Representation of document content for SMAX, based on {@code StringBuffer},
- * which is final and cannot be extended, so {@code SmaxContent} wraps {@code StringBuffer}.
- * Because the text content is a {@code StringBuffer}, it cannot support very large (> 2^31-1 characters) documents.
+ * Representation of document content for SMAX, as a view on a {@code ContentBuffer}.
+ * By default the {@code ContentBuffer} wraps a {@code StringBuffer}, which is final and cannot be extended.
+ * The start and end of the view in the underlying buffer are {@code long}, so a {@code SmaxContent} can be a view
+ * on a part of a very large (> 2^31-1 characters) {@code ContentBuffer}, like {@code SegmentedContentBuffer}.
+ * The view itself may also be longer than 2^31-1 characters. Its {@code long} length is {@code longLength()},
+ * but the {@code CharSequence} and other {@code int}-indexed methods can only be used on views that fit in an {@code int}.
  *<p>
- * We use {@code StringBuffer} rather than {@code StringBuilder}, because it is thread-safe.
+ * We use {@code StringBuffer} rather than {@code StringBuilder} by default, because it is thread-safe.
  * The {@code StringBuffer} may be used in different threads, so thread-safety may be needed.
+ * Other {@code ContentBuffer}s, like {@code PieceTableContentBuffer}, are better for documents with many edits.
  *<p>
  * When {@code SmaxContent} is used in a {@code SmaxDocument}, the start and end indexes point to
- * the wrapped {@code StringBuffer}, not to the zero-based view provided by {@code SmaxContent}.
+ * the underlying {@code ContentBuffer}, not to the zero-based view provided by {@code SmaxContent}.
  * This makes it easier to create sub-documents of a {@code SmaxDocument} without changing start and end positions.
  *<p>
  * This class provides sub-document views with zero-based indexes on a document,
  * without copying parts of the underlying buffer like StringBuffer, CharBuffer and CharSequence do.
  *<p>
+ * Edits through a {@code SmaxContent} do not change the positions of markup in a {@code SmaxDocument}.
+ * Use the edit methods of {@code SmaxDocument} to keep markup and content consistent.
+ *<p>
  * @author Rakensi
  */
 public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxContent> {
 
-  /**
-   * We wrap a StringBuffer, because StringBuffer is final, so extending is not possible.
-   */
-  private StringBuffer buffer;
-  private int start; // The start index within the buffer, for zero-based views.
-  private int end; // The end index within the buffer, for zero-based views.
+  private final ContentBuffer buffer;
+  private long start; // The start index within the buffer, for zero-based views.
+  private long end; // The end index within the buffer, for zero-based views.
 
   /**
-   * Constructor for a {@code SmaxContent} view on a {@code StringBuffer}.
-   * @param buffer the underlying {@code StringBuffer}
+   * Constructor for a {@code SmaxContent} view on a {@code ContentBuffer}.
+   * @param buffer the underlying {@code ContentBuffer}
    * @param start start position within {@code buffer}
    * @param end end position within {@code buffer}
    */
-  public SmaxContent(StringBuffer buffer, int start, int end) {
+  public SmaxContent(ContentBuffer buffer, long start, long end) {
     this.buffer = buffer;
     this.start = start;
     this.end = end;
@@ -42,11 +46,29 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     if (this.start > this.end) {
       throw new IndexOutOfBoundsException("The start index must not be greater than the end index.");
     }
-    if (this.end > buffer.length()) {
+    if (this.end > buffer.longLength()) {
       throw new IndexOutOfBoundsException("The end index must not be greater than the end index of its parent buffer.");
     }
   }
 
+  /**
+   * Constructor for a {@code SmaxContent} view on all text in a {@code ContentBuffer}.
+   * @param buffer the underlying {@code ContentBuffer}
+   */
+  public SmaxContent(ContentBuffer buffer) {
+    this(buffer, 0, buffer.longLength());
+  }
+
+  /**
+   * Constructor for a {@code SmaxContent} view on a {@code StringBuffer}.
+   * @param buffer the underlying {@code StringBuffer}
+   * @param start start position within {@code buffer}
+   * @param end end position within {@code buffer}
+   */
+  public SmaxContent(StringBuffer buffer, long start, long end) {
+    this(new StringBufferContentBuffer(buffer), start, end);
+  }
+
   /**
    * Constructor for a {@code SmaxContent} view on all text in a {@code StringBuffer}.
    * @param buffer the underlying {@code StringBuffer}
@@ -61,7 +83,7 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
    * @param start relative start position
    * @param end relative end position
    */
-  public SmaxContent(SmaxContent content, int start, int end) {
+  public SmaxContent(SmaxContent content, long start, long end) {
     this(content.buffer, content.start + start, content.start + end);
   }
 
@@ -82,29 +104,50 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
 
   /**
    * Constructor equivalent to {@code StringBuffer}.
+   * If {@code seq} is a {@code ContentBuffer}, it is not copied.
    * @param seq
    */
   public SmaxContent(CharSequence seq) {
-    this(seq, 0, seq.length());
+    this(asContentBuffer(seq));
   }
 
   /**
-   * Constructor for a sub-document view on a {@code StringBuffer}.
+   * Constructor for a sub-document view on a copy of a {@code CharSequence}.
+   * If {@code seq} is a {@code ContentBuffer}, it is not copied.
    * @param seq
    * @param start
    * @param end
    */
-  public SmaxContent(CharSequence seq, int start, int end) {
-    this(new StringBuffer(seq), start, end);
+  public SmaxContent(CharSequence seq, long start, long end) {
+    this(asContentBuffer(seq), start, end);
+  }
+
+  private static ContentBuffer asContentBuffer(CharSequence seq) {
+    return seq instanceof ContentBuffer ? (ContentBuffer)seq : new StringBufferContentBuffer(new StringBuffer(seq));
   }
 
   /**
-   * Get the underlying buffer of the content.
+   * Get the underlying buffer of the content, if that is a {@code StringBuffer}.
    * This buffer is consistent with the {@code startPos} and {@code endPos}
    * of {@code SmaxElement}s in a {@code SmaxDocument}.
    * @return the underlying {@code StringBuffer}
+   * @throws UnsupportedOperationException if the content is not stored in a {@code StringBuffer}
+   * @see #getUnderlyingContent()
    */
   public StringBuffer getUnderlyingBuffer() {
+    if (buffer instanceof StringBufferContentBuffer) {
+      return ((StringBufferContentBuffer)buffer).getStringBuffer();
+    }
+    throw new UnsupportedOperationException("The content is stored in a "+buffer.getClass().getSimpleName()+", not in a StringBuffer.");
+  }
+
+  /**
+   * Get the underlying {@code ContentBuffer} of the content.
+   * This buffer is consistent with the {@code startPos} and {@code endPos}
+   * of {@code SmaxElement}s in a {@code SmaxDocument}.
+   * @return the underlying {@code ContentBuffer}
+   */
+  public ContentBuffer getUnderlyingContent() {
     return buffer;
   }
 
@@ -118,18 +161,53 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     return buffer.substring(start, end);
   }
 
+  /**
+   * Convert a position in this view into an {@code int} position in the underlying buffer, for the editing methods.
+   * @param index position in this view
+   * @return position in the underlying buffer
+   * @throws ArithmeticException if the position does not fit in an {@code int}
+   */
+  private int bufferPos(int index) {
+    return Math.toIntExact(start + index);
+  }
+
+  /**
+   * @return the length of the view, which may be larger than 2^31-1
+   */
+  public long longLength() {
+    return end - start;
+  }
+
   /* Comparable implementation */
 
   @Override
   public int compareTo(SmaxContent that) {
-    return toString().compareTo(that.toString());
+    // Compare like String.compareTo, without copying the content.
+    int length = length();
+    int thatLength = that.length();
+    int n = Math.min(length, thatLength);
+    for (int i = 0; i < n; ++i) {
+      char c1 = charAt(i);
+      char c2 = that.charAt(i);
+      if (c1 != c2) {
+        return c1 - c2;
+      }
+    }
+    return length - thatLength;
   }
 
   /* CharSequence implementation */
 
+  /**
+   * @throws IndexOutOfBoundsException if the view is longer than 2^31-1 characters
+   */
   @Override
   public int length() {
-    return end - start;
+    long length = end - start;
+    if (length > Integer.MAX_VALUE) {
+      throw new IndexOutOfBoundsException("A SmaxContent view of "+length+" characters is too long for a CharSequence.");
+    }
+    return (int)length;
   }
 
   @Override
@@ -137,30 +215,37 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     return buffer.charAt(start + index);
   }
 
+  /**
+   * Get a part of the content as a {@code SmaxContent} view, without copying.
+   * The view shares the underlying buffer, so it is not independent of edits in the content.
+   */
   @Override
   public CharSequence subSequence(int start, int end) {
-    return buffer.subSequence(this.start + start, this.start + end);
+    if (start < 0 || start > end || end > length()) {
+      throw new IndexOutOfBoundsException("start "+start+", end "+end+", length "+length());
+    }
+    return new SmaxContent(buffer, this.start + start, this.start + end);
   }
 
   /* Appendable implementation */
 
   @Override
   public SmaxContent append(CharSequence csq) {
-    buffer = buffer.insert(end, csq);
+    buffer.insert(bufferPos(length()), csq);
     end = end + csq.length();
     return this;
   }
 
   @Override
   public SmaxContent append(CharSequence csq, int start, int end) {
-    buffer = buffer.insert(this.end, csq, start, end);
+    buffer.insert(bufferPos(length()), csq, start, end);
     this.end = this.end + (end - start);
     return this;
   }
 
   @Override
   public SmaxContent append(char c) {
-    buffer = buffer.insert(end, c);
+    buffer.insert(bufferPos(length()), c);
     end = end + 1;
     return this;
   }
@@ -172,17 +257,17 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
   }
 
   public void setCharAt(int index, char ch) {
-    buffer.setCharAt(start + index, ch);
+    buffer.setCharAt(bufferPos(index), ch);
   }
 
   public SmaxContent delete(int start, int end) {
-    buffer = buffer.delete(this.start + start, this.start + end);
+    buffer.delete(bufferPos(start), bufferPos(end));
     this.end = this.end - (end - start);
     return this;
   }
 
   public SmaxContent deleteCharAt(int index) {
-    buffer = buffer.deleteCharAt(start + index);
+    buffer.delete(bufferPos(index), bufferPos(index + 1));
     end = end - 1;
     return this;
   }
@@ -191,7 +276,7 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     if (str == null) {
       str = "";
     }
-    buffer = buffer.replace(this.start + start, this.start + end, str);
+    buffer.replace(bufferPos(start), bufferPos(end), str);
     this.end = this.end - (end - start) + str.length();
     return this;
   }
@@ -208,36 +293,75 @@ public class SmaxContent implements Appendable, CharSequence, Comparable<SmaxCon
     if (str == null) {
       str = "";
     }
-    buffer = buffer.insert(start + offset, str);
+    buffer.insert(bufferPos(offset), str);
     end = end + str.length();
     return this;
   }
 
   public SmaxContent insert(int offset, CharSequence csq) {
-    buffer = buffer.insert(start + offset, csq);
+    buffer.insert(bufferPos(offset), csq);
     end = end + csq.length();
     return this;
   }
 
   public SmaxContent insert(int offset, CharSequence csq, int srcStart, int srcEnd) {
-    buffer = buffer.insert(start + offset, csq, srcStart, srcEnd);
+    buffer.insert(bufferPos(offset), csq, srcStart, srcEnd);
     end = end + (srcEnd - srcStart);
     return this;
   }
 
+  /* Searching, like String, but directly in the underlying buffer. */
+
   public int indexOf(String str) {
-    return toString().indexOf(str);
+    return indexOf(str, 0);
   }
 
   public int indexOf(String str, int fromIndex) {
-    return toString().indexOf(str, fromIndex);
+    int strLength = str.length();
+    int last = length() - strLength;
+    if (fromIndex < 0) {
+      fromIndex = 0;
+    }
+    if (strLength == 0) {
+      return Math.min(fromIndex, length());
+    }
+    char first = str.charAt(0);
+    for (int i = fromIndex; i <= last; ++i) {
+      if (charAt(i) == first && matchesAt(i, str)) {
+        return i;
+      }
+    }
+    return -1;
   }
 
   public int lastIndexOf(String str) {
-    return toString().lastIndexOf(str);
+    return lastIndexOf(str, length());
   }
 
   public int lastIndexOf(String str, int fromIndex) {
-    return toString().lastIndexOf(str, fromIndex);
+    int strLength = str.length();
+    int i = Math.min(fromIndex, length() - strLength);
+    if (strLength == 0) {
+      return i < 0 ? -1 : i;
+    }
+    char first = str.charAt(0);
+    for (; i >= 0; --i) {
+      if (charAt(i) == first && matchesAt(i, str)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return whether {@code str} occurs at {@code index}, which must leave room for {@code str}
+   */
+  private boolean matchesAt(int index, String str) {
+    for (int j = 1; j < str.length(); ++j) {
+      if (charAt(index + j) != str.charAt(j)) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -10,16 +10,24 @@ import java.util.stream.Stream;
  * Representation of a SMAX document with separated markup and content.
  *<p>
  * A SmaxDocument has markup (starting at the root-node) and text content.
- * The document content may be part of a larger {@code StringBuffer},
+ * The document content may be part of a larger {@code ContentBuffer},
  * therefore it is a {@code SmaxContent}.
  * The {@code content} always corresponds to the content of {@code markup},
  * and is the part of the underlying buffer between {@code markup.startPos} and {@code markup.endPos}.
  *<p>
  * The {@code startPos} and {@code endPos} of every {@code SmaxElement} in the markup
- * are relative to the underlying {@code StringBuffer} of the {@code SmaxContent} {@code content}.
+ * are relative to the underlying {@code ContentBuffer} of the {@code SmaxContent} {@code content}.
  * This makes it easier to create sub-documents of a {@code SmaxDocument} without changing start and end indexes.
  * Because of this, the {@code startPos} of a root element does not have to be zero.
  *<p>
+ * The content can be edited with {@code insertContent}, {@code deleteContent} and {@code replaceContent}.
+ * These methods record the edits in a log, which is shared with sub-documents made by {@code subDocument}.
+ * The positions of the markup are remapped when the markup is used again, so many edits cost one pass over the markup.
+ * For large documents with many edits, use a {@code PieceTableContentBuffer}, where each edit costs O(log n).
+ *<p>
+ * A {@code snapshot} is a copy of a document that shares the markup tree and content with the original.
+ * When markup is inserted into either of them, only the elements on the path to the inserted element are copied.
+ *<p>
  * @author Rakensi
  */
 public class SmaxDocument {
@@ -30,13 +38,34 @@ public class SmaxDocument {
   private SmaxElement markup;
   private SmaxContent content;
 
+  /**
+   * The log of content edits, shared with sub-documents. It is {@code null} until it is needed.
+   */
+  private ContentEditLog editLog;
+
+  /**
+   * The generation of the edit log for which {@code content} is valid.
+   */
+  private int contentGeneration;
+
+  /**
+   * The owner token of this document. The document changes only {@code SmaxElement}s with the same owner in place,
+   * and copies other elements before changing them. It is {@code null} until the document has been snapshotted.
+   */
+  private Object owner;
+
+  /**
+   * Whether the content is shared with a snapshot, so that it must not be edited.
+   */
+  private boolean contentShared;
+
   /**
    * Construct a {@code SmaxDocument}.
    * @param markup The markup of the document.
    * @param content The content of the document. Only the part pointed to by the markup is used.
    */
   public SmaxDocument(SmaxElement markup, SmaxContent content) {
-    this(markup, content.getUnderlyingBuffer());
+    this(markup, content.getUnderlyingContent());
   }
 
   /**
@@ -45,24 +74,35 @@ public class SmaxDocument {
    * @param content The content of the document. Only the part pointed to by the markup is used.
    */
   public SmaxDocument(SmaxElement markup, StringBuffer content) {
+    this(markup, new StringBufferContentBuffer(content));
+  }
+
+  /**
+   * Construct a {@code SmaxDocument}.
+   * @param markup The markup of the document.
+   * @param content The content of the document. Only the part pointed to by the markup is used.
+   */
+  public SmaxDocument(SmaxElement markup, ContentBuffer content) {
     this.markup = markup;
-    this.content = new SmaxContent(content, markup.getStartPos(), markup.getEndPos());
+    this.content = new SmaxContent(content, markup.getLongStartPos(), markup.getLongEndPos());
   }
 
   /**
    * Construct a {@code SmaxDocument}.
    * @param markup The markup of the document.
    * @param content The content of the document. Only the part pointed to by the markup is used.
+   * The content is copied, unless it is a {@code ContentBuffer}.
    */
   public SmaxDocument(SmaxElement markup, CharSequence content) {
     this.markup = markup;
-    this.content = new SmaxContent(content, markup.getStartPos(), markup.getEndPos());
+    this.content = new SmaxContent(content, markup.getLongStartPos(), markup.getLongEndPos());
   }
 
   /**
    * @return the markup of the document
    */
   public SmaxElement getMarkup() {
+    applyContentEdits();
     return markup;
   }
 
@@ -70,9 +110,16 @@ public class SmaxDocument {
    * @return the content of the document as {@code SmaxContent}
    * Note that the character positions of {@code SmaxElement}s in the document are <em>not</em> valid
    * as indexes for the {@code StringBuffer} and {@code CharSequence} methods of the {@code SmaxContent}.
-   * These positions are valid for the underlying {@code StringBuffer}.
+   * These positions are valid for the underlying {@code ContentBuffer}.
    */
   public SmaxContent getContentView() {
+    if (editLog != null) {
+      if (editLog.hasPendingEdits() && editLog.getLastEditor() != this) {
+        applyContentEdits();
+      } else {
+        refreshContentView();
+      }
+    }
     return content;
   }
 
@@ -80,17 +127,232 @@ public class SmaxDocument {
    * @return the content buffer of the document
    * Note that the character positions of {@code SmaxElement}s in the document are valid
    * as indexes into the content buffer.
+   * @throws UnsupportedOperationException if the content is not stored in a {@code StringBuffer}
+   * @see #getUnderlyingContent()
    */
   public StringBuffer getContentBuffer() {
     return content.getUnderlyingBuffer();
   }
 
+  /**
+   * @return the underlying {@code ContentBuffer} of the document
+   * Note that the character positions of {@code SmaxElement}s in the document are valid
+   * as indexes into the content buffer.
+   */
+  public ContentBuffer getUnderlyingContent() {
+    return content.getUnderlyingContent();
+  }
+
+  /**
+   * Make a sub-document for an element in the markup of this document.
+   * The sub-document shares the content and the edit log with this document,
+   * so content edits in the sub-document are applied to the markup of this document as well.
+   * @param subMarkup an element in the markup of this document
+   * @return a {@code SmaxDocument} with {@code subMarkup} as its markup
+   */
+  public SmaxDocument subDocument(SmaxElement subMarkup) {
+    if (editLog == null) {
+      editLog = new ContentEditLog();
+      contentGeneration = editLog.getGeneration();
+    }
+    applyContentEdits();
+    SmaxDocument subDocument = new SmaxDocument(ownPath(subMarkup), content.getUnderlyingContent());
+    subDocument.editLog = editLog;
+    subDocument.contentGeneration = editLog.getGeneration();
+    subDocument.owner = owner;
+    subDocument.contentShared = contentShared;
+    return subDocument;
+  }
+
+  /**
+   * Make a snapshot of this document.
+   * The snapshot and this document share the markup, until markup is inserted into one of them.
+   * Then the elements on the path from the root to the inserted element are copied, and the rest is still shared.
+   * Both documents can be changed independently, but only through {@code insertMarkup}.
+   * Changing shared {@code SmaxElement}s directly changes both documents.
+   *<p>
+   * The content is also shared, so it can no longer be edited in either document.
+   * The parent node of a shared element may be the corresponding element in the other document,
+   * which has the same name, attributes, namespace declarations and positions.
+   * Sub-documents that were made before the snapshot must not be used after it.
+   * @return a new {@code SmaxDocument} with the same markup and content as this document
+   */
+  public SmaxDocument snapshot() {
+    applyContentEdits();
+    SmaxDocument snapshot = new SmaxDocument(markup, content.getUnderlyingContent());
+    owner = new Object();
+    snapshot.owner = new Object();
+    contentShared = true;
+    snapshot.contentShared = true;
+    return snapshot;
+  }
+
+  /**
+   * @return whether this document may change {@code element} in place
+   */
+  private boolean owns(SmaxElement element) {
+    return element.getOwner() == owner;
+  }
+
+  /**
+   * Copy an element that this document does not own.
+   * @param element the element that is copied
+   * @param parent the parent of the copy, or {@code null} to keep the parent of {@code element}
+   * @return the copy, which is owned by this document
+   */
+  private SmaxElement ownedCopy(SmaxElement element, SmaxElement parent) {
+    SmaxElement copy = element.copyForOwner(owner);
+    if (parent != null) {
+      copy.setParentNode(parent);
+    }
+    return copy;
+  }
+
+  /**
+   * Make sure that this document owns an element and its ancestors, copying them if needed.
+   * An element that is owned always has owned ancestors.
+   * @param element an element in the markup of this document
+   * @return the element, or its copy if it was not owned
+   */
+  private SmaxElement ownPath(SmaxElement element) {
+    if (owns(element)) {
+      return element;
+    }
+    Deque<SmaxElement> path = new ArrayDeque<>();
+    if (!findPath(markup, element, path)) {
+      throw new IllegalArgumentException("The element "+element+" is not part of the document.");
+    }
+    if (!owns(markup)) {
+      markup = ownedCopy(markup, null);
+    }
+    SmaxElement current = markup;
+    path.removeFirst(); // This is the root.
+    for (SmaxElement next : path) {
+      if (!owns(next)) {
+        List<SmaxElement> children = current.getChildren();
+        SmaxElement copy = ownedCopy(next, current);
+        children.set(indexOf(children, next), copy);
+        next = copy;
+      }
+      current = next;
+    }
+    return current;
+  }
+
+  /**
+   * Find the path from {@code root} to {@code element}, using the positions to skip sub-trees that can not contain it.
+   * @return whether {@code element} was found; if so, the path is in {@code path}
+   */
+  private boolean findPath(SmaxElement root, SmaxElement element, Deque<SmaxElement> path) {
+    path.addLast(root);
+    if (root == element) {
+      return true;
+    }
+    for (SmaxElement child : root.getChildren()) {
+      if (child.getLongStartPos() <= element.getLongStartPos() && child.getLongEndPos() >= element.getLongEndPos() &&
+          findPath(child, element, path)) {
+        return true;
+      }
+    }
+    path.removeLast();
+    return false;
+  }
+
+  /**
+   * @return the index of {@code element} in {@code elements}, by identity
+   */
+  private static int indexOf(List<SmaxElement> elements, SmaxElement element) {
+    for (int i = 0; i < elements.size(); ++i) {
+      if (elements.get(i) == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Apply pending content edits to the positions of the markup.
+   * This is done automatically when the markup is used, but a pipeline stage that passes the document on
+   * may call this to make the document consistent.
+   */
+  public void applyContentEdits() {
+    if (editLog != null) {
+      if (editLog.hasPendingEdits()) {
+        SmaxElement root = markup;
+        while (root.getParentNode() != null) {
+          root = root.getParentNode();
+        }
+        editLog.apply(root);
+      }
+      refreshContentView();
+    }
+  }
+
+  /**
+   * Make a new content view if the positions of the markup have changed since the content view was made.
+   */
+  private void refreshContentView() {
+    if (editLog.getGeneration() != contentGeneration) {
+      content = new SmaxContent(content.getUnderlyingContent(), markup.getLongStartPos(), markup.getLongEndPos());
+      contentGeneration = editLog.getGeneration();
+    }
+  }
+
+  /**
+   * Insert text into the content of the document.
+   * Text that is inserted at the start of an element becomes part of that element.
+   * Text that is inserted at the end of the document becomes part of its root element,
+   * but not of the elements that end or start at the same position within or after the root element.
+   * @param pos relative position in the content
+   * @param text the text to insert
+   */
+  public void insertContent(int pos, CharSequence text) {
+    replaceContent(pos, pos, text);
+  }
+
+  /**
+   * Delete text from the content of the document.
+   * Elements within the deleted range become empty.
+   * @param startPos relative start position of the deleted text
+   * @param endPos relative end position of the deleted text
+   */
+  public void deleteContent(int startPos, int endPos) {
+    replaceContent(startPos, endPos, "");
+  }
+
+  /**
+   * Replace text in the content of the document.
+   * Positions of the markup within the replaced text move to the end of the new text,
+   * and positions after the replaced text are shifted.
+   * @param startPos relative start position of the replaced text
+   * @param endPos relative end position of the replaced text
+   * @param text the new text
+   */
+  public void replaceContent(int startPos, int endPos, CharSequence text) {
+    if (contentShared) {
+      throw new IllegalStateException("The content of a document that has been snapshotted can not be edited.");
+    }
+    if (editLog == null) {
+      editLog = new ContentEditLog();
+      contentGeneration = editLog.getGeneration();
+    }
+    SmaxContent view = getContentView();
+    if (startPos < 0 || startPos > endPos || endPos > view.length()) {
+      throw new IndexOutOfBoundsException("Invalid range "+startPos+".."+endPos+" in content of length "+view.length());
+    }
+    SmaxElement appendedTo = startPos == endPos && endPos == view.length() ? markup : null;
+    view.replace(startPos, endPos, text.toString());
+    long offset = markup.getLongStartPos();
+    editLog.record(offset + startPos, offset + endPos, text.length(), this, appendedTo);
+  }
+
   /**
    * Determine the ancestor nodes in the document for a given node.
    * @param node
    * @return The ancestor nodes of {@code node}, in top-down order (starting at the root node).
    */
   public Stream<SmaxElement> ancestorNodes(SmaxElement node) throws SmaxException {
+    applyContentEdits();
     return ancestorNodesWithin(node, markup);
   }
 
@@ -102,14 +364,14 @@ public class SmaxDocument {
    *         in top-down order (starting at {@code within}).
    */
   private Stream<SmaxElement> ancestorNodesWithin(SmaxElement node, SmaxElement within) throws SmaxException {
-    int nodeStartPos = node.getStartPos();
+    long nodeStartPos = node.getLongStartPos();
     if (within == node) {
       // Stop when we have arrived at node.
       return Stream.empty();
     } else {
       // Find the child of within that contains node.
       SmaxElement next = within.getChildren().stream()
-          .filter(child -> nodeStartPos >= child.getStartPos() && nodeStartPos < child.getEndPos()).findAny()
+          .filter(child -> nodeStartPos >= child.getLongStartPos() && nodeStartPos < child.getLongEndPos()).findAny()
           .orElseThrow(() -> new SmaxException("The given node is not part of the document."));
       return Stream.concat(Stream.of(within), ancestorNodesWithin(node, next));
     }
@@ -121,7 +383,8 @@ public class SmaxDocument {
    * @return a stream of nodes starting at the root of the document.
    */
   public Stream<SmaxElement> ancestorNodes(int charPos) {
-    return ancestorNodesWithin(charPos + markup.getStartPos(), markup);
+    applyContentEdits();
+    return ancestorNodesWithin(charPos + markup.getLongStartPos(), markup);
   }
 
   /**
@@ -130,10 +393,10 @@ public class SmaxDocument {
    * @param within
    * @return a stream of nodes starting at the root of the document.
    */
-  private Stream<SmaxElement> ancestorNodesWithin(int charPos, SmaxElement within) {
+  private Stream<SmaxElement> ancestorNodesWithin(long charPos, SmaxElement within) {
     return Stream.concat(Stream.of(within),
       within.getChildren().stream()
-        .filter(child -> charPos >= child.getStartPos() && charPos < child.getEndPos())
+        .filter(child -> charPos >= child.getLongStartPos() && charPos < child.getLongEndPos())
         .flatMap(child -> ancestorNodesWithin(charPos, child)));
   }
 
@@ -143,6 +406,7 @@ public class SmaxDocument {
    * @return an iterable of the matching nodes, in no document order.
    */
   public Iterable<SmaxElement> matchingNodes(SmaxElement pattern) {
+    applyContentEdits();
     return () -> {
       // A set of nodes to consider. This will be empty when the iterator is exhausted
       Deque<SmaxElement> currentSet = new ArrayDeque<SmaxElement>();
@@ -197,13 +461,18 @@ public class SmaxDocument {
     if (newNode.getChildren() != null && !newNode.getChildren().isEmpty()) {
       throw new IllegalArgumentException("Inserted SmaxElement must have no children.");
     }
+    applyContentEdits();
+    newNode.setOwner(owner);
+    if (!owns(markup)) {
+      markup = ownedCopy(markup, null);
+    }
     // Set the absolute start and end positions.
-    newNode.setStartPos(markup.getStartPos() + startPos).setEndPos(markup.getStartPos() + endPos);
+    newNode.setStartPos(markup.getLongStartPos() + startPos).setEndPos(markup.getLongStartPos() + endPos);
     // Collapse the newNode character span for START or END markers.
     if (balancing == Balancing.START) {
-      newNode.setEndPos(newNode.getStartPos());
+      newNode.setEndPos(newNode.getLongStartPos());
     } else if (balancing == Balancing.END) {
-      newNode.setStartPos(newNode.getEndPos());
+      newNode.setStartPos(newNode.getLongEndPos());
     }
     // Insert the node.
     insertMarkupInto(newNode, markup, balancing);
@@ -211,7 +480,7 @@ public class SmaxDocument {
     if (newNode.getNamespaceUri() != null && !newNode.hasNamespacePrefix()) {
       String prefix = newNode.lookupPrefix(newNode.getNamespaceUri());
       if (prefix != null) {
-        newNode.setName(newNode.getNamespaceUri(), newNode.getLocalName(), prefix+":"+newNode.getLocalName());
+        newNode.setName(newNode.getName().withPrefix(prefix));
       }
     }
   }
@@ -222,10 +491,11 @@ public class SmaxDocument {
    * @param root the root of the sub-tree.
    * @param balancing the balancing strategy for intersecting nodes.
    * For START and END balancing strategies, the newNode character span must already be collapsed.
+   * The root must be owned by this document. Elements that are changed are copied first if they are not owned.
    */
   private void insertMarkupInto(SmaxElement newNode, SmaxElement root, Balancing balancing) {
-    int newNodeStartPos = newNode.getStartPos();
-    int newNodeEndPos = newNode.getEndPos();
+    long newNodeStartPos = newNode.getLongStartPos();
+    long newNodeEndPos = newNode.getLongEndPos();
     // A child node of root that contains the newNode.
     SmaxElement containingChild = null;
     // A child-node of root that is intersected by the left of the newNode.
@@ -239,8 +509,8 @@ public class SmaxDocument {
     // Go through the list of children once, from first to last and collect special nodes and indexes.
     // The newNodeInsertIndex points to the current child.
     for (SmaxElement child : root.getChildren()) {
-      int childStartPos = child.getStartPos();
-      int childEndPos = child.getEndPos();
+      long childStartPos = child.getLongStartPos();
+      long childEndPos = child.getLongEndPos();
       // Check for a child node that contains the newNode.
       if (childStartPos <= newNodeStartPos && childEndPos >= newNodeEndPos) {
         // If the newNode is empty and at the start or end of the child, it is kept outside the child.
@@ -278,19 +548,19 @@ public class SmaxDocument {
     switch (balancing) {
     case OUTER:
       if (leftIntersected != null) {
-        newNode.setStartPos(leftIntersected.getStartPos());
+        newNode.setStartPos(leftIntersected.getLongStartPos());
       }
       if (rightIntersected != null) {
-        newNode.setEndPos(rightIntersected.getEndPos());
+        newNode.setEndPos(rightIntersected.getLongEndPos());
       }
       break;
     case INNER:
       if (leftIntersected != null) {
-        newNode.setStartPos(leftIntersected.getEndPos());
+        newNode.setStartPos(leftIntersected.getLongEndPos());
         ++ firstContainedIndex;
       }
       if (rightIntersected != null) {
-        newNode.setEndPos(rightIntersected.getStartPos());
+        newNode.setEndPos(rightIntersected.getLongStartPos());
         -- newNodeInsertIndex;
       }
       break;
@@ -299,29 +569,40 @@ public class SmaxDocument {
       break;
     case BALANCE_TO_START:
       if (leftIntersected != null) {
-        newNode.setEndPos(newNode.getStartPos());
+        newNode.setEndPos(newNode.getLongStartPos());
         containingChild = leftIntersected;
       } else if (rightIntersected != null) {
-        newNode.setEndPos(newNode.getStartPos());
+        newNode.setEndPos(newNode.getLongStartPos());
         newNodeInsertIndex = firstContainedIndex;
       }
       break;
     case BALANCE_TO_END:
       if (rightIntersected != null) {
-        newNode.setStartPos(newNode.getEndPos());
+        newNode.setStartPos(newNode.getLongEndPos());
         containingChild = rightIntersected;
       } else if (leftIntersected != null) {
-        newNode.setStartPos(newNode.getEndPos());
+        newNode.setStartPos(newNode.getLongEndPos());
         firstContainedIndex = newNodeInsertIndex;
       }
       break;
     }
     if (containingChild != null) {
-      // Push newNode into containing child-node.
+      // Push newNode into containing child-node, which must be owned.
+      if (!owns(containingChild)) {
+        SmaxElement copy = ownedCopy(containingChild, root);
+        root.getChildren().set(indexOf(root.getChildren(), containingChild), copy);
+        containingChild = copy;
+      }
       insertMarkupInto(newNode, containingChild, balancing);
     } else {
-      // Move contained child-nodes into the newNode.
+      // Move contained child-nodes into the newNode. Their parent changes, so they must be owned.
       if (firstContainedIndex >= 0 && newNodeInsertIndex > firstContainedIndex) {
+        for (int i = firstContainedIndex; i < newNodeInsertIndex; ++i) {
+          SmaxElement child = root.getChildren().get(i);
+          if (!owns(child)) {
+            root.getChildren().set(i, ownedCopy(child, root));
+          }
+        }
         List<SmaxElement> newNodeChildren = root.removeChildren(firstContainedIndex, newNodeInsertIndex);
         newNode.setChildren(newNodeChildren);
         newNodeInsertIndex = firstContainedIndex; // Because nodes have been removed.
@@ -18,11 +18,9 @@ import org.xml.sax.helpers.AttributesImpl;
 public class SmaxElement {
   /**
    * The usual properties of an XML element.
+   * The name is interned, so elements with the same name share one {@code SmaxName} instance.
    */
-  private String namespaceUri;
-  private String namespacePrefix;
-  private String localName;
-  private String qualifiedName;
+  private SmaxName name;
   private AttributesImpl attributes;
 
   /**
@@ -33,12 +31,12 @@ public class SmaxElement {
 
   /**
    * The start and end character position of the node.
-   * These are int, because the capacity of a StringBuffer (used for text content in SmaxDocument) is int.
+   * These are long, because the {@code ContentBuffer} of a {@code SmaxDocument} may have more than 2^31-1 characters.
    * The {@code startpos} is just before the first character in the text,
    * and the {@code endPos} is just after the last character in the text.
    */
-  private int startPos;
-  private int endPos;
+  private long startPos;
+  private long endPos;
 
   /**
    * The parent node (a SmaxElement) of this element, if there is one.
@@ -52,6 +50,12 @@ public class SmaxElement {
    */
   private List<SmaxElement> children;
 
+  /**
+   * The owner of this element, which is used for copy-on-write snapshots of a {@code SmaxDocument}.
+   * A document may change an element in place only if it owns it.
+   */
+  private Object owner;
+
   /**
    * Constructor for a {@code SmaxElement} without namespace, and without attributes.
    * @param localName
@@ -66,7 +70,7 @@ public class SmaxElement {
    * @param qualifiedName
    */
   public SmaxElement(String namespaceUri, String qualifiedName) {
-    this(namespaceUri, qualifiedName.contains(":") ? qualifiedName.substring(qualifiedName.indexOf(':')+1) : qualifiedName, qualifiedName, null);
+    this(SmaxName.of(namespaceUri, qualifiedName), null);
   }
 
   /**
@@ -76,7 +80,7 @@ public class SmaxElement {
    * @param attributes
    */
   public SmaxElement(String namespaceUri, String qualifiedName, Attributes attributes) {
-    this(namespaceUri, qualifiedName.contains(":") ? qualifiedName.substring(qualifiedName.indexOf(':')+1) : qualifiedName, qualifiedName, attributes);
+    this(SmaxName.of(namespaceUri, qualifiedName), attributes);
   }
 
   /**
@@ -97,7 +101,16 @@ public class SmaxElement {
    * @param attributes
    */
   public SmaxElement(String namespaceUri, String localName, String qualifiedName, Attributes attributes) {
-    setName(namespaceUri, localName, qualifiedName);
+    this(SmaxName.of(namespaceUri, localName, qualifiedName), attributes);
+  }
+
+  /**
+   * Constructor for a {@code SmaxElement} with an interned name.
+   * @param name
+   * @param attributes
+   */
+  public SmaxElement(SmaxName name, Attributes attributes) {
+    this.name = name;
     setAttributes(attributes);
     startPos = 0;
     endPos = 0;
@@ -110,13 +123,46 @@ public class SmaxElement {
    * @return a copy of the {@code SmaxElement} that can be changed without affecting the original.
    */
   public SmaxElement shallowCopy() {
-    return new SmaxElement(namespaceUri, localName, qualifiedName, attributes);
+    return new SmaxElement(name, attributes);
+  }
+
+  /**
+   * Make a copy of this element for a new owner.
+   * The copy has the same parent and the same children, but the children do not get the copy as their parent.
+   * @param owner the owner of the copy
+   * @return the copy
+   */
+  SmaxElement copyForOwner(Object owner) {
+    SmaxElement copy = new SmaxElement(name, attributes);
+    copy.namespacePrefixMappings = namespacePrefixMappings;
+    copy.startPos = startPos;
+    copy.endPos = endPos;
+    copy.parentNode = parentNode;
+    copy.children = new ArrayList<>(children);
+    copy.owner = owner;
+    return copy;
+  }
+
+  Object getOwner() {
+    return owner;
+  }
+
+  void setOwner(Object owner) {
+    this.owner = owner;
   }
 
   /**
    * @return the start position
+   * @throws ArithmeticException if the position does not fit in an int, use {@code getLongStartPos} for very large documents
    */
   public int getStartPos() {
+    return Math.toIntExact(startPos);
+  }
+
+  /**
+   * @return the start position, which may be larger than 2^31-1 in very large documents
+   */
+  public long getLongStartPos() {
     return startPos;
   }
 
@@ -125,15 +171,23 @@ public class SmaxElement {
    * @param startPos the startPos to set
    * Warning: Using this method may corrupt the structure of the markup of a document.
    */
-  public SmaxElement setStartPos(int startPos) {
+  public SmaxElement setStartPos(long startPos) {
     this.startPos = startPos;
     return this;
   }
 
   /**
    * @return the endPos
+   * @throws ArithmeticException if the position does not fit in an int, use {@code getLongEndPos} for very large documents
    */
   public int getEndPos() {
+    return Math.toIntExact(endPos);
+  }
+
+  /**
+   * @return the end position, which may be larger than 2^31-1 in very large documents
+   */
+  public long getLongEndPos() {
     return endPos;
   }
 
@@ -142,7 +196,7 @@ public class SmaxElement {
    * @param endPos the endPos to set
    * Warning: Using this method may corrupt the structure of the markup of a document.
    */
-  public SmaxElement setEndPos(int endPos) {
+  public SmaxElement setEndPos(long endPos) {
     this.endPos = endPos;
     return this;
   }
@@ -151,14 +205,14 @@ public class SmaxElement {
    * @return the namespaceUri
    */
   public String getNamespaceUri() {
-    return namespaceUri;
+    return name.getNamespaceUri();
   }
 
   /**
    * @return the namespacePrefix
    */
   public String getNamespacePrefix() {
-    return namespacePrefix;
+    return name.getNamespacePrefix();
   }
 
   /**
@@ -166,21 +220,28 @@ public class SmaxElement {
    * @return whether the element has a namespace prefix.
    */
   public boolean hasNamespacePrefix() {
-    return namespacePrefix != null && namespacePrefix.length() > 0;
+    return name.getNamespacePrefix().length() > 0;
   }
 
   /**
    * @return the localName
    */
   public String getLocalName() {
-    return localName;
+    return name.getLocalName();
   }
 
   /**
    * @return the qualified name
    */
   public String getQualifiedName() {
-    return qualifiedName;
+    return name.getQualifiedName();
+  }
+
+  /**
+   * @return the interned name of the element
+   */
+  public SmaxName getName() {
+    return name;
   }
 
   /**
@@ -191,10 +252,16 @@ public class SmaxElement {
    * @return the {@code SmaxElement} itself
    */
   public SmaxElement setName(String namespaceUri, String localName, String qualifiedName) {
-    this.namespaceUri = namespaceUri != null ? namespaceUri : "";
-    namespacePrefix = qualifiedName.contains(":") ? qualifiedName.substring(0, qualifiedName.indexOf(':')) : "";
-    this.localName = localName;
-    this.qualifiedName = qualifiedName;
+    return setName(SmaxName.of(namespaceUri, localName, qualifiedName));
+  }
+
+  /**
+   * Set the name of the SmaxElement.
+   * @param name an interned name
+   * @return the {@code SmaxElement} itself
+   */
+  public SmaxElement setName(SmaxName name) {
+    this.name = name;
     return this;
   }
 
@@ -263,7 +330,7 @@ public class SmaxElement {
     if (namespacePrefixMappings != null) {
       return namespacePrefixMappings;
     } else {
-      return new NamespacePrefixMapping[0];
+      return NamespacePrefixMapping.NONE;
     }
   }
 
@@ -397,18 +464,21 @@ public class SmaxElement {
    */
   @Override
   public String toString() {
-    return String.format("<%s %d..%d>", qualifiedName, startPos, endPos);
+    return String.format("<%s %d..%d>", name.getQualifiedName(), startPos, endPos);
   }
 
   /**
    * Find out if this element matches a pattern-element.
    * @param pattern a {@code SmaxElement} without children (they will be ignored)
    * @return whether the name and attributes of this element match with those of the {@code pattern}.
+   * Names match if they have the same namespace URI and local name. Because names are interned, this is an identity test.
    */
   public boolean matches(SmaxElement pattern) {
+    if (name.getExpandedName() != pattern.name.getExpandedName()) {
+      return false;
+    }
     Attributes na = getAttributes();
-    return getNamespaceUri().equals(pattern.getNamespaceUri()) &&
-           getLocalName().equals(pattern.getLocalName()) &&
+    return pattern.getAttributes().getLength() == 0 ||
            Attribute.stream(pattern.getAttributes())
              .allMatch(pa -> pa.getValue().equals(na.getValue(pa.getURI(), pa.getLocalName())));
   }
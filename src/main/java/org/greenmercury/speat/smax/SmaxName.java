@@ -0,0 +1,147 @@
+package org.greenmercury.speat.smax;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The name of a {@code SmaxElement}, consisting of a namespace URI, a namespace prefix, a local name and a qualified name.
+ *<p>
+ * Names are interned in a global symbol table, so there is only one {@code SmaxName} instance for each combination
+ * of namespace URI, local name and qualified name.
+ * All elements with the same name share this instance, and names can be compared by identity ({@code ==}).
+ * The namespace prefix is computed only once, when the name is entered into the symbol table.
+ *<p>
+ * Two names with the same namespace URI and local name, but with different prefixes, are different instances.
+ * They have the same expanded name, which is also interned, so {@code a.getExpandedName() == b.getExpandedName()}
+ * tests if {@code a} and {@code b} denote the same element type.
+ *<p>
+ * The symbol table only grows. The number of different element names in a corpus is usually small,
+ * but be aware of this when processing documents with generated element names.
+ *<p>
+ * @author Rakensi
+ */
+public final class SmaxName {
+
+  /**
+   * The symbol table, mapping namespace URI to qualified name to {@code SmaxName}.
+   * The two levels avoid building a combined key for every lookup.
+   */
+  private static final ConcurrentMap<String, ConcurrentMap<String, SmaxName>> symbolTable = new ConcurrentHashMap<>();
+
+  private final String namespaceUri;
+  private final String namespacePrefix;
+  private final String localName;
+  private final String qualifiedName;
+
+  /**
+   * The interned name without prefix that has the same namespace URI and local name.
+   */
+  private final SmaxName expandedName;
+
+  private SmaxName(String namespaceUri, String localName, String qualifiedName, SmaxName expandedName) {
+    this.namespaceUri = namespaceUri;
+    int colon = qualifiedName.indexOf(':');
+    this.namespacePrefix = colon >= 0 ? qualifiedName.substring(0, colon) : "";
+    this.localName = localName;
+    this.qualifiedName = qualifiedName;
+    this.expandedName = expandedName != null ? expandedName : this;
+  }
+
+  /**
+   * Get the interned name for a namespace URI, local name and qualified name.
+   * @param namespaceUri the namespace URI, or {@code null} for no namespace
+   * @param localName the local name
+   * @param qualifiedName the qualified name, which may have a namespace prefix
+   * @return the unique {@code SmaxName} instance for this name
+   */
+  public static SmaxName of(String namespaceUri, String localName, String qualifiedName) {
+    if (namespaceUri == null) {
+      namespaceUri = "";
+    }
+    ConcurrentMap<String, SmaxName> names = symbolTable.get(namespaceUri);
+    if (names == null) {
+      names = symbolTable.computeIfAbsent(namespaceUri, uri -> new ConcurrentHashMap<>());
+    }
+    // The local name is nearly always the part of the qualified name after the prefix, so the qualified name is the key.
+    // SAX parsers that are not namespace-aware may report a different (empty) local name, which gets its own key.
+    boolean regular = localName.length() == qualifiedName.length() - qualifiedName.indexOf(':') - 1 && qualifiedName.endsWith(localName);
+    String key = regular ? qualifiedName : localName + ' ' + qualifiedName;
+    SmaxName name = names.get(key);
+    if (name == null) {
+      // The expanded name is the name without prefix. If that is this name, it refers to itself.
+      SmaxName expandedName = qualifiedName.equals(localName) ? null : of(namespaceUri, localName, localName);
+      String uri = namespaceUri;
+      name = names.computeIfAbsent(key, k -> new SmaxName(uri, localName, qualifiedName, expandedName));
+    }
+    return name;
+  }
+
+  /**
+   * Get the interned name for a namespace URI and a qualified name.
+   * The local name is the part of the qualified name after the namespace prefix.
+   * @param namespaceUri the namespace URI, or {@code null} for no namespace
+   * @param qualifiedName the qualified name, which may have a namespace prefix
+   * @return the unique {@code SmaxName} instance for this name
+   */
+  public static SmaxName of(String namespaceUri, String qualifiedName) {
+    return of(namespaceUri, qualifiedName.substring(qualifiedName.indexOf(':') + 1), qualifiedName);
+  }
+
+  /**
+   * @return the namespace URI, which is the empty string if there is no namespace
+   */
+  public String getNamespaceUri() {
+    return namespaceUri;
+  }
+
+  /**
+   * @return the namespace prefix, which is the empty string if there is no prefix
+   */
+  public String getNamespacePrefix() {
+    return namespacePrefix;
+  }
+
+  /**
+   * @return the local name
+   */
+  public String getLocalName() {
+    return localName;
+  }
+
+  /**
+   * @return the qualified name
+   */
+  public String getQualifiedName() {
+    return qualifiedName;
+  }
+
+  /**
+   * Get the name without namespace prefix, that has the same namespace URI and local name as this name.
+   * Names with the same expanded name denote the same element type, regardless of their prefixes.
+   * @return the interned expanded name
+   */
+  public SmaxName getExpandedName() {
+    return expandedName;
+  }
+
+  /**
+   * Get the name with the same namespace URI and local name as this name, and the given namespace prefix.
+   * @param prefix the new namespace prefix, or the empty string for no prefix
+   * @return the interned name with the given prefix
+   */
+  public SmaxName withPrefix(String prefix) {
+    if (prefix.equals(namespacePrefix)) {
+      return this;
+    }
+    return of(namespaceUri, localName, prefix.length() > 0 ? prefix+":"+localName : localName);
+  }
+
+  /**
+   * Use toString() for debugging, not for serializing.
+   */
+  @Override
+  public String toString() {
+    return namespaceUri.length() > 0 ? "{"+namespaceUri+"}"+qualifiedName : qualifiedName;
+  }
+
+}
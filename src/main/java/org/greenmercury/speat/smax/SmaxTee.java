@@ -0,0 +1,135 @@
+package org.greenmercury.speat.smax;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.greenmercury.speat.AbstractPipeline;
+import org.greenmercury.speat.ConfigurationException;
+import org.greenmercury.speat.PipelineException;
+
+/**
+ * A pipeline that sends each SMAX document to its handler, and also to a number of branches.
+ * Use {@code Pipeline.tee} to make one.
+ *<p>
+ * Each branch gets a snapshot of the document (see {@code SmaxDocument.snapshot()}), so that it can insert markup
+ * without changing what the handler and the other branches see, while the content buffer is shared and not copied.
+ * Because the content is shared, it can not be edited by the handler or the branches.
+ * The handler gets the original document. If the handler is {@code null}, the tee can be the last stage of a pipeline.
+ *<p>
+ * Without an executor, the branches process the document in order, after the handler.
+ * With an executor, the branches run on the executor while the handler runs in the calling thread,
+ * and {@code process} returns when all of them are done. Each target must then be used by only one branch.
+ * If a target fails, the first failure is thrown after all targets are done.
+ *<p>
+ * @author Rakensi
+ */
+public class SmaxTee extends AbstractPipeline<Smax, Smax> implements Smax {
+
+  private final Smax[] branches;
+  private Smax handler = null;
+  private Executor executor = null;
+
+  /**
+   * Constructor for a {@code SmaxTee}.
+   * @param branches the event APIs that receive the documents, next to the handler
+   */
+  public SmaxTee(Smax... branches) {
+    this.branches = branches.clone();
+  }
+
+  /**
+   * Run the branches in parallel, on an executor.
+   * @param executor the executor for the branches, or {@code null} to run them in the calling thread
+   * @return the {@code SmaxTee} itself
+   */
+  public SmaxTee setExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  @Override
+  public Smax getEventApi() {
+    return this;
+  }
+
+  @Override
+  public void setHandler(Smax handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public Smax getHandler() {
+    return handler;
+  }
+
+  /**
+   * Send a document to the handler and the branches.
+   * @see org.greenmercury.speat.smax.Smax#process(org.greenmercury.speat.smax.SmaxDocument)
+   */
+  @Override
+  public void process(SmaxDocument document) throws PipelineException, ConfigurationException, IOException {
+    // The snapshots are made before any target runs, because making a snapshot changes the ownership of the document.
+    SmaxDocument[] snapshots = new SmaxDocument[branches.length];
+    for (int i = 0; i < branches.length; ++i) {
+      snapshots[i] = document.snapshot();
+    }
+    if (executor == null) {
+      if (handler != null) {
+        handler.process(document);
+      }
+      for (int i = 0; i < branches.length; ++i) {
+        branches[i].process(snapshots[i]);
+      }
+      return;
+    }
+    List<FutureTask<Void>> tasks = new ArrayList<>(branches.length);
+    for (int i = 0; i < branches.length; ++i) {
+      Smax branch = branches[i];
+      SmaxDocument snapshot = snapshots[i];
+      FutureTask<Void> task = new FutureTask<>(() -> {
+        branch.process(snapshot);
+        return null;
+      });
+      tasks.add(task);
+      executor.execute(task);
+    }
+    Throwable failure = null;
+    if (handler != null) {
+      try {
+        handler.process(document);
+      } catch (PipelineException | ConfigurationException | IOException | RuntimeException | Error e) {
+        failure = e;
+      }
+    }
+    for (FutureTask<Void> task : tasks) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PipelineException("Interrupted while waiting for the branches of a tee.", e);
+      }
+    }
+    if (failure instanceof PipelineException) {
+      throw (PipelineException)failure;
+    } else if (failure instanceof ConfigurationException) {
+      throw (ConfigurationException)failure;
+    } else if (failure instanceof IOException) {
+      throw (IOException)failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException)failure;
+    } else if (failure instanceof Error) {
+      throw (Error)failure;
+    } else if (failure != null) {
+      throw new PipelineException(failure);
+    }
+  }
+
+}
@@ -0,0 +1,365 @@
+package org.greenmercury.speat.smax;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.NamespacePrefixMapping;
+import org.greenmercury.speat.io.output.OutputSource;
+import org.greenmercury.speat.io.output.OutputSourceWriter;
+import org.xml.sax.Attributes;
+
+/**
+ * Serializer that writes a SMAX document as XML to an OutputSource.
+ *<p>
+ * This does the same as a {@code SmaxToSaxAdapter} followed by a {@code SaxWriter}, but it writes directly from
+ * the markup tree and the content, without producing SAX events, and without Saxon.
+ * Characters are escaped using lookup tables, and the output is collected in a buffer and written in bulk.
+ * Namespace declarations are written as they are in the markup, and missing declarations for element and attribute
+ * prefixes are added, so the output is always namespace-well-formed.
+ *<p>
+ * The supported output properties are {@code OutputKeys.OMIT_XML_DECLARATION} and {@code OutputKeys.ENCODING}.
+ * If the output source has a writer, the encoding is only used in the XML declaration and to decide which
+ * characters must be written as character references. Otherwise, it is used to encode the output stream.
+ * The default encoding is UTF-8.
+ *<p>
+ * @author Rakensi
+ */
+public class SmaxWriter extends OutputSourceWriter<Smax> implements Smax {
+
+  private static final int BUFFER_SIZE = 1 << 13;
+
+  /**
+   * Replacements for ASCII characters in text and in attribute values. A {@code null} entry means no replacement.
+   */
+  private static final String[] TEXT_ESCAPES = new String[128];
+  private static final String[] ATTRIBUTE_ESCAPES = new String[128];
+  static {
+    TEXT_ESCAPES['&'] = "&amp;";
+    TEXT_ESCAPES['<'] = "&lt;";
+    TEXT_ESCAPES['>'] = "&gt;";
+    TEXT_ESCAPES['\r'] = "&#xD;";
+    ATTRIBUTE_ESCAPES['&'] = "&amp;";
+    ATTRIBUTE_ESCAPES['<'] = "&lt;";
+    ATTRIBUTE_ESCAPES['>'] = "&gt;";
+    ATTRIBUTE_ESCAPES['"'] = "&#34;";
+    ATTRIBUTE_ESCAPES['\t'] = "&#x9;";
+    ATTRIBUTE_ESCAPES['\n'] = "&#xA;";
+    ATTRIBUTE_ESCAPES['\r'] = "&#xD;";
+  }
+
+  private boolean omitXmlDeclaration = false;
+  private String encoding = null;
+
+  /* State while writing a document. */
+  private Writer writer;
+  private CharsetEncoder encoder;
+  private ContentBuffer content;
+  private long charPos;
+  private final char[] buffer = new char[BUFFER_SIZE];
+  private int bufferPos;
+  private final char[] characters = new char[BUFFER_SIZE];
+
+  /**
+   * The namespace bindings in scope. Bindings of an element are pushed when it starts, and popped when it ends.
+   */
+  private String[] nsPrefixes = new String[16];
+  private String[] nsUris = new String[16];
+  private int nsCount;
+
+  @Override
+  public Smax getEventApi() {
+    return this;
+  }
+
+  /**
+   * Set output properties used by the SmaxWriter, like {@code setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")}
+   * @param name {@code OutputKeys.OMIT_XML_DECLARATION} or {@code OutputKeys.ENCODING}
+   * @param value
+   * @return the {@code SmaxWriter} itself, for use in the builder pattern.
+   * @throws IllegalArgumentException if the property is not supported
+   * @see javax.xml.transform.OutputKeys
+   */
+  public SmaxWriter setOutputProperty(String name, String value) {
+    if (OutputKeys.OMIT_XML_DECLARATION.equals(name)) {
+      omitXmlDeclaration = "yes".equals(value.trim());
+    } else if (OutputKeys.ENCODING.equals(name)) {
+      encoding = value;
+    } else {
+      throw new IllegalArgumentException("The output property "+name+" is not supported by "+getClass().getSimpleName());
+    }
+    return this;
+  }
+
+  /**
+   * Write a SMAX document as XML.
+   * @param document
+   */
+  @Override
+  public void process(SmaxDocument document) throws IOException {
+    String outputEncoding = encoding != null ? encoding : outputSource.getEncoding() != null ? outputSource.getEncoding() : "UTF-8";
+    Charset charset = Charset.forName(outputEncoding);
+    encoder = charset.name().startsWith("UTF-") ? null : charset.newEncoder();
+    writer = outputSource.hasWriter() ? outputSource.getWriter() : new OutputStreamWriter(outputSource.getOutputStream(), charset);
+    content = document.getUnderlyingContent();
+    SmaxElement root = document.getMarkup();
+    charPos = root.getLongStartPos();
+    bufferPos = 0;
+    nsCount = 0;
+    try {
+      if (!omitXmlDeclaration) {
+        write("<?xml version=\"1.0\" encoding=\"");
+        write(outputEncoding);
+        write("\"?>");
+      }
+      writeTree(root);
+      flushBuffer();
+      writer.flush();
+    } finally {
+      writer = null;
+      encoder = null;
+      content = null;
+    }
+  }
+
+  /**
+   * Write an element and its descendants, using an explicit stack like {@code SmaxToSaxAdapter}.
+   */
+  private void writeTree(SmaxElement root) throws IOException {
+    Deque<SmaxElement> elements = new ArrayDeque<>();
+    int[] nextChild = new int[16];
+    int[] nsMarks = new int[16];
+    nsMarks[0] = nsCount;
+    startElement(root);
+    elements.push(root);
+    while (!elements.isEmpty()) {
+      SmaxElement markup = elements.peek();
+      int depth = elements.size() - 1;
+      List<SmaxElement> children = markup.getChildren();
+      if (nextChild[depth] < children.size()) {
+        SmaxElement child = children.get(nextChild[depth]++);
+        if (depth + 1 == nextChild.length) {
+          nextChild = Arrays.copyOf(nextChild, 2 * nextChild.length);
+          nsMarks = Arrays.copyOf(nsMarks, 2 * nsMarks.length);
+        }
+        nextChild[depth + 1] = 0;
+        nsMarks[depth + 1] = nsCount;
+        startElement(child);
+        elements.push(child);
+      } else {
+        endElement(markup);
+        nsCount = nsMarks[depth];
+        elements.pop();
+      }
+    }
+  }
+
+  /**
+   * Write the text before an element, and its start tag.
+   * An element without children and text is written as an empty element tag, which is closed by {@code endElement}.
+   */
+  private void startElement(SmaxElement markup) throws IOException {
+    long startPos = markup.getLongStartPos();
+    if (startPos > charPos) {
+      writeText(charPos, startPos);
+      charPos = startPos;
+    }
+    String qName = markup.getQualifiedName();
+    write('<');
+    write(qName);
+    for (NamespacePrefixMapping nspMapping : markup.getNamespacePrefixMappings()) {
+      declareNamespace(nspMapping.prefix, nspMapping.uri);
+    }
+    String namespaceUri = markup.getNamespaceUri() == null ? "" : markup.getNamespaceUri();
+    String prefix = prefixOf(qName);
+    if (!namespaceUri.equals(lookupNamespaceUri(prefix))) {
+      declareNamespace(prefix, namespaceUri);
+    }
+    Attributes attributes = markup.getAttributes();
+    for (int i = 0; i < attributes.getLength(); ++i) {
+      String attributeQName = attributes.getQName(i);
+      String attributeUri = attributes.getURI(i);
+      if (attributeUri != null && !attributeUri.isEmpty()) {
+        String attributePrefix = prefixOf(attributeQName);
+        if (!attributePrefix.isEmpty() && !attributeUri.equals(lookupNamespaceUri(attributePrefix))) {
+          declareNamespace(attributePrefix, attributeUri);
+        }
+      }
+      write(' ');
+      write(attributeQName);
+      write("=\"");
+      writeEscaped(attributes.getValue(i), ATTRIBUTE_ESCAPES);
+      write('"');
+    }
+    if (markup.getChildren().isEmpty() && markup.getLongEndPos() == startPos) {
+      write("/>");
+    } else {
+      write('>');
+    }
+  }
+
+  /**
+   * Write the remaining text in an element, and its end tag.
+   */
+  private void endElement(SmaxElement markup) throws IOException {
+    long endPos = markup.getLongEndPos();
+    if (markup.getChildren().isEmpty() && endPos == markup.getLongStartPos()) {
+      return; // Written as an empty element tag.
+    }
+    if (endPos > charPos) {
+      writeText(charPos, endPos);
+      charPos = endPos;
+    }
+    write("</");
+    write(markup.getQualifiedName());
+    write('>');
+  }
+
+  private static String prefixOf(String qName) {
+    int colon = qName.indexOf(':');
+    return colon < 0 ? "" : qName.substring(0, colon);
+  }
+
+  /**
+   * @return the namespace URI bound to a prefix, or {@code ""} for the default namespace and unbound prefixes.
+   */
+  private String lookupNamespaceUri(String prefix) {
+    for (int i = nsCount - 1; i >= 0; --i) {
+      if (nsPrefixes[i].equals(prefix)) {
+        return nsUris[i];
+      }
+    }
+    return "xml".equals(prefix) ? "http://www.w3.org/XML/1998/namespace" : "";
+  }
+
+  /**
+   * Write a namespace declaration within a start tag, unless the same binding is already in scope.
+   */
+  private void declareNamespace(String prefix, String uri) throws IOException {
+    if (prefix == null) prefix = "";
+    if (uri == null) uri = "";
+    if (uri.equals(lookupNamespaceUri(prefix)) || "xml".equals(prefix)) {
+      return;
+    }
+    if (nsCount == nsPrefixes.length) {
+      nsPrefixes = Arrays.copyOf(nsPrefixes, 2 * nsCount);
+      nsUris = Arrays.copyOf(nsUris, 2 * nsCount);
+    }
+    nsPrefixes[nsCount] = prefix;
+    nsUris[nsCount] = uri;
+    ++nsCount;
+    write(prefix.isEmpty() ? " xmlns=\"" : " xmlns:");
+    if (!prefix.isEmpty()) {
+      write(prefix);
+      write("=\"");
+    }
+    writeEscaped(uri, ATTRIBUTE_ESCAPES);
+    write('"');
+  }
+
+  /**
+   * Write escaped text from the content, in chunks that are copied into a re-used buffer.
+   * A high surrogate at the end of a chunk is carried over into the next chunk, so that a surrogate pair is never split.
+   */
+  private void writeText(long start, long end) throws IOException {
+    while (start < end) {
+      int n = (int)Math.min(end - start, characters.length);
+      content.getChars(start, start + n, characters, 0);
+      if (n > 1 && start + n < end && Character.isHighSurrogate(characters[n - 1])) {
+        --n;
+      }
+      writeEscaped(characters, 0, n, TEXT_ESCAPES);
+      start += n;
+    }
+  }
+
+  private void writeEscaped(String text, String[] escapes) throws IOException {
+    for (int i = 0; i < text.length(); ++i) {
+      char c = text.charAt(i);
+      if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+        writeSurrogatePair(c, text.charAt(++i));
+      } else {
+        writeEscaped(c, escapes);
+      }
+    }
+  }
+
+  private void writeEscaped(char[] text, int offset, int length, String[] escapes) throws IOException {
+    int end = offset + length;
+    for (int i = offset; i < end; ++i) {
+      char c = text[i];
+      if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text[i + 1])) {
+        writeSurrogatePair(c, text[++i]);
+      } else {
+        writeEscaped(c, escapes);
+      }
+    }
+  }
+
+  /**
+   * Write a character outside the basic multilingual plane, as a character reference if it can not be encoded.
+   */
+  private void writeSurrogatePair(char high, char low) throws IOException {
+    if (encoder == null || encoder.canEncode(new String(new char[] {high, low}))) {
+      write(high);
+      write(low);
+    } else {
+      writeCharacterReference(Character.toCodePoint(high, low));
+    }
+  }
+
+  private void writeCharacterReference(int codePoint) throws IOException {
+    write("&#x");
+    write(Integer.toHexString(codePoint).toUpperCase());
+    write(';');
+  }
+
+  private void writeEscaped(char c, String[] escapes) throws IOException {
+    if (c < 128) {
+      String escape = escapes[c];
+      if (escape == null) {
+        write(c);
+      } else {
+        write(escape);
+      }
+    } else if (encoder == null || encoder.canEncode(c) || Character.isSurrogate(c)) {
+      write(c);
+    } else {
+      writeCharacterReference(c);
+    }
+  }
+
+  private void write(char c) throws IOException {
+    if (bufferPos == buffer.length) {
+      flushBuffer();
+    }
+    buffer[bufferPos++] = c;
+  }
+
+  private void write(String s) throws IOException {
+    int length = s.length();
+    if (length > buffer.length - bufferPos) {
+      flushBuffer();
+      if (length > buffer.length) {
+        writer.write(s);
+        return;
+      }
+    }
+    s.getChars(0, length, buffer, bufferPos);
+    bufferPos += length;
+  }
+
+  private void flushBuffer() throws IOException {
+    writer.write(buffer, 0, bufferPos);
+    bufferPos = 0;
+  }
+
+}
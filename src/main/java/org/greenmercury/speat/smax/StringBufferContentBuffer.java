@@ -0,0 +1,106 @@
+package org.greenmercury.speat.smax;
+
+/**
+ * A {@code ContentBuffer} that wraps a {@code StringBuffer}.
+ * This is thread-safe, because every method of {@code StringBuffer} is synchronized.
+ *<p>
+ * @author Rakensi
+ */
+public class StringBufferContentBuffer implements ContentBuffer {
+
+  private final StringBuffer buffer;
+
+  /**
+   * Constructor for a {@code ContentBuffer} on a {@code StringBuffer}.
+   * @param buffer the wrapped {@code StringBuffer}
+   */
+  public StringBufferContentBuffer(StringBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Constructor for an empty {@code StringBufferContentBuffer}.
+   */
+  public StringBufferContentBuffer() {
+    this(new StringBuffer());
+  }
+
+  /**
+   * @return the wrapped {@code StringBuffer}
+   */
+  public StringBuffer getStringBuffer() {
+    return buffer;
+  }
+
+  @Override
+  public int length() {
+    return buffer.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return buffer.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return buffer.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return buffer.toString();
+  }
+
+  @Override
+  public void ensureCapacity(long minimumCapacity) {
+    // Arrays can not be larger than about Integer.MAX_VALUE.
+    buffer.ensureCapacity((int)Math.min(minimumCapacity, Integer.MAX_VALUE - 8));
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    buffer.getChars(srcBegin, srcEnd, dst, dstBegin);
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    buffer.setCharAt(index, ch);
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+    buffer.insert(offset, csq, start, end);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, char c) {
+    buffer.insert(offset, c);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer append(char[] str, int offset, int len) {
+    buffer.append(str, offset, len);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer delete(int start, int end) {
+    buffer.delete(start, end);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer replace(int start, int end, CharSequence csq) {
+    buffer.replace(start, end, csq.toString());
+    return this;
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return buffer.substring(start, end);
+  }
+
+}
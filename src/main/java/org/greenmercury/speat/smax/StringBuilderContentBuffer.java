@@ -0,0 +1,108 @@
+package org.greenmercury.speat.smax;
+
+/**
+ * A {@code ContentBuffer} that wraps a {@code StringBuilder}.
+ * This is not thread-safe, so reading characters does not need to acquire a monitor.
+ * A {@code StringBuilderContentBuffer} can be passed from one thread to another, as long as it is used by one thread at a time.
+ * This is the case in a pipeline, where a stage hands off a document to the next stage, and does not use it afterwards.
+ *<p>
+ * @author Rakensi
+ */
+public class StringBuilderContentBuffer implements ContentBuffer {
+
+  private final StringBuilder buffer;
+
+  /**
+   * Constructor for a {@code ContentBuffer} on a {@code StringBuilder}.
+   * @param buffer the wrapped {@code StringBuilder}
+   */
+  public StringBuilderContentBuffer(StringBuilder buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Constructor for an empty {@code StringBuilderContentBuffer}.
+   */
+  public StringBuilderContentBuffer() {
+    this(new StringBuilder());
+  }
+
+  /**
+   * @return the wrapped {@code StringBuilder}
+   */
+  public StringBuilder getStringBuilder() {
+    return buffer;
+  }
+
+  @Override
+  public int length() {
+    return buffer.length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    return buffer.charAt(index);
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return buffer.subSequence(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return buffer.toString();
+  }
+
+  @Override
+  public void ensureCapacity(long minimumCapacity) {
+    // Arrays can not be larger than about Integer.MAX_VALUE.
+    buffer.ensureCapacity((int)Math.min(minimumCapacity, Integer.MAX_VALUE - 8));
+  }
+
+  @Override
+  public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+    buffer.getChars(srcBegin, srcEnd, dst, dstBegin);
+  }
+
+  @Override
+  public void setCharAt(int index, char ch) {
+    buffer.setCharAt(index, ch);
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+    buffer.insert(offset, csq, start, end);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer insert(int offset, char c) {
+    buffer.insert(offset, c);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer append(char[] str, int offset, int len) {
+    buffer.append(str, offset, len);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer delete(int start, int end) {
+    buffer.delete(start, end);
+    return this;
+  }
+
+  @Override
+  public ContentBuffer replace(int start, int end, CharSequence csq) {
+    buffer.replace(start, end, csq.toString());
+    return this;
+  }
+
+  @Override
+  public String substring(int start, int end) {
+    return buffer.substring(start, end);
+  }
+
+}
@@ -0,0 +1,34 @@
+package org.greenmercury.speat.smax.cache;
+
+import java.io.IOException;
+
+/**
+ * A store for cached results, which are byte arrays identified by a key.
+ * A store may forget entries at any time, for example to stay within a size limit.
+ * Implementations must be thread-safe.
+ *<p>
+ * @author Rakensi
+ */
+public interface CacheStore {
+
+  /**
+   * Get a stored value.
+   * @param key the key, which consists of characters that can be used in a file name
+   * @return the value, or {@code null} if it is not in the store
+   */
+  public byte[] get(String key) throws IOException;
+
+  /**
+   * Store a value, replacing any value with the same key.
+   * @param key the key, which consists of characters that can be used in a file name
+   * @param value the value
+   */
+  public void put(String key, byte[] value) throws IOException;
+
+  /**
+   * Remove a value, for example when it turns out to be invalid.
+   * @param key the key
+   */
+  public void remove(String key) throws IOException;
+
+}
@@ -0,0 +1,246 @@
+package org.greenmercury.speat.smax.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.greenmercury.speat.AbstractPipeline;
+import org.greenmercury.speat.ConfigurationException;
+import org.greenmercury.speat.Pipeline;
+import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.metrics.PipelineMetrics;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.slf4j.Logger;
+
+/**
+ * A pipeline stage that caches the results of a SMAX-to-SMAX pipeline, so that unchanged documents are not transformed again.
+ *<p>
+ * The cache key is a SHA-256 hash of the incoming document, including its content and markup,
+ * and a fingerprint of the configuration of the cached pipeline.
+ * The fingerprint consists of strings that are added with {@code addFingerprint}, and the URL and last-modified time
+ * of the input sources that are added with {@code addDependency}, like the grammar of a {@code NamedEntityRecognizer}.
+ * The last-modified times are read for every document, so a changed grammar makes new keys.
+ *<p>
+ * On a hit, the stored result is decoded and passed on, and the cached pipeline is skipped.
+ * On a miss, the document is processed by the cached pipeline, and its result is stored and passed on.
+ * Results are only stored when the cached pipeline produces exactly one document, synchronously.
+ * If the store fails, this is logged, and the document is processed without the cache.
+ *<p>
+ * Like the stages it wraps, a {@code CachingSmaxPipeline} processes one document at a time.
+ *<p>
+ * @author Rakensi
+ */
+public class CachingSmaxPipeline extends AbstractPipeline<Smax, Smax> implements Smax {
+
+  private static final String KEY_VERSION = "speat-smax-cache-1";
+
+  /** The counter for documents whose result was found in the cache. */
+  public static final String HITS = "hits";
+  /** The counter for documents that were processed by the cached pipeline. */
+  public static final String MISSES = "misses";
+
+  private final Pipeline<Smax, Smax> cached;
+  private final CacheStore store;
+  private final List<String> fingerprints = new ArrayList<>();
+  private final List<InputSource> dependencies = new ArrayList<>();
+  private Smax handler;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * The results of the cached pipeline for the current document.
+   */
+  private final List<byte[]> results = new ArrayList<>();
+  private boolean capturing = false;
+
+  /**
+   * Constructor for a {@code CachingSmaxPipeline}.
+   * @param cached the pipeline whose results are cached
+   * @param store the store for the results
+   */
+  public CachingSmaxPipeline(Pipeline<Smax, Smax> cached, CacheStore store) throws ConfigurationException, PipelineException {
+    this.cached = cached;
+    this.store = store;
+    cached.setHandler(this::capture);
+  }
+
+  /**
+   * Add a string to the fingerprint of the cached pipeline, for example a configuration setting.
+   * @param fingerprint a string that changes when the results of the cached pipeline change
+   * @return the {@code CachingSmaxPipeline} itself
+   */
+  public CachingSmaxPipeline addFingerprint(String fingerprint) {
+    fingerprints.add(fingerprint);
+    return this;
+  }
+
+  /**
+   * Add an input source that the cached pipeline depends on, like a grammar.
+   * Its URL and last-modified time are part of the fingerprint.
+   * @param dependency the input source
+   * @return the {@code CachingSmaxPipeline} itself
+   */
+  public CachingSmaxPipeline addDependency(InputSource dependency) {
+    dependencies.add(dependency);
+    return this;
+  }
+
+  @Override
+  public Smax getEventApi() {
+    return this;
+  }
+
+  @Override
+  public void setHandler(Smax handler) {
+    this.handler = handler;
+  }
+
+  @Override
+  public Smax getHandler() {
+    return handler;
+  }
+
+  @Override
+  public Pipeline<Smax, Smax> setLogger(Logger logger) {
+    cached.setLogger(logger);
+    return super.setLogger(logger);
+  }
+
+  @Override
+  public Pipeline<Smax, Smax> setMetrics(PipelineMetrics metrics) {
+    cached.setMetrics(metrics);
+    return super.setMetrics(metrics);
+  }
+
+  /**
+   * @return the number of documents for which a result was found in the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of documents that were processed by the cached pipeline
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public void process(SmaxDocument document) throws PipelineException, ConfigurationException, IOException {
+    String key = key(document);
+    byte[] stored = null;
+    try {
+      stored = store.get(key);
+    } catch (IOException e) {
+      getLogger().warn("Cannot read "+key+" from the cache.", e);
+    }
+    if (stored != null) {
+      SmaxDocument result = null;
+      try {
+        result = SmaxDocumentCodec.decode(stored);
+      } catch (IOException e) {
+        getLogger().warn("Invalid cache entry "+key+" is removed.", e);
+        removeQuietly(key);
+      }
+      if (result != null) {
+        hits.incrementAndGet();
+        getMetrics().count(getMetricsName(), HITS, 1);
+        handler.process(result);
+        return;
+      }
+    }
+    misses.incrementAndGet();
+    getMetrics().count(getMetricsName(), MISSES, 1);
+    results.clear();
+    capturing = true;
+    try {
+      cached.getEventApi().process(document);
+    } finally {
+      capturing = false;
+    }
+    if (results.size() == 1) {
+      try {
+        store.put(key, results.get(0));
+      } catch (IOException e) {
+        getLogger().warn("Cannot write "+key+" to the cache.", e);
+      }
+    }
+    results.clear();
+  }
+
+  /**
+   * Receive a result of the cached pipeline, encode it before it can be changed downstream, and pass it on.
+   */
+  private void capture(SmaxDocument result) throws PipelineException, ConfigurationException, IOException {
+    if (capturing) {
+      results.add(SmaxDocumentCodec.encode(result));
+    }
+    handler.process(result);
+  }
+
+  private void removeQuietly(String key) {
+    try {
+      store.remove(key);
+    } catch (IOException e) {
+      getLogger().warn("Cannot remove "+key+" from the cache.", e);
+    }
+  }
+
+  /**
+   * Compute the cache key for a document: a hexadecimal SHA-256 hash of the fingerprint and the encoded document.
+   */
+  private String key(SmaxDocument document) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform must support SHA-256.
+      throw new IllegalStateException(e);
+    }
+    digest.update(KEY_VERSION.getBytes(StandardCharsets.UTF_8));
+    for (String fingerprint : fingerprints) {
+      updateString(digest, fingerprint);
+    }
+    for (InputSource dependency : dependencies) {
+      updateString(digest, String.valueOf(dependency.getUrl()));
+      updateString(digest, Long.toString(dependency.getLastModified()));
+    }
+    OutputStream discard = new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+      @Override
+      public void write(byte[] b, int off, int len) {
+      }
+    };
+    SmaxDocumentCodec.write(document, new DigestOutputStream(discard, digest));
+    StringBuilder key = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Add a string with its length, so that different lists of strings give different hashes.
+   */
+  private static void updateString(MessageDigest digest, String string) {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    digest.update((byte)(bytes.length >>> 24));
+    digest.update((byte)(bytes.length >>> 16));
+    digest.update((byte)(bytes.length >>> 8));
+    digest.update((byte)bytes.length);
+    digest.update(bytes);
+  }
+
+}
@@ -0,0 +1,180 @@
+package org.greenmercury.speat.smax.cache;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@code CacheStore} in a directory, with one file per entry, that is limited to a maximum total size.
+ * When the limit is exceeded, the least recently used entries are deleted.
+ *<p>
+ * The order of use is kept in memory, and in the last-modified time of the files, which is updated when an entry is read.
+ * That way, the order survives a restart. Entries are written to a temporary file first, and then moved into place,
+ * so that a crash never leaves a partial entry.
+ *<p>
+ * One directory must be used by one {@code DiskLruCacheStore} at a time.
+ *<p>
+ * @author Rakensi
+ */
+public class DiskLruCacheStore implements CacheStore {
+
+  private static final String SUFFIX = ".smaxc";
+
+  private final Path directory;
+  private final long maxBytes;
+
+  /**
+   * The size of each entry, in order of use, least recently used first.
+   */
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long totalBytes = 0L;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  /**
+   * Open a store in a directory, which is created if it does not exist.
+   * Existing entries are kept, in the order of their last-modified time, up to the maximum size.
+   * @param directory the directory
+   * @param maxBytes the maximum total size of the entries
+   */
+  public DiskLruCacheStore(Path directory, long maxBytes) throws IOException {
+    if (maxBytes <= 0) {
+      throw new IllegalArgumentException("maxBytes must be positive, not "+maxBytes);
+    }
+    this.directory = Files.createDirectories(directory);
+    this.maxBytes = maxBytes;
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(SUFFIX)) {
+          files.add(file);
+        } else if (name.endsWith(".tmp")) {
+          // Left over from an interrupted put.
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+    Map<Path, Long> lastModified = new LinkedHashMap<>();
+    for (Path file : files) {
+      lastModified.put(file, Files.getLastModifiedTime(file).toMillis());
+    }
+    files.sort((a, b) -> Long.compare(lastModified.get(a), lastModified.get(b)));
+    for (Path file : files) {
+      String name = file.getFileName().toString();
+      long size = Files.size(file);
+      entries.put(name.substring(0, name.length() - SUFFIX.length()), size);
+      totalBytes += size;
+    }
+    evict();
+  }
+
+  private Path file(String key) {
+    return directory.resolve(key + SUFFIX);
+  }
+
+  @Override
+  public byte[] get(String key) throws IOException {
+    lock.lock();
+    try {
+      if (entries.get(key) == null) {
+        return null;
+      }
+    } finally {
+      lock.unlock();
+    }
+    Path file = file(key);
+    try {
+      byte[] value = Files.readAllBytes(file);
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return value;
+    } catch (NoSuchFileException e) {
+      // The entry has been evicted since it was looked up.
+      return null;
+    }
+  }
+
+  @Override
+  public void put(String key, byte[] value) throws IOException {
+    if (value.length > maxBytes) {
+      return;
+    }
+    Path temporary = Files.createTempFile(directory, key, ".tmp");
+    try {
+      Files.write(temporary, value);
+      lock.lock();
+      try {
+        Files.move(temporary, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Long previous = entries.put(key, (long)value.length);
+        totalBytes += value.length - (previous == null ? 0L : previous);
+        evict();
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  @Override
+  public void remove(String key) throws IOException {
+    lock.lock();
+    try {
+      Long size = entries.remove(key);
+      if (size != null) {
+        totalBytes -= size;
+        Files.deleteIfExists(file(key));
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Delete the least recently used entries until the total size is within the limit.
+   * The lock must be held, except in the constructor.
+   */
+  private void evict() throws IOException {
+    Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      Map.Entry<String, Long> entry = eldest.next();
+      Files.deleteIfExists(file(entry.getKey()));
+      totalBytes -= entry.getValue();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * @return the number of entries
+   */
+  public int getEntryCount() {
+    lock.lock();
+    try {
+      return entries.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the total size of the entries, in bytes
+   */
+  public long getTotalBytes() {
+    lock.lock();
+    try {
+      return totalBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
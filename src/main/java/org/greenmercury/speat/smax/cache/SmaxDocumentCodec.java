@@ -0,0 +1,292 @@
+package org.greenmercury.speat.smax.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.greenmercury.speat.NamespacePrefixMapping;
+import org.greenmercury.speat.smax.ContentBuffer;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxName;
+import org.greenmercury.speat.smax.StringBufferContentBuffer;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A compact binary encoding of a {@code SmaxDocument}, used to store documents in a cache, and to compute cache keys.
+ *<p>
+ * The encoding has a header, the content as UTF-16 characters, and the markup in document order.
+ * Each element has its name, attributes, namespace declarations, positions relative to the root, and number of children.
+ * Strings are written once, and then referred to by their index in a string table, because names repeat a lot.
+ * The markup is written and read without recursion, so deeply nested documents can be encoded.
+ *<p>
+ * Equal documents have equal encodings, so a hash of the encoding identifies a document.
+ * An encoding that is read may be corrupt, so its counts and lengths are not trusted to allocate memory,
+ * and any inconsistency is reported as an {@code IOException}.
+ *<p>
+ * @author Rakensi
+ */
+public final class SmaxDocumentCodec {
+
+  private static final int MAGIC = 0x534d4158; // "SMAX"
+  private static final int VERSION = 1;
+
+  private static final int CHUNK_SIZE = 4096;
+
+  /**
+   * String table index for {@code null}.
+   */
+  private static final int NULL_STRING = -1;
+
+  private SmaxDocumentCodec() {
+  }
+
+  /**
+   * Encode a document into a byte array.
+   * @param document the document
+   * @return the encoding
+   */
+  public static byte[] encode(SmaxDocument document) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      write(document, bytes);
+    } catch (IOException e) {
+      // A ByteArrayOutputStream does not throw IOExceptions.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decode a document from a byte array.
+   * @param encoding the encoding, made by {@code encode}
+   * @return a new document, with its own content buffer
+   * @throws IOException if the encoding is not valid
+   */
+  public static SmaxDocument decode(byte[] encoding) throws IOException {
+    return read(new ByteArrayInputStream(encoding));
+  }
+
+  /**
+   * Write the encoding of a document to an output stream.
+   * Pending content edits are applied first.
+   * @param document the document
+   * @param output the output stream, which is not closed
+   */
+  public static void write(SmaxDocument document, OutputStream output) throws IOException {
+    document.applyContentEdits();
+    DataOutputStream out = new DataOutputStream(output);
+    SmaxElement root = document.getMarkup();
+    long offset = root.getLongStartPos();
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeContent(document.getUnderlyingContent(), offset, root.getLongEndPos(), out);
+    Map<String, Integer> strings = new HashMap<>();
+    Deque<SmaxElement> todo = new ArrayDeque<>();
+    todo.push(root);
+    while (!todo.isEmpty()) {
+      SmaxElement element = todo.pop();
+      writeString(element.getNamespaceUri(), strings, out);
+      writeString(element.getLocalName(), strings, out);
+      writeString(element.getQualifiedName(), strings, out);
+      Attributes attributes = element.getAttributes();
+      int attributeCount = attributes == null ? 0 : attributes.getLength();
+      out.writeInt(attributeCount);
+      for (int i = 0; i < attributeCount; ++i) {
+        writeString(attributes.getURI(i), strings, out);
+        writeString(attributes.getLocalName(i), strings, out);
+        writeString(attributes.getQName(i), strings, out);
+        writeString(attributes.getType(i), strings, out);
+        writeString(attributes.getValue(i), strings, out);
+      }
+      NamespacePrefixMapping[] mappings = element.getNamespacePrefixMappings();
+      out.writeInt(mappings.length);
+      for (NamespacePrefixMapping mapping : mappings) {
+        writeString(mapping.prefix, strings, out);
+        writeString(mapping.uri, strings, out);
+      }
+      out.writeLong(element.getLongStartPos() - offset);
+      out.writeLong(element.getLongEndPos() - offset);
+      List<SmaxElement> children = element.getChildren();
+      out.writeInt(children.size());
+      // Push the children in reverse order, so that they are written in document order.
+      for (int i = children.size() - 1; i >= 0; --i) {
+        todo.push(children.get(i));
+      }
+    }
+    out.flush();
+  }
+
+  /**
+   * Read a document from an input stream.
+   * @param input the input stream, positioned at the start of an encoding made by {@code write}
+   * @return a new document, with its own content buffer
+   * @throws IOException if the encoding is not valid, or can not be read
+   */
+  public static SmaxDocument read(InputStream input) throws IOException {
+    try {
+      return readDocument(new DataInputStream(input));
+    } catch (RuntimeException e) {
+      // Inconsistent markup, like a missing name or invalid positions.
+      throw new IOException("Invalid encoded SMAX document.", e);
+    }
+  }
+
+  private static SmaxDocument readDocument(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC) {
+      throw new IOException("This is not an encoded SMAX document.");
+    }
+    int version = in.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported version "+version+" of the SMAX document encoding.");
+    }
+    ContentBuffer content = readContent(in);
+    List<String> strings = new ArrayList<>();
+    // Elements that still need children, with the number of children they still need.
+    Deque<SmaxElement> parents = new ArrayDeque<>();
+    Deque<int[]> remaining = new ArrayDeque<>();
+    SmaxElement root = null;
+    do {
+      String namespaceUri = readString(strings, in);
+      String localName = readString(strings, in);
+      String qualifiedName = readString(strings, in);
+      int attributeCount = in.readInt();
+      AttributesImpl attributes = new AttributesImpl();
+      for (int i = 0; i < attributeCount; ++i) {
+        attributes.addAttribute(readString(strings, in), readString(strings, in), readString(strings, in),
+            readString(strings, in), readString(strings, in));
+      }
+      SmaxElement element = new SmaxElement(SmaxName.of(namespaceUri, localName, qualifiedName), attributes);
+      int mappingCount = in.readInt();
+      if (mappingCount > 0) {
+        List<NamespacePrefixMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < mappingCount; ++i) {
+          mappings.add(new NamespacePrefixMapping(readString(strings, in), readString(strings, in)));
+        }
+        element.setNamespacePrefixMappings(mappings.toArray(new NamespacePrefixMapping[mappings.size()]));
+      }
+      element.setStartPos(in.readLong()).setEndPos(in.readLong());
+      int childCount = in.readInt();
+      if (root == null) {
+        root = element;
+      } else {
+        parents.peek().appendChild(element);
+        if (--remaining.peek()[0] == 0) {
+          parents.pop();
+          remaining.pop();
+        }
+      }
+      if (childCount > 0) {
+        parents.push(element);
+        remaining.push(new int[] {childCount});
+      }
+    } while (!parents.isEmpty());
+    return new SmaxDocument(root, content);
+  }
+
+  private static void writeContent(ContentBuffer content, long start, long end, DataOutputStream out) throws IOException {
+    out.writeLong(end - start);
+    char[] chars = new char[CHUNK_SIZE];
+    byte[] bytes = new byte[2 * CHUNK_SIZE];
+    for (long position = start; position < end; position += CHUNK_SIZE) {
+      int length = (int)Math.min(CHUNK_SIZE, end - position);
+      content.getChars(position, position + length, chars, 0);
+      for (int i = 0; i < length; ++i) {
+        bytes[2 * i] = (byte)(chars[i] >>> 8);
+        bytes[2 * i + 1] = (byte)chars[i];
+      }
+      out.write(bytes, 0, 2 * length);
+    }
+  }
+
+  private static ContentBuffer readContent(DataInputStream in) throws IOException {
+    long length = in.readLong();
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid content length "+length+" in an encoded SMAX document.");
+    }
+    // The buffer grows as the chunks are read, and readFully fails if the content is shorter than its length.
+    ContentBuffer content = new StringBufferContentBuffer();
+    char[] chars = new char[CHUNK_SIZE];
+    byte[] bytes = new byte[2 * CHUNK_SIZE];
+    for (long done = 0; done < length; done += CHUNK_SIZE) {
+      int chunk = (int)Math.min(CHUNK_SIZE, length - done);
+      in.readFully(bytes, 0, 2 * chunk);
+      for (int i = 0; i < chunk; ++i) {
+        chars[i] = (char)(((bytes[2 * i] & 0xFF) << 8) | (bytes[2 * i + 1] & 0xFF));
+      }
+      content.append(chars, 0, chunk);
+    }
+    return content;
+  }
+
+  private static void writeString(String string, Map<String, Integer> strings, DataOutputStream out) throws IOException {
+    if (string == null) {
+      out.writeInt(NULL_STRING);
+      return;
+    }
+    Integer index = strings.get(string);
+    if (index != null) {
+      out.writeInt(index);
+    } else {
+      // A new string gets the next index, and is written after it.
+      out.writeInt(strings.size());
+      strings.put(string, strings.size());
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private static String readString(List<String> strings, DataInputStream in) throws IOException {
+    int index = in.readInt();
+    if (index == NULL_STRING) {
+      return null;
+    } else if (index < 0) {
+      throw new IOException("Invalid string index "+index+" in an encoded SMAX document.");
+    } else if (index < strings.size()) {
+      return strings.get(index);
+    } else if (index == strings.size()) {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("Invalid string length "+length+" in an encoded SMAX document.");
+      }
+      String string = new String(readBytes(length, in), StandardCharsets.UTF_8);
+      strings.add(string);
+      return string;
+    } else {
+      throw new IOException("Invalid string index "+index+" in an encoded SMAX document.");
+    }
+  }
+
+  /**
+   * Read bytes in chunks, so that a corrupt length does not allocate more memory than the input has.
+   */
+  private static byte[] readBytes(int length, DataInputStream in) throws IOException {
+    if (length <= CHUNK_SIZE) {
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return bytes;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(CHUNK_SIZE);
+    byte[] chunk = new byte[CHUNK_SIZE];
+    for (int done = 0; done < length; done += CHUNK_SIZE) {
+      int n = Math.min(CHUNK_SIZE, length - done);
+      in.readFully(chunk, 0, n);
+      bytes.write(chunk, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+
+}
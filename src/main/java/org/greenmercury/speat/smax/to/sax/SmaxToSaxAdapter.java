@@ -1,12 +1,17 @@
 package org.greenmercury.speat.smax.to.sax;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 
 import org.greenmercury.speat.AbstractPipeline;
 import org.greenmercury.speat.NamespacePrefixMapping;
 import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.jfr.SpeatEvents;
+import org.greenmercury.speat.metrics.PipelineMetrics;
 import org.greenmercury.speat.sax.Sax;
+import org.greenmercury.speat.smax.ContentBuffer;
 import org.greenmercury.speat.smax.Smax;
 import org.greenmercury.speat.smax.SmaxDocument;
 import org.greenmercury.speat.smax.SmaxElement;
@@ -18,12 +23,16 @@ import org.xml.sax.SAXException;
  * @author Rakensi
  */
 public class SmaxToSaxAdapter extends AbstractPipeline<Smax, Sax> implements Smax {
+  /** The maximum number of characters in one {@code characters} event. */
+  private static final int MAX_CHARACTERS_LENGTH = 1 << 16;
   /** The handler for the SAX events produced by this adapter. */
   private Sax handler;
   /** The content that will be output through the SAX handler. */
-  private CharSequence content;
+  private ContentBuffer content;
   /** The position in the content from which text has not yet been processed. */
-  private int charPos;
+  private long charPos;
+  /** The buffer for {@code characters} events, which grows up to {@code MAX_CHARACTERS_LENGTH}. */
+  private char[] characters = new char[1024];
 
   @Override
   public void setHandler(Sax handler) {
@@ -46,28 +55,63 @@ public class SmaxToSaxAdapter extends AbstractPipeline<Smax, Sax> implements Sma
    */
   @Override
   public void process(SmaxDocument smaxDocument) throws PipelineException {
-    Instant startTime = Instant.now();
-    content = smaxDocument.getContentBuffer();
+    PipelineMetrics metrics = getMetrics();
+    long startTime = metrics.startTime();
+    Object event = SpeatEvents.beginStage();
+    content = smaxDocument.getUnderlyingContent();
     SmaxElement root = smaxDocument.getMarkup();
-    charPos = root.getStartPos();
+    charPos = root.getLongStartPos();
     try {
       handler.startDocument();
       processElement(root);
-      Instant endTime = Instant.now();
-      getLogger().info("Smax to Sax took "+Duration.between(startTime, endTime).toMillis()+" ms, from "+startTime.toString()+" to "+endTime.toString());
+      long chars = root.getLongEndPos() - root.getLongStartPos();
+      SpeatEvents.endStage(event, getMetricsName(), getClass(), chars);
+      metrics.count(getMetricsName(), PipelineMetrics.DOCUMENTS, 1);
+      metrics.count(getMetricsName(), PipelineMetrics.CHARS, chars);
       handler.endDocument();
+      // The time includes the handler, which receives the events as they are made.
+      metrics.recordTime(getMetricsName(), PipelineMetrics.PROCESS, startTime);
     } catch (SAXException e) {
       throw new PipelineException(e);
     }
   }
 
   /**
-   * Convert an XML element from the SMAX document into SAX events.
+   * Convert an XML element and its descendants from the SMAX document into SAX events.
+   * The tree is traversed with an explicit stack, so that deeply nested markup does not overflow the call stack.
+   * @param root
+   */
+  private void processElement(SmaxElement root) throws SAXException {
+    // The elements that have been started, and the index of the next child of each of them.
+    Deque<SmaxElement> elements = new ArrayDeque<>();
+    int[] nextChild = new int[16];
+    startElement(root);
+    elements.push(root);
+    while (!elements.isEmpty()) {
+      SmaxElement markup = elements.peek();
+      int depth = elements.size() - 1;
+      List<SmaxElement> children = markup.getChildren();
+      if (nextChild[depth] < children.size()) {
+        SmaxElement child = children.get(nextChild[depth]++);
+        startElement(child);
+        elements.push(child);
+        if (depth + 1 == nextChild.length) {
+          nextChild = Arrays.copyOf(nextChild, 2 * nextChild.length);
+        }
+        nextChild[depth + 1] = 0;
+      } else {
+        endElement(markup);
+        elements.pop();
+      }
+    }
+  }
+
+  /**
+   * Send the text before an element, and start the element.
    * @param markup
    */
-  private void processElement(SmaxElement markup) throws SAXException {
-    int startPos = markup.getStartPos();
-    int endPos = markup.getEndPos();
+  private void startElement(SmaxElement markup) throws SAXException {
+    long startPos = markup.getLongStartPos();
     // Send text before element.
     if (startPos > charPos) {
       sendCharacters(charPos, startPos - charPos);
@@ -77,11 +121,15 @@ public class SmaxToSaxAdapter extends AbstractPipeline<Smax, Sax> implements Sma
     for (NamespacePrefixMapping nspMapping : markup.getNamespacePrefixMappings()) {
       handler.startPrefixMapping(nspMapping.prefix, nspMapping.uri);
     }
-    // Send element and its content.
     handler.startElement(markup.getNamespaceUri(), markup.getLocalName(), markup.getQualifiedName(), markup.getAttributes());
-    for (SmaxElement child : markup.getChildren()) {
-      processElement(child);
-    }
+  }
+
+  /**
+   * Send the remaining text in an element, and end the element.
+   * @param markup
+   */
+  private void endElement(SmaxElement markup) throws SAXException {
+    long endPos = markup.getLongEndPos();
     if (endPos > charPos) {
       sendCharacters(charPos, endPos - charPos);
       charPos = endPos;
@@ -94,16 +142,27 @@ public class SmaxToSaxAdapter extends AbstractPipeline<Smax, Sax> implements Sma
   }
 
   /**
-   * Convert content from the SMAX document into a SAX event.
+   * Convert content from the SMAX document into SAX events.
+   * The characters are copied into a buffer that is re-used for all text, and long text is sent in chunks
+   * of at most {@code MAX_CHARACTERS_LENGTH} characters, so it does not have to fit in one array.
+   * A high surrogate at the end of a chunk is carried over into the next chunk, so that a surrogate pair is never split.
    * @param start
    * @param length
    */
-  private void sendCharacters(int start, int length) throws SAXException {
-    char[] out = new char[length];
-    for (int i = 0; i < length; ++i) {
-      out[i] = content.charAt(start+i);
+  private void sendCharacters(long start, long length) throws SAXException {
+    if (length > characters.length && characters.length < MAX_CHARACTERS_LENGTH) {
+      characters = new char[(int)Math.min(Math.max(length, 2L * characters.length), MAX_CHARACTERS_LENGTH)];
+    }
+    while (length > 0) {
+      int n = (int)Math.min(length, characters.length);
+      content.getChars(start, start + n, characters, 0);
+      if (n > 1 && n < length && Character.isHighSurrogate(characters[n - 1])) {
+        --n;
+      }
+      handler.characters(characters, 0, n);
+      start += n;
+      length -= n;
     }
-    handler.characters(out, 0, length);
   }
 
 }
@@ -0,0 +1,185 @@
+package org.greenmercury.speat.smax.to.smax;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.greenmercury.speat.ConfigurationException;
+import org.greenmercury.speat.Pipeline;
+import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.jfr.SpeatEvents;
+import org.greenmercury.speat.metrics.PipelineMetrics;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.slf4j.Logger;
+
+/**
+ * A chain of SMAX document transformers, fused into one pipeline stage.
+ * Use {@code SmaxDocumentTransformer.fuse} to make one.
+ *<p>
+ * When transformers are chained with {@code append}, each one walks the markup to find the nodes that match its
+ * {@code transformWithin} pattern, and transforms the sub-documents one after the other.
+ * A fused transformer groups consecutive transformers with the same pattern, walks the markup once per group,
+ * and applies all transformers of the group to a sub-document before it goes on to the next one.
+ * Transformers without a pattern form a group that transforms the complete document.
+ *<p>
+ * The result is the same as for the chain, unless a transformer depends on the state of other parts of
+ * the complete document than the sub-document it transforms. Within a group, a transformer sees the changes that
+ * the previous transformers made in the current sub-document, but not yet in the sub-documents that follow it.
+ *<p>
+ * The handlers of the fused transformers are not used; the result is passed on to the handler of the fused transformer.
+ * A fused transformer holds the {@code processLock} of all its transformers while it processes a document.
+ *<p>
+ * @author Rakensi
+ */
+public class FusedSmaxDocumentTransformer extends SmaxDocumentTransformer {
+
+  /**
+   * Consecutive transformers with the same {@code transformWithin} pattern.
+   */
+  private static class Group {
+    final SmaxElement pattern;
+    final List<SmaxDocumentTransformer> transformers = new ArrayList<>();
+    Group(SmaxElement pattern) {
+      this.pattern = pattern;
+    }
+  }
+
+  private final List<SmaxDocumentTransformer> transformers = new ArrayList<>();
+  private final List<Group> groups = new ArrayList<>();
+
+  /**
+   * Constructor for a {@code FusedSmaxDocumentTransformer}.
+   * Fused transformers in {@code transformers} are replaced by their transformers.
+   * @param transformers the transformers, in the order in which they are applied
+   */
+  FusedSmaxDocumentTransformer(SmaxDocumentTransformer... transformers) throws ConfigurationException {
+    if (transformers.length == 0) {
+      throw new ConfigurationException("A fused transformer needs at least one transformer.");
+    }
+    for (SmaxDocumentTransformer transformer : transformers) {
+      if (transformer instanceof FusedSmaxDocumentTransformer) {
+        for (SmaxDocumentTransformer fused : ((FusedSmaxDocumentTransformer)transformer).transformers) {
+          add(fused);
+        }
+      } else {
+        add(transformer);
+      }
+    }
+  }
+
+  private void add(SmaxDocumentTransformer transformer) {
+    transformers.add(transformer);
+    Group last = groups.isEmpty() ? null : groups.get(groups.size() - 1);
+    if (last == null || !samePattern(last.pattern, transformer.transformWithinNode)) {
+      last = new Group(transformer.transformWithinNode);
+      groups.add(last);
+    }
+    last.transformers.add(transformer);
+  }
+
+  /**
+   * Patterns have no attributes or children, so they are the same if they have the same expanded name.
+   */
+  private static boolean samePattern(SmaxElement pattern1, SmaxElement pattern2) {
+    if (pattern1 == null || pattern2 == null) {
+      return pattern1 == pattern2;
+    }
+    return pattern1.matches(pattern2) && pattern2.matches(pattern1);
+  }
+
+  /**
+   * @return the fused transformers, in the order in which they are applied
+   */
+  public List<SmaxDocumentTransformer> getTransformers() {
+    return Collections.unmodifiableList(transformers);
+  }
+
+  /**
+   * @return the number of walks over the markup for one document, which is the number of groups
+   */
+  public int getGroupCount() {
+    return groups.size();
+  }
+
+  /**
+   * A fused transformer uses the patterns of its transformers.
+   */
+  @Override
+  public SmaxDocumentTransformer setTransformWithin(SmaxElement transformWithinNode) throws ConfigurationException {
+    throw new ConfigurationException("Set transformWithin on the transformers of a "+getClass().getSimpleName()+", before they are fused.");
+  }
+
+  @Override
+  public Pipeline<Smax, Smax> setLogger(Logger logger) {
+    for (SmaxDocumentTransformer transformer : transformers) {
+      transformer.setLogger(logger);
+    }
+    return super.setLogger(logger);
+  }
+
+  @Override
+  public Pipeline<Smax, Smax> setMetrics(PipelineMetrics metrics) {
+    for (SmaxDocumentTransformer transformer : transformers) {
+      transformer.setMetrics(metrics);
+    }
+    return super.setMetrics(metrics);
+  }
+
+  /**
+   * Apply all transformers to a document, and pass it on.
+   * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#process(org.greenmercury.speat.smax.SmaxDocument)
+   */
+  @Override
+  public void process(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
+    int locked = 0;
+    processLock.lock();
+    try {
+      for (SmaxDocumentTransformer transformer : transformers) {
+        transformer.processLock.lock();
+        ++locked;
+      }
+      long startTime = getMetrics().startTime();
+      Object event = SpeatEvents.beginStage();
+      long fragments = 0;
+      this.completeDocument = completeDocument;
+      for (SmaxDocumentTransformer transformer : transformers) {
+        transformer.completeDocument = completeDocument;
+        transformer.prepare(completeDocument);
+      }
+      for (Group group : groups) {
+        if (group.pattern == null) {
+          for (SmaxDocumentTransformer transformer : group.transformers) {
+            transformer.transform(completeDocument);
+            ++fragments;
+          }
+        } else {
+          for (SmaxElement subMarkup : completeDocument.matchingNodes(group.pattern)) {
+            for (SmaxDocumentTransformer transformer : group.transformers) {
+              // A new sub-document for each transformer, so that content edits of the previous transformer are applied.
+              SmaxDocument subDocument = completeDocument.subDocument(subMarkup);
+              subMarkup = subDocument.getMarkup();
+              transformer.transform(subDocument);
+              ++fragments;
+            }
+          }
+        }
+      }
+      for (SmaxDocumentTransformer transformer : transformers) {
+        transformer.complete(completeDocument);
+      }
+      // Pass on to the handler, with markup positions that reflect content edits.
+      completeDocument.applyContentEdits();
+      recordMetrics(completeDocument, fragments, startTime, event);
+      handler.process(completeDocument);
+    } finally {
+      for (int i = locked - 1; i >= 0; --i) {
+        transformers.get(i).processLock.unlock();
+      }
+      processLock.unlock();
+    }
+  }
+
+}
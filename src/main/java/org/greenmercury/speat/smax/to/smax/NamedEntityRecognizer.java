@@ -3,19 +3,22 @@ package org.greenmercury.speat.smax.to.smax;
 import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.greenmercury.speat.Attribute;
 import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.PipelineException;
 import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.jfr.SpeatEvents;
 import org.greenmercury.speat.smax.SmaxDocument;
 import org.greenmercury.speat.smax.SmaxElement;
 import org.greenmercury.speat.text.TextLineStreamApi;
 import org.greenmercury.speat.text.TextLineStreamReader;
 import org.greenmercury.speat.text.trie.TrieNER;
+import org.greenmercury.speat.text.trie.TrieScanner;
 
 /**
  * A SMAX document transformer that inserts markup around named entities specified by a trie grammar.
@@ -47,6 +50,11 @@ import org.greenmercury.speat.text.trie.TrieNER;
  * All sequences of whitespace characters will be treated like a single space,
  * both in the grammar input and the text that is scanned for named entities.
  *<p>
+ * Compiled tries are shared by all {@code NamedEntityRecognizer}s with the same grammar URL, word characters,
+ * noWordBefore and noWordAfter characters, so that pipelines for concurrent requests do not each compile the grammar.
+ * A shared trie is recompiled when the grammar source has been modified after it was compiled.
+ * Grammar sources without a URL are not shared.
+ *<p>
  * @see <a href="https://en.wikipedia.org/wiki/Named-entity_recognition">Wikipedia: Named Entity Recognition</a>
  * @author Rakensi
  */
@@ -75,14 +83,25 @@ public class NamedEntityRecognizer extends SmaxDocumentTransformer {
   // The time when the grammar was compiled.
   private long grammarLastCompiled;
 
-  // The TrieNER instance used for scanning.
+  // The TrieNER instance that holds the trie. Each (sub-)document is scanned by its own TrieNER, which shares the trie.
   private TrieNER triener;
 
-  // The (sub-)document that is being transformed.
-  private SmaxDocument transformedDocument;
 
   // Compiled tries can get big. Keep a global map from grammarSource URL to size in bytes.
-  private static Map<String, Long> trieStoreBytes = new HashMap<String, Long>();
+  private static Map<String, Long> trieStoreBytes = new ConcurrentHashMap<String, Long>();
+
+  /**
+   * A compiled trie that is shared by recognizers with the same grammar and configuration.
+   * Compilation holds the lock of the {@code SharedTrie}, so a grammar is compiled once, even when it is needed by several threads.
+   */
+  private static class SharedTrie {
+    final ReentrantLock lock = new ReentrantLock();
+    TrieScanner trie = null;
+    long lastCompiled = 0L;
+  }
+
+  // The shared tries, keyed by grammar URL and configuration.
+  private static Map<String, SharedTrie> sharedTries = new ConcurrentHashMap<>();
 
   /**
    * Constructor for @code{NamedEntityRecognizer}.
@@ -242,18 +261,19 @@ public class NamedEntityRecognizer extends SmaxDocumentTransformer {
 
   /**
    * Make a {@code TrieNER} which inserts markup according to the matchNodeTemplate when text is recognized.
-   * @param wordChars
-   * @param noWordBefore
-   * @param noWordAfter
+   * A {@code TrieNER} is cheap to make; the expensive part is the trie, which can be shared.
+   * @param transformedDocument the (sub-)document that is scanned, or {@code null} if the {@code TrieNER} only holds the trie
+   * @param matches a counter for the inserted markup elements, or {@code null} if the {@code TrieNER} only holds the trie
    * @return
    */
-  private TrieNER makeTrieNER(String wordChars, String noWordBefore, String noWordAfter) {
+  private TrieNER makeTrieNER(SmaxDocument transformedDocument, int[] matches) {
     return new TrieNER(wordChars, noWordBefore, noWordAfter) {
       @Override
       public void match(CharSequence text, int start, int end, List<String> ids) {
         SmaxElement matchNode = matchNodeTemplate.shallowCopy();
         matchNode.setAttribute(attributeName, String.join("\t", ids));
         transformedDocument.insertMarkup(matchNode, balancing, start, end);
+        ++matches[0];
       }
       @Override
       public void noMatch(CharSequence text, int start, int end) {
@@ -263,14 +283,14 @@ public class NamedEntityRecognizer extends SmaxDocumentTransformer {
   }
 
   /**
-   * Process a complete document.
-   * The synchronized ensures that instance variables are thread-safe.
+   * Prepare for a complete document.
+   * This is called by {@code process} while it holds the {@code processLock}, so instance variables are thread-safe.
    * The trie-NER will be instantiated when the grammar has not yet been read, or when the grammar has changed.
    * @param completeDocument
-   * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#process(org.greenmercury.speat.smax.SmaxDocument)
+   * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#prepare(org.greenmercury.speat.smax.SmaxDocument)
    */
   @Override
-  public synchronized void process(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
+  protected void prepare(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
     ConfigurationException.ifNull("matchNodeTemplate", matchNodeTemplate);
     ConfigurationException.ifNull("grammarReader", grammarReader);
     long grammarSourceLastModified = grammarSource.getLastModified();
@@ -280,56 +300,78 @@ public class NamedEntityRecognizer extends SmaxDocumentTransformer {
     }
     // Set the trie-NER if we do not have it.
     if (triener == null) {
-      Instant startTime = Instant.now();
-      triener = makeTrieNER(wordChars, noWordBefore, noWordAfter);
-      grammarReader.setHandler(makeTrieGrammarHandler(triener));
-      grammarLastCompiled = grammarSourceLastModified;
-      grammarReader.read();
-      // Log sizes of all grammars that are in memory.
-      String grammarURL = grammarSource.getUrl() != null ? grammarSource.getUrl().toString() : grammarSource.getClass().getName();
-      trieStoreBytes.put(grammarURL, triener.getTrie().sizeInBytes());
-      Instant endTime = Instant.now();
-      getLogger().info("Trie for "+grammarURL+" has been compiled in "+Duration.between(startTime, endTime).toMillis()+" ms, from "+startTime.toString()+" to "+endTime.toString());
-      getLogger().info("  The trie-store contains "+trieStoreBytes.size()+" compiled tries. Sizes (MBytes):");
-      trieStoreBytes.entrySet().stream().forEach(entry ->
-        getLogger().info("  "+entry.getKey()+": "+String.format("%.3f", entry.getValue() / 1048576f))
-      );
-    }
-
-    String grammarURL = grammarSource.getUrl() != null ? grammarSource.getUrl().toString() : grammarSource.getClass().getName();
-    Instant startTime = Instant.now();
-    int fragments = 0;
-
-    // Process the input document with the triener.
-    //super.process(completeDocument);
-    this.completeDocument = completeDocument;
-    if (transformWithinNode == null) {
-      ++ fragments;
-      transform(completeDocument);
-    } else {
-      for (SmaxElement subMarkup : completeDocument.matchingNodes(transformWithinNode)) {
-        ++ fragments;
-        transform(new SmaxDocument(subMarkup, completeDocument.getContentView()));
+      triener = makeTrieNER(null, null);
+      if (grammarSource.getUrl() == null) {
+        compileGrammar(grammarSourceLastModified);
+      } else {
+        String key = grammarSource.getUrl().toString()+'\u0000'+wordChars+'\u0000'+noWordBefore+'\u0000'+noWordAfter;
+        SharedTrie shared = sharedTries.computeIfAbsent(key, k -> new SharedTrie());
+        shared.lock.lock();
+        try {
+          if (shared.trie == null || shared.lastCompiled < grammarSourceLastModified) {
+            compileGrammar(grammarSourceLastModified);
+            shared.trie = triener.getTrie();
+            shared.lastCompiled = grammarSourceLastModified;
+          } else {
+            triener.setTrie(shared.trie);
+            grammarLastCompiled = shared.lastCompiled;
+          }
+        } finally {
+          shared.lock.unlock();
+        }
       }
     }
+  }
 
+  /**
+   * Read the grammar into the trie of the trie-NER.
+   * @param grammarSourceLastModified the last modified time of the grammar source
+   */
+  private void compileGrammar(long grammarSourceLastModified) throws ConfigurationException, PipelineException, IOException {
+    Instant startTime = Instant.now();
+    Object event = SpeatEvents.beginTrieCompile();
+    grammarReader.setHandler(makeTrieGrammarHandler(triener));
+    grammarLastCompiled = grammarSourceLastModified;
+    grammarReader.read();
+    // Log sizes of all grammars that are in memory.
+    String grammarURL = grammarSource.getUrl() != null ? grammarSource.getUrl().toString() : grammarSource.getClass().getName();
+    TrieScanner trie = triener.getTrie();
+    trieStoreBytes.put(grammarURL, trie.sizeInBytes());
+    SpeatEvents.endTrieCompile(event, grammarURL, trie.nrKeys(), trie.nrNodes(), trie.sizeInBytes());
     Instant endTime = Instant.now();
-    getLogger().info("Named entity recogition on "+fragments+" fragments with "+grammarURL+" took "+Duration.between(startTime, Instant.now()).toMillis()+" ms, from "+startTime.toString()+" to "+endTime.toString());
-
-    // Pass on to the handler.
-    handler.process(completeDocument);
+    getLogger().info("Trie for "+grammarURL+" has been compiled in "+Duration.between(startTime, endTime).toMillis()+" ms, from "+startTime.toString()+" to "+endTime.toString());
+    getLogger().info("  The trie-store contains "+trieStoreBytes.size()+" compiled tries. Sizes (MBytes):");
+    trieStoreBytes.entrySet().stream().forEach(entry ->
+      getLogger().info("  "+entry.getKey()+": "+String.format("%.3f", entry.getValue() / 1048576f))
+    );
   }
 
   /**
    * Do named entity recognition on (parts of) a document.
    * It is more efficient to scan fragments from the content, because the TrieNER makes a normalized copy.
+   * Fragments may be transformed in parallel, because each one is scanned by its own {@code TrieNER}.
    * @param document
    * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#transform(org.greenmercury.speat.smax.SmaxDocument)
    */
   @Override
   protected void transform(SmaxDocument document) throws ConfigurationException, PipelineException {
-    transformedDocument = document;
-    triener.scan(transformedDocument.getContentView(), caseInsensitiveMinLength, fuzzyMinLength);
-}
+    Object event = SpeatEvents.beginNerScan();
+    int[] matches = {0};
+    TrieNER scanner = makeTrieNER(document, matches);
+    scanner.setTrie(triener.getTrie());
+    CharSequence fragment = document.getContentView();
+    scanner.scan(fragment, caseInsensitiveMinLength, fuzzyMinLength);
+    SpeatEvents.endNerScan(event, fragment.length(), matches[0]);
+    recordMatches(matches[0]);
+  }
+
+  /**
+   * The trie is only read while scanning, and the markup of each fragment is changed only by the thread that scans it.
+   * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#supportsParallelTransform()
+   */
+  @Override
+  protected boolean supportsParallelTransform() {
+    return true;
+  }
 
 }
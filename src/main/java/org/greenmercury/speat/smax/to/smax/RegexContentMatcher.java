@@ -52,10 +52,22 @@ public class RegexContentMatcher extends SmaxDocumentTransformer {
     ConfigurationException.ifNull("pattern", pattern);
     ConfigurationException.ifNull("matchNodeTemplate", matchNodeTemplate);
     Matcher matcher = pattern.matcher(document.getContentView());
+    int matches = 0;
     while (matcher.find()) {
       SmaxElement matchNode = matchNodeTemplate.shallowCopy();
       document.insertMarkup(matchNode, balancing, matcher.start(), matcher.end());
+      ++matches;
     }
+    recordMatches(matches);
+  }
+
+  /**
+   * A {@code Pattern} can be used by several threads, and each fragment gets its own {@code Matcher}.
+   * @see org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer#supportsParallelTransform()
+   */
+  @Override
+  protected boolean supportsParallelTransform() {
+    return true;
   }
 
 }
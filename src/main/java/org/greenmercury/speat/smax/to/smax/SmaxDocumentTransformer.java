@@ -1,10 +1,18 @@
 package org.greenmercury.speat.smax.to.smax;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.greenmercury.speat.AbstractPipeline;
 import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.jfr.SpeatEvents;
+import org.greenmercury.speat.metrics.PipelineMetrics;
 import org.greenmercury.speat.smax.Balancing;
 import org.greenmercury.speat.smax.Smax;
 import org.greenmercury.speat.smax.SmaxDocument;
@@ -16,6 +24,7 @@ import org.greenmercury.speat.smax.SmaxElement;
  * The {@code transform()} method can use the {@code SmaxDocument.insertMarkup()} method to transform the markup of the document.
  *<p>
  * When {@code setTransformWithin()} is used, only sub-documents will be transformed.
+ * Transformers that support it can transform these sub-documents in parallel, see {@code setParallel()}.
  *<p>
  * @author Rakensi
  */
@@ -46,12 +55,23 @@ public abstract class SmaxDocumentTransformer extends AbstractPipeline<Smax, Sma
    */
   protected SmaxDocument completeDocument;
 
+  /**
+   * Held while a document is processed, so that one instance does not process several documents at the same time.
+   * It is not {@code synchronized}, so that it does not pin a virtual thread to its carrier.
+   */
+  protected final ReentrantLock processLock = new ReentrantLock();
+
   /**
    * The default balancing used for node insertion.
    * This will be Balancing.OUTER by default.
    */
   protected Balancing balancing = Balancing.OUTER;
 
+  /**
+   * The pool that transforms sub-documents in parallel, or {@code null} to transform them one after the other.
+   */
+  private ForkJoinPool parallelPool = null;
+
   /**
    * @see org.greenmercury.speat.EventHandler#getEventApi()
    */
@@ -81,6 +101,44 @@ public abstract class SmaxDocumentTransformer extends AbstractPipeline<Smax, Sma
     return handler;
   }
 
+  /**
+   * Transform the sub-documents that match {@code transformWithin} in parallel, in the common {@code ForkJoinPool}.
+   * @param parallel whether to transform sub-documents in parallel
+   * @throws ConfigurationException if this transformer does not support parallel transformation
+   * @see #setParallel(ForkJoinPool)
+   */
+  public SmaxDocumentTransformer setParallel(boolean parallel) throws ConfigurationException {
+    return setParallel(parallel ? ForkJoinPool.commonPool() : null);
+  }
+
+  /**
+   * Transform the sub-documents that match {@code transformWithin} in parallel, in a {@code ForkJoinPool}.
+   * The sub-documents are disjoint, so each one is changed by one thread, but the transformer must also be able to
+   * run {@code transform} in several threads at the same time, which is indicated by {@code supportsParallelTransform}.
+   * Content edits are not possible in parallel, because the sub-documents share their content.
+   *<p>
+   * This only makes a difference for documents with many or large matching sub-documents, like a law with many sections.
+   * @param pool the pool that runs the transformations, or {@code null} to transform sub-documents one after the other
+   * @throws ConfigurationException if this transformer does not support parallel transformation
+   */
+  public SmaxDocumentTransformer setParallel(ForkJoinPool pool) throws ConfigurationException {
+    if (pool != null && !supportsParallelTransform()) {
+      throw new ConfigurationException(getClass().getName()+" can not transform sub-documents in parallel.");
+    }
+    this.parallelPool = pool;
+    return this;
+  }
+
+  /**
+   * Whether {@code transform} may be called for different sub-documents in several threads at the same time.
+   * This is only possible if {@code transform} does not use instance variables that are changed,
+   * and does not edit the content. By default, it is not possible.
+   * @return whether sub-documents can be transformed in parallel
+   */
+  protected boolean supportsParallelTransform() {
+    return false;
+  }
+
   /**
    * Set the default balancing.
    * @param balancing
@@ -90,6 +148,24 @@ public abstract class SmaxDocumentTransformer extends AbstractPipeline<Smax, Sma
     return this;
   }
 
+  /**
+   * Prepare for a new document, before any (sub-)document is transformed.
+   * Sub-classes can override this, for example to load or refresh resources. By default, it does nothing.
+   * @param completeDocument the complete document that will be transformed
+   */
+  protected void prepare(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
+    // Do nothing.
+  }
+
+  /**
+   * Finish a document, after all (sub-)documents have been transformed, and before it is passed on.
+   * By default, it does nothing.
+   * @param completeDocument the complete document that has been transformed
+   */
+  protected void complete(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
+    // Do nothing.
+  }
+
   /**
    * Transform a SMAX document, or sub-document if {@code setTransformWithin()} is used.
    * Sub-classes must implement this method to transform the document, using the insertMarkup() method.
@@ -103,24 +179,137 @@ public abstract class SmaxDocumentTransformer extends AbstractPipeline<Smax, Sma
   /**
    * Accept, @code{transform} and pass on a document.
    * If {@code transformWithinNode} is defined, only transform the matching parts of the document.
+   * {@code prepare} is called before, and {@code complete} after the transformation.
    *<p>
    * A {@code SmaxDocumentTransformer} instance must be able to {@code process} multiple documents in sequence, but not in parallel.
-   * Therefore it is synchronized, so {@code this.completeDocument} is consistent.
+   * Therefore it holds {@code processLock}, so {@code this.completeDocument} is consistent.
    * @param completeDocument
    * @see org.greenmercury.speat.smax.Smax#process(org.greenmercury.speat.smax.SmaxDocument)
    */
   @Override
-  public synchronized void process(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
-    this.completeDocument = completeDocument;
-    if (transformWithinNode == null) {
-      transform(completeDocument);
-    } else {
-      for (SmaxElement subMarkup : completeDocument.matchingNodes(transformWithinNode)) {
-        transform(new SmaxDocument(subMarkup, completeDocument.getContentView()));
+  public void process(SmaxDocument completeDocument) throws ConfigurationException, PipelineException, IOException {
+    processLock.lock();
+    try {
+      PipelineMetrics metrics = getMetrics();
+      long startTime = metrics.startTime();
+      Object event = SpeatEvents.beginStage();
+      this.completeDocument = completeDocument;
+      prepare(completeDocument);
+      long fragments = 0;
+      if (transformWithinNode == null) {
+        transform(completeDocument);
+        fragments = 1;
+      } else if (parallelPool != null) {
+        fragments = transformParallel(completeDocument);
+      } else {
+        for (SmaxElement subMarkup : completeDocument.matchingNodes(transformWithinNode)) {
+          transform(completeDocument.subDocument(subMarkup));
+          ++fragments;
+        }
+      }
+      complete(completeDocument);
+      // Pass on to the handler, with markup positions that reflect content edits.
+      completeDocument.applyContentEdits();
+      recordMetrics(completeDocument, fragments, startTime, event);
+      handler.process(completeDocument);
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Record the metrics of a processed document, and emit its Java Flight Recorder event, before it is passed on.
+   * @param completeDocument the complete document that has been transformed
+   * @param fragments the number of (sub-)documents that have been transformed
+   * @param startTime the start time, from {@code getMetrics().startTime()}
+   * @param event the token from {@code SpeatEvents.beginStage()}
+   */
+  protected void recordMetrics(SmaxDocument completeDocument, long fragments, long startTime, Object event) {
+    PipelineMetrics metrics = getMetrics();
+    if (metrics.isEnabled() || event != null) {
+      String stage = getMetricsName();
+      SmaxElement root = completeDocument.getMarkup();
+      long chars = root.getLongEndPos() - root.getLongStartPos();
+      SpeatEvents.endStage(event, stage, getClass(), chars);
+      metrics.recordTime(stage, PipelineMetrics.PROCESS, startTime);
+      metrics.count(stage, PipelineMetrics.DOCUMENTS, 1);
+      metrics.count(stage, PipelineMetrics.FRAGMENTS, fragments);
+      metrics.count(stage, PipelineMetrics.CHARS, chars);
+    }
+  }
+
+  /**
+   * Record markup elements that have been inserted by {@code transform}.
+   * This may be called by several threads at the same time, when sub-documents are transformed in parallel.
+   * @param matches the number of inserted elements
+   */
+  protected void recordMatches(long matches) {
+    getMetrics().count(getMetricsName(), PipelineMetrics.MATCHES, matches);
+  }
+
+  /**
+   * Transform the sub-documents that match {@code transformWithin} in the {@code parallelPool}.
+   * The sub-documents are made in this thread, because that may change the markup above them.
+   * The tasks get the document id of this thread, for Java Flight Recorder events.
+   * All transformations are finished before the first failure, if any, is thrown.
+   * @return the number of transformed sub-documents
+   */
+  private int transformParallel(SmaxDocument completeDocument) throws ConfigurationException, PipelineException {
+    List<SmaxElement> matchingNodes = new ArrayList<>();
+    for (SmaxElement subMarkup : completeDocument.matchingNodes(transformWithinNode)) {
+      matchingNodes.add(subMarkup);
+    }
+    List<ForkJoinTask<Void>> tasks = new ArrayList<>(matchingNodes.size());
+    String documentId = SpeatEvents.getDocumentId();
+    for (SmaxElement subMarkup : matchingNodes) {
+      SmaxDocument subDocument = completeDocument.subDocument(subMarkup);
+      tasks.add(parallelPool.submit(() -> {
+        String previousId = SpeatEvents.setDocumentId(documentId);
+        try {
+          transform(subDocument);
+        } finally {
+          SpeatEvents.setDocumentId(previousId);
+        }
+        return null;
+      }));
+    }
+    Throwable failure = null;
+    for (ForkJoinTask<Void> task : tasks) {
+      try {
+        task.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PipelineException("Interrupted while transforming sub-documents in parallel.", e);
       }
     }
-    // Pass on to the handler.
-    handler.process(completeDocument);
+    if (failure instanceof ConfigurationException) {
+      throw (ConfigurationException)failure;
+    } else if (failure instanceof PipelineException) {
+      throw (PipelineException)failure;
+    } else if (failure instanceof RuntimeException) {
+      throw (RuntimeException)failure;
+    } else if (failure instanceof Error) {
+      throw (Error)failure;
+    } else if (failure != null) {
+      throw new PipelineException(failure);
+    }
+    return tasks.size();
+  }
+
+  /**
+   * Fuse a chain of transformers into one pipeline stage, which applies them in order.
+   * Consecutive transformers with the same {@code transformWithin} pattern share one walk over the matching nodes,
+   * and are applied one after the other to each matching sub-document, while its content is still in the cache.
+   * @param transformers the transformers, in the order in which they would be appended
+   * @return a {@code FusedSmaxDocumentTransformer} that can be used instead of the chain
+   * @see FusedSmaxDocumentTransformer
+   */
+  public static FusedSmaxDocumentTransformer fuse(SmaxDocumentTransformer... transformers) throws ConfigurationException {
+    return new FusedSmaxDocumentTransformer(transformers);
   }
 
 }
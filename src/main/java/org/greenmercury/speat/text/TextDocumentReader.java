@@ -3,12 +3,19 @@ package org.greenmercury.speat.text;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.stream.Collectors;
 
 import org.greenmercury.speat.Pipeline;
 import org.greenmercury.speat.PipelineException;
 import org.greenmercury.speat.io.input.InputSource;
 import org.greenmercury.speat.io.input.InputSourceReader;
+import org.greenmercury.speat.smax.MappedFileContentBuffer;
 
 /**
  * Read a text document from an inputSource source and handle the document as a single CharSequence.
@@ -16,16 +23,43 @@ import org.greenmercury.speat.io.input.InputSourceReader;
  * <p>
  * Note that the complete text is kept in memory as a String.
  * <p>
+ * For large files, use {@code setMemoryMapped(true)}. Then a file whose input source has an explicit single-byte encoding,
+ * like ISO-8859-1 or US-ASCII, is not read into memory, but handled as a {@code MappedFileContentBuffer},
+ * which can be used as the content of a {@code SmaxDocument} without copying.
+ * In that case, line endings are not normalized, and a line ending at the end of the file is kept,
+ * where it is removed when the file is read into memory.
+ * For files with more than 2^31-1 characters, the handler must use the {@code long} positions of the {@code ContentBuffer}.
+ * <p>
  *
  * @author Rakensi
  */
 public class TextDocumentReader extends InputSourceReader<TextDocumentApi> implements Pipeline<InputSource, TextDocumentApi> {
 
+  private boolean memoryMapped = false;
+
+  /**
+   * Use a memory-mapped file for input sources that are files with an explicit single-byte encoding.
+   * Other input sources, including files without an encoding, which are read as UTF-8, are read into memory.
+   * @param memoryMapped
+   * @return the {@code TextDocumentReader} itself
+   */
+  public TextDocumentReader setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+    return this;
+  }
+
   /**
    * Read the text document from an inputSource source.
    */
   @Override
   protected void readInputAndSendEvents() throws IOException, PipelineException {
+    if (memoryMapped) {
+      MappedFileContentBuffer mappedText = mapInputFile();
+      if (mappedText != null) {
+        handler.process(mappedText);
+        return;
+      }
+    }
     if (inputSource.hasReader()) {
       try (
           Reader reader = inputSource.getReader();
@@ -39,4 +73,23 @@ public class TextDocumentReader extends InputSourceReader<TextDocumentApi> imple
     }
   }
 
+  /**
+   * Map the input source into memory, if it is a file with an explicit single-byte encoding.
+   * @return the mapped file, or {@code null} if the input source can not be mapped
+   */
+  private MappedFileContentBuffer mapInputFile() throws IOException {
+    URL url = inputSource.getUrl();
+    if (url == null || !"file".equals(url.getProtocol()) || inputSource.getEncoding() == null) {
+      return null;
+    }
+    try {
+      Path path = Paths.get(url.toURI());
+      Charset charset = Charset.forName(inputSource.getEncoding());
+      return new MappedFileContentBuffer(path, charset);
+    } catch (URISyntaxException | UnsupportedEncodingException e) {
+      getLogger().warn("Reading "+url+" into memory, because it can not be memory-mapped: "+e.getMessage());
+      return null;
+    }
+  }
+
 }
@@ -0,0 +1,185 @@
+package org.greenmercury.speat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.Balancing;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer;
+import org.greenmercury.speat.text.TextLineStreamApi;
+import org.junit.jupiter.api.Test;
+
+class AsyncPipelineTests extends SpeatTests {
+
+  /**
+   * Marks the whole content of the root element, and remembers the thread.
+   */
+  class MarkTransformer extends SmaxDocumentTransformer {
+    Thread thread;
+    @Override
+    protected void transform(SmaxDocument document) {
+      thread = Thread.currentThread();
+      document.insertMarkup(new SmaxElement("m"), Balancing.OUTER, 0, document.getContentView().length());
+    }
+  }
+
+  private void read(SaxReader saxReader, String input) throws Exception {
+    try (StringInputSource inputSource = new StringInputSource(input)) {
+      saxReader.setInputSource(inputSource);
+      saxReader.read();
+    }
+  }
+
+  @Test
+  void testAsyncSmax() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    MarkTransformer transformer = new MarkTransformer();
+    StringOutputSource outputSource = new StringOutputSource();
+    SaxReader saxReader = new SaxReader();
+    try (AsyncPipeline<Smax, Smax> async = Pipeline.async(transformer, 2, executor)) {
+      saxReader.
+        append(new SaxToSmaxAdapter()).
+        append(async).
+        append(new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")).
+        setHandler(outputSource);
+      for (int i = 0; i < 10; ++i) {
+        read(saxReader, "<p>"+i+"</p>");
+      }
+    }
+    executor.shutdown();
+    assertEquals("<p><m>0</m></p><p><m>1</m></p><p><m>2</m></p><p><m>3</m></p><p><m>4</m></p>"+
+        "<p><m>5</m></p><p><m>6</m></p><p><m>7</m></p><p><m>8</m></p><p><m>9</m></p>", outputSource.getOutput());
+    assertTrue(transformer.thread != Thread.currentThread());
+  }
+
+  @Test
+  void testFailure() throws Exception {
+    SmaxDocumentTransformer failing = new SmaxDocumentTransformer() {
+      @Override
+      protected void transform(SmaxDocument document) throws PipelineException {
+        throw new PipelineException("failed");
+      }
+    };
+    AsyncPipeline<Smax, Smax> async = Pipeline.async(failing, 1);
+    async.setHandler(document -> {});
+    PipelineException e = assertThrows(PipelineException.class, () -> {
+      for (int i = 0; i < 100; ++i) {
+        async.getEventApi().process(new SmaxDocument(new SmaxElement("p"), ""));
+      }
+      async.close();
+    });
+    assertEquals("failed", e.getMessage());
+  }
+
+  @Test
+  void testRejectedExecution() throws Exception {
+    AsyncPipeline<Smax, Smax> async = Pipeline.async(new MarkTransformer(), 1, task -> {
+      throw new RejectedExecutionException("shut down");
+    });
+    async.setHandler(document -> {});
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertThrows(PipelineException.class, () -> async.getEventApi().process(new SmaxDocument(new SmaxElement("p"), "")));
+      PipelineException e = assertThrows(PipelineException.class, async::close);
+      assertTrue(e.getCause() instanceof RejectedExecutionException);
+    });
+  }
+
+  @Test
+  void testInterruptedConsumer() throws Exception {
+    CountDownLatch inStage = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Thread[] consumer = new Thread[1];
+    // The stage ignores interrupts, so that the consumer is interrupted while it waits for the next event.
+    Pipeline<Smax, Smax> stage = new SmaxDocumentTransformer() {
+      @Override
+      protected void transform(SmaxDocument document) {
+        inStage.countDown();
+        boolean interrupted = false;
+        while (release.getCount() > 0) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    AsyncPipeline<Smax, Smax> async = Pipeline.async(stage, 1, task -> {
+      consumer[0] = new Thread(task);
+      consumer[0].start();
+    });
+    async.setHandler(document -> {});
+    Thread interrupter = new Thread(() -> {
+      try {
+        inStage.await();
+        // Give the sender time to fill the queue and wait for space.
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        return;
+      }
+      consumer[0].interrupt();
+      release.countDown();
+    });
+    interrupter.start();
+    assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+      assertThrows(PipelineException.class, () -> {
+        for (int i = 0; i < 3; ++i) {
+          async.getEventApi().process(new SmaxDocument(new SmaxElement("p"), ""));
+        }
+        async.close();
+      });
+    });
+    interrupter.join();
+  }
+
+  @Test
+  void testAsyncTextLineStream() throws Exception {
+    List<String> lines = new ArrayList<>();
+    Pipeline<TextLineStreamApi, Object> collector = new AbstractPipeline<TextLineStreamApi, Object>() {
+      @Override
+      public TextLineStreamApi getEventApi() {
+        return lines::add;
+      }
+      @Override
+      public void setHandler(Object handler) {
+      }
+      @Override
+      public Object getHandler() {
+        return null;
+      }
+    };
+    try (AsyncPipeline<TextLineStreamApi, Object> async = Pipeline.async(collector, 3)) {
+      async.getEventApi().processParallel(Stream.of("a", "b", "c", "d", "e"));
+    }
+    assertEquals("abcde", String.join("", lines));
+  }
+
+  @Test
+  void testUnsupportedApi() throws Exception {
+    assertThrows(ConfigurationException.class, () -> Pipeline.async(new SaxToSmaxAdapter(), 1));
+  }
+
+}
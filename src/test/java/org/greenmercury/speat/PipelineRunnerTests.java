@@ -0,0 +1,187 @@
+package org.greenmercury.speat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.FileNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.PipelineRunner.Job;
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.OutputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.junit.jupiter.api.Test;
+
+class PipelineRunnerTests extends SpeatTests {
+
+  private PipelineTemplate<InputSource, OutputSource> copyTemplate() {
+    return PipelineTemplate.
+      of(SaxReader::new).
+      append(SaxToSmaxAdapter::new).
+      append(() -> new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"));
+  }
+
+  /**
+   * Records the outcomes.
+   */
+  private static class Recorder implements PipelineRunner.Listener<OutputSource> {
+    final List<Long> indexes = new ArrayList<>();
+    final List<Long> failures = new ArrayList<>();
+    @Override
+    public void succeeded(Job<OutputSource> job, long index, Duration duration) {
+      indexes.add(index);
+    }
+    @Override
+    public void failed(Job<OutputSource> job, long index, Throwable failure) {
+      indexes.add(index);
+      failures.add(index);
+    }
+  }
+
+  private Stream<Job<OutputSource>> jobs(int count, List<StringOutputSource> outputs) {
+    return IntStream.range(0, count).mapToObj(i -> {
+      StringOutputSource output = new StringOutputSource();
+      outputs.add(output);
+      // Every tenth document is not well-formed.
+      String input = i % 10 == 7 ? "<doc>"+i : "<doc>"+i+"</doc>";
+      return Job.<OutputSource>of("doc"+i, () -> new StringInputSource(input), () -> output);
+    });
+  }
+
+  @Test
+  void testOrdered() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<StringOutputSource> outputs = new ArrayList<>();
+      Recorder recorder = new Recorder();
+      PipelineRunner<OutputSource> runner = new PipelineRunner<>(copyTemplate()).
+        setExecutor(executor).setMaxInFlight(8).setOrdered(true).setListener(recorder);
+      PipelineRunner.Progress progress = runner.run(jobs(50, outputs));
+      assertEquals(indexes(50), recorder.indexes);
+      assertEquals(Stream.of(7L, 17L, 27L, 37L, 47L).collect(Collectors.toList()), recorder.failures);
+      assertEquals(50, progress.getSubmitted());
+      assertEquals(45, progress.getSucceeded());
+      assertEquals(5, progress.getFailed());
+      assertEquals(0, progress.getInFlight());
+      for (int i = 0; i < 50; ++i) {
+        if (i % 10 != 7) {
+          assertEquals("<doc>"+i+"</doc>", outputs.get(i).getOutput());
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testUnordered() throws Exception {
+    List<StringOutputSource> outputs = new ArrayList<>();
+    Recorder recorder = new Recorder();
+    PipelineRunner<OutputSource> runner = new PipelineRunner<>(copyTemplate()).setListener(recorder);
+    PipelineRunner.Progress progress = runner.run(jobs(100, outputs));
+    List<Long> sorted = new ArrayList<>(recorder.indexes);
+    Collections.sort(sorted);
+    assertEquals(indexes(100), sorted);
+    assertEquals(10, recorder.failures.size());
+    assertEquals(100, progress.getCompleted());
+    assertEquals(90, runner.getProgress().getSucceeded());
+  }
+
+  @Test
+  void testFailingOpener() throws Exception {
+    List<Long> failures = new ArrayList<>();
+    PipelineRunner<OutputSource> runner = new PipelineRunner<>(copyTemplate()).
+      setListener(new PipelineRunner.Listener<OutputSource>() {
+        @Override
+        public void failed(Job<OutputSource> job, long index, Throwable failure) {
+          failures.add(index);
+        }
+      });
+    StringOutputSource output = new StringOutputSource();
+    PipelineRunner.Progress progress = runner.run(Stream.of(
+        Job.<OutputSource>of("missing", () -> { throw new FileNotFoundException("missing"); }, () -> output),
+        Job.<OutputSource>of(new StringInputSource("<a/>"), output)));
+    assertEquals(Collections.singletonList(0L), failures);
+    assertEquals(1, progress.getSucceeded());
+    assertEquals("<a/>", output.getOutput());
+  }
+
+  @Test
+  void testRejectedJobs() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    Recorder recorder = new Recorder();
+    PipelineRunner<OutputSource> runner = new PipelineRunner<>(copyTemplate()).
+      setExecutor(executor).setOrdered(true).setListener(recorder);
+    PipelineRunner.Progress progress = assertTimeoutPreemptively(Duration.ofSeconds(10),
+        () -> runner.run(jobs(3, new ArrayList<>())));
+    assertEquals(indexes(3), recorder.failures);
+    assertEquals(3, progress.getFailed());
+    assertEquals(0, progress.getInFlight());
+  }
+
+  @Test
+  void testFiles() throws Exception {
+    Path in = Files.createTempDirectory("speat-in");
+    Path out = Files.createTempDirectory("speat-out");
+    Files.createDirectories(in.resolve("sub"));
+    Files.write(in.resolve("one.xml"), "<one/>".getBytes(StandardCharsets.UTF_8));
+    Files.write(in.resolve("sub/two.xml"), "<two>2</two>".getBytes(StandardCharsets.UTF_8));
+    PipelineRunner.Progress progress;
+    try (Stream<Job<OutputSource>> jobs = PipelineRunner.files(in, out)) {
+      progress = new PipelineRunner<>(copyTemplate()).run(jobs);
+    }
+    assertEquals(2, progress.getSucceeded());
+    assertEquals("<one/>", new String(Files.readAllBytes(out.resolve("one.xml")), StandardCharsets.UTF_8));
+    assertEquals("<two>2</two>", new String(Files.readAllBytes(out.resolve("sub/two.xml")), StandardCharsets.UTF_8));
+    assertTrue(progress.getDocumentsPerSecond() >= 0.0);
+  }
+
+  @Test
+  void testVirtualThreads() throws Exception {
+    ExecutorService executor;
+    try {
+      executor = PipelineRunner.newVirtualThreadExecutor();
+    } catch (UnsupportedOperationException e) {
+      // Virtual threads are not available before Java 21.
+      assertThrows(NoSuchMethodException.class, () -> Executors.class.getMethod("newVirtualThreadPerTaskExecutor"));
+      return;
+    }
+    try {
+      List<StringOutputSource> outputs = new ArrayList<>();
+      Recorder recorder = new Recorder();
+      PipelineRunner.Progress progress = new PipelineRunner<>(copyTemplate()).
+        setExecutor(executor).setMaxInFlight(64).setOrdered(true).setListener(recorder).
+        run(jobs(200, outputs));
+      assertEquals(indexes(200), recorder.indexes);
+      assertEquals(180, progress.getSucceeded());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static List<Long> indexes(int count) {
+    return LongStream.range(0, count).boxed().collect(Collectors.toList());
+  }
+
+}
@@ -0,0 +1,145 @@
+package org.greenmercury.speat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.io.input.FileInputSource;
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.OutputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.SaxWriter;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.greenmercury.speat.smax.to.smax.NamedEntityRecognizer;
+import org.junit.jupiter.api.Test;
+
+class PipelineTemplateTests extends SpeatTests {
+
+  private File grammarFile(String grammar) throws Exception {
+    File file = Files.createTempFile("speat", ".txt").toFile();
+    file.deleteOnExit();
+    Files.write(file.toPath(), grammar.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private PipelineTemplate<InputSource, OutputSource> nerTemplate(File grammar) {
+    return PipelineTemplate.
+      of(SaxReader::new).
+      append(SaxToSmaxAdapter::new).
+      append(() -> new NamedEntityRecognizer(new FileInputSource(grammar), "", null, null).
+          setMatchNodeTemplate(new SmaxElement("ntt").setAttribute("name", ""))).
+      append(() -> new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes"));
+  }
+
+  private String read(PipelineTemplate<InputSource, OutputSource> template, String input) throws Exception {
+    try (StringInputSource inputSource = new StringInputSource(input);
+         StringOutputSource outputSource = new StringOutputSource()) {
+      template.read(inputSource, outputSource);
+      return outputSource.getOutput();
+    }
+  }
+
+  @Test
+  void testConcurrentRequests() throws Exception {
+    File grammar = grammarFile("#ff0000 <- red\n#0000ff <- blue\n");
+    PipelineTemplate<InputSource, OutputSource> template = nerTemplate(grammar);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 40; ++i) {
+      String input = "<p n=\""+i+"\">red and blue</p>";
+      results.add(executor.submit(() -> read(template, input)));
+    }
+    for (int i = 0; i < 40; ++i) {
+      assertEquals("<p n=\""+i+"\"><ntt name=\"#ff0000\">red</ntt> and <ntt name=\"#0000ff\">blue</ntt></p>", results.get(i).get());
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  void testPooling() throws Exception {
+    PipelineTemplate<InputSource, OutputSource> template = PipelineTemplate.
+      of(SaxReader::new).
+      append(SaxToSmaxAdapter::new).
+      append(SmaxWriter::new);
+    PipelineTemplate.PooledPipeline<InputSource, OutputSource> first = template.acquire();
+    PipelineTemplate.PooledPipeline<InputSource, OutputSource> second = template.acquire();
+    assertNotSame(first, second);
+    first.close();
+    try (PipelineTemplate.PooledPipeline<InputSource, OutputSource> third = template.acquire()) {
+      assertSame(first, third);
+    }
+    second.close();
+  }
+
+  @Test
+  void testReleaseOutput() throws Exception {
+    List<PipelineTemplate<InputSource, OutputSource>> templates = new ArrayList<>();
+    templates.add(PipelineTemplate.
+      of(SaxReader::new).
+      append(SaxToSmaxAdapter::new).
+      append(() -> new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")));
+    templates.add(PipelineTemplate.
+      of(SaxReader::new).
+      append(() -> new SaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")));
+    for (PipelineTemplate<InputSource, OutputSource> template : templates) {
+      PipelineTemplate.PooledPipeline<InputSource, OutputSource> pooled = template.acquire();
+      try (StringInputSource inputSource = new StringInputSource("<p>x</p>");
+           StringOutputSource outputSource = new StringOutputSource()) {
+        pooled.read(inputSource, outputSource);
+        assertEquals("<p>x</p>", outputSource.getOutput());
+      }
+      // The pooled pipeline does not keep the output source alive, and can be re-used.
+      assertNull(pooled.getPipeline().getHandler());
+      pooled.close();
+      try (PipelineTemplate.PooledPipeline<InputSource, OutputSource> again = template.acquire()) {
+        assertSame(pooled, again);
+      }
+      assertEquals("<p>y</p>", read(template, "<p>y</p>"));
+    }
+  }
+
+  @Test
+  void testPerThread() throws Exception {
+    PipelineTemplate<InputSource, OutputSource> template = PipelineTemplate.
+      of(SaxReader::new).
+      append(SaxToSmaxAdapter::new).
+      append(() -> new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes")).
+      setPerThread(true);
+    PipelineTemplate.PooledPipeline<InputSource, OutputSource> first = template.acquire();
+    first.close();
+    try (PipelineTemplate.PooledPipeline<InputSource, OutputSource> second = template.acquire()) {
+      assertSame(first, second);
+    }
+    assertEquals("<p>x</p>", read(template, "<p>x</p>"));
+  }
+
+  @Test
+  void testSharedTrie() throws Exception {
+    File grammar = grammarFile("#ff0000 <- red\n");
+    long lastModified = grammar.lastModified();
+    assertEquals("<p><ntt name=\"#ff0000\">red</ntt></p>", read(nerTemplate(grammar), "<p>red</p>"));
+    // A new template makes a new recognizer, which uses the compiled trie while the grammar has not been modified.
+    Files.write(grammar.toPath(), "#00ff00 <- green\n".getBytes(StandardCharsets.UTF_8));
+    grammar.setLastModified(lastModified);
+    assertEquals("<p><ntt name=\"#ff0000\">red</ntt></p>", read(nerTemplate(grammar), "<p>red</p>"));
+    grammar.setLastModified(lastModified + 10000);
+    assertEquals("<p><ntt name=\"#00ff00\">green</ntt></p>", read(nerTemplate(grammar), "<p>green</p>"));
+  }
+
+}
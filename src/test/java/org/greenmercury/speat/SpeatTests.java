@@ -14,7 +14,6 @@ import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
 import org.greenmercury.speat.smax.Smax;
 import org.greenmercury.speat.smax.SmaxDocument;
 import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
-import org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer;
 import org.junit.jupiter.api.BeforeAll;
 
 /**
@@ -38,7 +37,7 @@ public abstract class SpeatTests {
    * @return the result of applying {@code transformer} to {@code inputXML}
    * @throws Exception
    */
-  protected String runPipeline(SmaxDocumentTransformer transformer, String inputXML) throws Exception {
+  protected String runPipeline(Pipeline<Smax, Smax> transformer, String inputXML) throws Exception {
     try (
         StringInputSource input = new StringInputSource(inputXML);
         StringOutputSource outputSource = new StringOutputSource();
@@ -65,12 +64,23 @@ public abstract class SpeatTests {
    * @throws Exception
    */
   protected SmaxDocument parse(String inputXML) throws Exception {
+    return parse(inputXML, new SaxToSmaxAdapter());
+  }
+
+  /**
+   * Parse the string {@code inputXML} into a {@code SmaxDocument}, using a configured {@code SaxToSmaxAdapter}.
+   * @param inputXML
+   * @param adapter
+   * @return
+   * @throws Exception
+   */
+  protected SmaxDocument parse(String inputXML, SaxToSmaxAdapter adapter) throws Exception {
     try (StringInputSource input = new StringInputSource(inputXML)) {
       SaxReader saxReader = new SaxReader();
       saxReader.setInputSource(input);
       SmaxDocumentParser parser = new SmaxDocumentParser();
       saxReader.
-        append(new SaxToSmaxAdapter()).
+        append(adapter).
         setHandler(parser);
       saxReader.read();
       return parser.document;
@@ -0,0 +1,107 @@
+package org.greenmercury.speat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.Sax;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.SaxWriter;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.Smax;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.greenmercury.speat.smax.to.smax.RegexContentMatcher;
+import org.junit.jupiter.api.Test;
+
+class TeeTests extends SpeatTests {
+
+  private static final String INPUT = "<doc><p>one 1</p><p>two 2</p></doc>";
+
+  private SmaxWriter smaxWriter(StringOutputSource output) throws Exception {
+    SmaxWriter writer = new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    writer.setHandler(output);
+    return writer;
+  }
+
+  private Smax matcherBranch(String regex, String name, StringOutputSource output) throws Exception {
+    RegexContentMatcher matcher = new RegexContentMatcher().setPattern(regex).setMatchNodeTemplate(new SmaxElement(name));
+    matcher.append(smaxWriter(output));
+    return matcher;
+  }
+
+  private void runSmaxTee(Pipeline<Smax, Smax> tee, StringOutputSource mainOutput) throws Exception {
+    try (StringInputSource input = new StringInputSource(INPUT)) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      reader.
+        append(new SaxToSmaxAdapter()).
+        append(tee).
+        append(new RegexContentMatcher().setPattern("[a-z]+").setMatchNodeTemplate(new SmaxElement("w"))).
+        append(smaxWriter(mainOutput));
+      reader.read();
+    }
+  }
+
+  @Test
+  void testSmaxTee() throws Exception {
+    StringOutputSource mainOutput = new StringOutputSource();
+    StringOutputSource digits = new StringOutputSource();
+    StringOutputSource plain = new StringOutputSource();
+    runSmaxTee(Pipeline.tee(matcherBranch("[0-9]", "d", digits), smaxWriter(plain)), mainOutput);
+    assertEquals("<doc><p><w>one</w> 1</p><p><w>two</w> 2</p></doc>", mainOutput.getOutput());
+    assertEquals("<doc><p>one <d>1</d></p><p>two <d>2</d></p></doc>", digits.getOutput());
+    assertEquals(INPUT, plain.getOutput());
+  }
+
+  @Test
+  void testParallelSmaxTee() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      StringOutputSource mainOutput = new StringOutputSource();
+      StringOutputSource digits = new StringOutputSource();
+      StringOutputSource letters = new StringOutputSource();
+      runSmaxTee(Pipeline.tee(executor, matcherBranch("[0-9]", "d", digits), matcherBranch("[a-z]", "c", letters)), mainOutput);
+      assertEquals("<doc><p><w>one</w> 1</p><p><w>two</w> 2</p></doc>", mainOutput.getOutput());
+      assertEquals("<doc><p>one <d>1</d></p><p>two <d>2</d></p></doc>", digits.getOutput());
+      assertEquals("<doc><p><c>o</c><c>n</c><c>e</c> 1</p><p><c>t</c><c>w</c><c>o</c> 2</p></doc>", letters.getOutput());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void testSaxTee() throws Exception {
+    StringOutputSource mainOutput = new StringOutputSource();
+    StringOutputSource branchOutput = new StringOutputSource();
+    SaxWriter branch = new SaxWriter();
+    branch.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    branch.setHandler(branchOutput);
+    SaxWriter main = new SaxWriter();
+    main.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    main.setHandler(mainOutput);
+    try (StringInputSource input = new StringInputSource(INPUT)) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      reader.append(Pipeline.tee(branch.getEventApi())).append(main);
+      reader.read();
+    }
+    assertEquals(INPUT, mainOutput.getOutput());
+    assertEquals(INPUT, branchOutput.getOutput());
+  }
+
+  @Test
+  void testBadTee() throws Exception {
+    Sax sax = new SaxWriter().getEventApi();
+    Smax smax = new SmaxWriter();
+    assertThrows(ConfigurationException.class, () -> Pipeline.tee(sax, smax));
+    assertThrows(ConfigurationException.class, () -> Pipeline.tee(Executors.newSingleThreadExecutor(), sax));
+  }
+
+}
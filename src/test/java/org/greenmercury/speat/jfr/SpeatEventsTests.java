@@ -0,0 +1,88 @@
+package org.greenmercury.speat.jfr;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.io.input.InputSource;
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.SaxWriter;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
+import org.greenmercury.speat.smax.to.smax.NamedEntityRecognizer;
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+class SpeatEventsTests {
+
+  private List<RecordedEvent> events(List<RecordedEvent> all, String name) {
+    return all.stream().filter(event -> event.getEventType().getName().equals(name)).collect(Collectors.toList());
+  }
+
+  @Test
+  void testEvents() throws Exception {
+    assertTrue(SpeatEvents.AVAILABLE);
+    Path file = Files.createTempFile("speat", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(PipelineStageEvent.class).withoutThreshold();
+      recording.enable(TrieCompileEvent.class).withoutThreshold();
+      recording.enable(NerScanEvent.class).withoutThreshold();
+      recording.start();
+      String previousId = SpeatEvents.setDocumentId("doc-1");
+      try (
+          InputSource grammar = new StringInputSource("#ff0000 <- red\n#00ff00 <- green\n");
+          InputSource input = new StringInputSource("<test><p>red and green</p><p>blue</p></test>");
+          StringOutputSource output = new StringOutputSource();
+      ) {
+        NamedEntityRecognizer ner = new NamedEntityRecognizer(grammar, "-/()[].,;:'\"", null, null);
+        ner.setMatchNodeTemplate(new SmaxElement(null, "ntt", "ntt").setAttribute("name", ""));
+        ner.setTransformWithin(new SmaxElement("p"));
+        SaxReader reader = new SaxReader();
+        reader.setInputSource(input);
+        SaxWriter writer = new SaxWriter();
+        writer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        writer.setHandler(output);
+        reader.append(new SaxToSmaxAdapter()).append(ner).append(new SmaxToSaxAdapter()).append(writer);
+        reader.read();
+      } finally {
+        SpeatEvents.setDocumentId(previousId);
+      }
+      recording.stop();
+      recording.dump(file);
+      List<RecordedEvent> all = RecordingFile.readAllEvents(file);
+      List<RecordedEvent> stages = events(all, "org.greenmercury.speat.PipelineStage");
+      List<String> stageNames = stages.stream().map(event -> event.getString("stage")).sorted().collect(Collectors.toList());
+      // The grammar is read by a TextLineStreamReader.
+      assertEquals("[NamedEntityRecognizer, SaxReader, SaxToSmaxAdapter, SmaxToSaxAdapter, TextLineStreamReader]", stageNames.toString());
+      for (RecordedEvent stage : stages) {
+        assertEquals("doc-1", stage.getString("documentId"));
+      }
+      RecordedEvent nerStage = stages.stream().filter(event -> event.getString("stage").equals("NamedEntityRecognizer")).findFirst().get();
+      assertEquals(17, nerStage.getLong("chars"));
+      List<RecordedEvent> compiles = events(all, "org.greenmercury.speat.TrieCompile");
+      assertEquals(1, compiles.size());
+      assertEquals(2, compiles.get(0).getInt("keys"));
+      List<RecordedEvent> scans = events(all, "org.greenmercury.speat.NerScan");
+      assertEquals(2, scans.size());
+      assertEquals(2, scans.stream().mapToInt(event -> event.getInt("matches")).sum());
+      assertEquals("[4, 13]", scans.stream().map(event -> event.getInt("fragmentLength")).sorted().collect(Collectors.toList()).toString());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+    assertNull(SpeatEvents.getDocumentId());
+  }
+
+}
@@ -0,0 +1,138 @@
+package org.greenmercury.speat.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.Pipeline;
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.SaxEventHandler;
+import org.greenmercury.speat.sax.SaxReader;
+import org.greenmercury.speat.sax.SaxWriter;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
+import org.greenmercury.speat.smax.to.smax.RegexContentMatcher;
+import org.junit.jupiter.api.Test;
+
+class MetricsRegistryTests extends SpeatTests {
+
+  @Test
+  void testTimer() {
+    MetricsRegistry registry = new MetricsRegistry();
+    for (long nanos = 1; nanos <= 100; ++nanos) {
+      registry.recordNanos("stage", "t", nanos * 1000);
+    }
+    MetricsRegistry.Timer timer = registry.getTimer("stage", "t");
+    assertEquals(100, timer.getCount());
+    assertEquals(5050000, timer.getTotalNanos());
+    assertEquals(1000, timer.getMinNanos());
+    assertEquals(100000, timer.getMaxNanos());
+    assertEquals(50500.0, timer.getMeanNanos());
+    // Percentiles are accurate within a factor of two.
+    long p50 = timer.getPercentileNanos(50);
+    assertTrue(p50 >= 50000 && p50 < 100000, "p50 = "+p50);
+    assertEquals(100000, timer.getPercentileNanos(100));
+    assertNull(registry.getTimer("stage", "other"));
+    assertEquals(0, registry.getCount("stage", "other"));
+  }
+
+  @Test
+  void testPipelineMetrics() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    StringOutputSource output = new StringOutputSource();
+    try (StringInputSource input = new StringInputSource("<doc><p>a 1 b 22</p><p>c 333</p></doc>")) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      SaxWriter writer = new SaxWriter();
+      writer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      writer.setHandler(output);
+      RegexContentMatcher matcher = new RegexContentMatcher().setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n"));
+      matcher.setTransformWithin(new SmaxElement("p"));
+      Pipeline<?, ?> pipeline = reader.
+        append(new SaxToSmaxAdapter()).
+        append(matcher).
+        append(new SmaxToSaxAdapter()).
+        append(writer);
+      pipeline.setMetrics(registry);
+      reader.read();
+    }
+    assertEquals("<doc><p>a <n>1</n> b <n>22</n></p><p>c <n>333</n></p></doc>", output.getOutput());
+    assertEquals(1, registry.getCount("SaxToSmaxAdapter", PipelineMetrics.DOCUMENTS));
+    assertEquals(13, registry.getCount("SaxToSmaxAdapter", PipelineMetrics.CHARS));
+    assertEquals(1, registry.getCount("RegexContentMatcher", PipelineMetrics.DOCUMENTS));
+    assertEquals(2, registry.getCount("RegexContentMatcher", PipelineMetrics.FRAGMENTS));
+    assertEquals(3, registry.getCount("RegexContentMatcher", PipelineMetrics.MATCHES));
+    assertEquals(1, registry.getCount("SmaxToSaxAdapter", PipelineMetrics.DOCUMENTS));
+    for (String stage : new String[] {"SaxToSmaxAdapter", "RegexContentMatcher", "SmaxToSaxAdapter"}) {
+      assertNotNull(registry.getTimer(stage, PipelineMetrics.PROCESS));
+      assertEquals(1, registry.getTimer(stage, PipelineMetrics.PROCESS).getCount());
+    }
+    String dump = registry.toString();
+    assertTrue(dump.contains("RegexContentMatcher.matches: 3"), dump);
+  }
+
+  @Test
+  void testTimersExcludeNextStages() throws Exception {
+    long sleepNanos = 200_000_000L;
+    MetricsRegistry registry = new MetricsRegistry();
+    SmaxToSaxAdapter output = new SmaxToSaxAdapter();
+    output.setHandler(new SaxEventHandler() {
+      @Override
+      public void endDocument() {
+        sleep(sleepNanos);
+      }
+    });
+    try (StringInputSource input = new StringInputSource("<doc><p>a 1</p></doc>")) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      Pipeline<?, ?> pipeline = reader.
+        append(new SaxToSmaxAdapter()).
+        append(new RegexContentMatcher().setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n"))).
+        append(output);
+      pipeline.setMetrics(registry);
+      reader.read();
+    }
+    assertTrue(registry.getTimer("SaxToSmaxAdapter", PipelineMetrics.PROCESS).getTotalNanos() < sleepNanos, registry.toString());
+    assertTrue(registry.getTimer("RegexContentMatcher", PipelineMetrics.PROCESS).getTotalNanos() < sleepNanos, registry.toString());
+    // SmaxToSaxAdapter sends events while it traverses the document, so its time includes the next stages.
+    assertTrue(registry.getTimer("SmaxToSaxAdapter", PipelineMetrics.PROCESS).getTotalNanos() >= sleepNanos, registry.toString());
+    // In streaming mode, the time in the next stages is not included either.
+    MetricsRegistry streamingRegistry = new MetricsRegistry();
+    try (StringInputSource input = new StringInputSource("<doc><p>one</p><p>two</p></doc>")) {
+      SaxReader reader = new SaxReader();
+      reader.setInputSource(input);
+      SaxToSmaxAdapter adapter = new SaxToSmaxAdapter().setStreamWithin(new SmaxElement("p"));
+      adapter.setHandler(document -> sleep(sleepNanos));
+      reader.append(adapter).setMetrics(streamingRegistry);
+      reader.read();
+    }
+    assertEquals(2, streamingRegistry.getCount("SaxToSmaxAdapter", PipelineMetrics.DOCUMENTS));
+    assertTrue(streamingRegistry.getTimer("SaxToSmaxAdapter", PipelineMetrics.PROCESS).getTotalNanos() < sleepNanos, streamingRegistry.toString());
+  }
+
+  private static void sleep(long nanos) {
+    try {
+      Thread.sleep(nanos / 1_000_000L);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  void testDisabled() {
+    PipelineMetrics none = PipelineMetrics.NONE;
+    assertEquals(false, none.isEnabled());
+    assertEquals(0L, none.startTime());
+    RegexContentMatcher matcher = new RegexContentMatcher();
+    assertEquals(PipelineMetrics.NONE, matcher.getMetrics());
+    matcher.setMetrics(new MetricsRegistry()).setMetrics(null);
+    assertEquals(PipelineMetrics.NONE, matcher.getMetrics());
+  }
+
+}
@@ -1,15 +1,33 @@
 package org.greenmercury.speat.sax;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.OutputKeys;
 
 import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.PipelineException;
 import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.greenmercury.speat.smax.ContentBuffer;
 import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.SmaxWriter;
+import org.greenmercury.speat.smax.StringBufferContentBuffer;
+import org.greenmercury.speat.smax.StringBuilderContentBuffer;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
 import org.greenmercury.speat.smax.to.smax.SmaxDocumentTransformer;
 import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
 
 class SaxAdapterTests extends SpeatTests {
 
@@ -47,4 +65,280 @@ class SaxAdapterTests extends SpeatTests {
     assertEquals("<p>!!!<q>???</q></p>", result);
   }
 
+  /**
+   * A content buffer with generated text, which is not stored, for documents with more than 2^31-1 characters.
+   * Appended text must be the same as the generated text.
+   */
+  static class GeneratedContentBuffer implements ContentBuffer {
+    private long length = 0L;
+
+    static char charFor(long index) {
+      return (char)('a' + index % 26);
+    }
+
+    @Override
+    public long longLength() {
+      return length;
+    }
+
+    @Override
+    public int length() {
+      return Math.toIntExact(length);
+    }
+
+    @Override
+    public char charAt(int index) {
+      return charFor(index);
+    }
+
+    @Override
+    public char charAt(long index) {
+      return charFor(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+      getChars((long)srcBegin, (long)srcEnd, dst, dstBegin);
+    }
+
+    @Override
+    public void getChars(long srcBegin, long srcEnd, char[] dst, int dstBegin) {
+      int c = (int)(srcBegin % 26);
+      for (long i = srcBegin; i < srcEnd; ++i) {
+        dst[dstBegin++] = (char)('a' + c);
+        c = c == 25 ? 0 : c + 1;
+      }
+    }
+
+    @Override
+    public void setCharAt(int index, char ch) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ContentBuffer insert(int offset, CharSequence csq, int start, int end) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ContentBuffer append(char[] str, int offset, int len) {
+      if (len > 0 && (str[offset] != charFor(length) || str[offset + len - 1] != charFor(length + len - 1))) {
+        throw new IllegalArgumentException("The appended text is not the generated text.");
+      }
+      length += len;
+      return this;
+    }
+
+    @Override
+    public ContentBuffer delete(int start, int end) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  void testContentBufferPerDocument() throws Exception {
+    List<SmaxDocument> documents = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter().setContentBufferSupplier(StringBuilderContentBuffer::new);
+    adapter.setHandler(documents::add);
+    for (String input : new String[] {"<a>first</a>", "<b>second</b>"}) {
+      try (StringInputSource inputSource = new StringInputSource(input)) {
+        SaxReader saxReader = new SaxReader();
+        saxReader.setInputSource(inputSource);
+        saxReader.setHandler(adapter);
+        saxReader.read();
+      }
+    }
+    assertEquals("first", documents.get(0).getContentView().toString());
+    assertEquals("second", documents.get(1).getContentView().toString());
+    assertNotSame(documents.get(0).getUnderlyingContent(), documents.get(1).getUnderlyingContent());
+    assertTrue(documents.get(0).getUnderlyingContent() instanceof StringBuilderContentBuffer);
+  }
+
+  @Test
+  void testDefaultContentBuffer() throws Exception {
+    List<SmaxDocument> documents = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter();
+    adapter.setHandler(documents::add);
+    try (StringInputSource inputSource = new StringInputSource("<a>first</a>")) {
+      SaxReader saxReader = new SaxReader();
+      saxReader.setInputSource(inputSource);
+      saxReader.setHandler(adapter);
+      saxReader.read();
+    }
+    assertTrue(documents.get(0).getUnderlyingContent() instanceof StringBufferContentBuffer);
+    assertEquals("first", documents.get(0).getContentBuffer().toString());
+  }
+
+  @Test
+  void testLengthHint() throws Exception {
+    List<SmaxDocument> documents = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter();
+    adapter.setHandler(documents::add);
+    String input = "<a>"+String.join("", java.util.Collections.nCopies(1000, "text "))+"</a>";
+    try (StringInputSource inputSource = new StringInputSource(input)) {
+      SaxReader saxReader = new SaxReader();
+      saxReader.setInputSource(inputSource);
+      saxReader.setHandler(adapter);
+      saxReader.read();
+    }
+    StringBuffer content = documents.get(0).getContentBuffer();
+    assertEquals(5000, content.length());
+    assertTrue(content.capacity() >= input.length());
+  }
+
+  @Test
+  void testLargeLengthHint() throws Exception {
+    List<SmaxDocument> documents = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter();
+    adapter.setHandler(documents::add);
+    // The hint of a large file with little text must not allocate a buffer for the whole file.
+    adapter.setLengthHint(1L << 30);
+    adapter.startDocument();
+    adapter.startElement("", "a", "a", new AttributesImpl());
+    adapter.characters("text".toCharArray(), 0, 4);
+    adapter.endElement("", "a", "a");
+    adapter.endDocument();
+    StringBuffer content = documents.get(0).getContentBuffer();
+    assertEquals("text", content.toString());
+    assertTrue(content.capacity() <= 1 << 24, "capacity = "+content.capacity());
+  }
+
+  @Test
+  void testReuseSaxReader() throws Exception {
+    List<SmaxDocument> documents = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter();
+    adapter.setHandler(documents::add);
+    SaxReader saxReader = new SaxReader();
+    saxReader.setHandler(adapter);
+    for (String input : new String[] {"<a>first</a>", "<b>second</b>", "<c>third</c>"}) {
+      try (StringInputSource inputSource = new StringInputSource(input)) {
+        saxReader.setInputSource(inputSource);
+        saxReader.read();
+      }
+    }
+    assertEquals("<a>first</a>", serialize(documents.get(0)));
+    assertEquals("<c>third</c>", serialize(documents.get(2)));
+  }
+
+  @Test
+  void testStreamWithin() throws Exception {
+    List<String> records = new ArrayList<>();
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter().setStreamWithin(new SmaxElement("urn:r", "record"));
+    adapter.setHandler(document -> {
+      StringOutputSource outputSource = new StringOutputSource();
+      SmaxWriter writer = new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+      writer.setHandler(outputSource);
+      writer.process(document);
+      records.add(outputSource.getOutput());
+    });
+    String input = "<feed xmlns=\"urn:r\" xmlns:x=\"urn:x\">header<record n=\"1\">one <x:b>1</x:b></record>-"+
+        "<group><record n=\"2\">two<record>nested</record></record></group><other>ignored</other></feed>";
+    try (StringInputSource inputSource = new StringInputSource(input)) {
+      SaxReader saxReader = new SaxReader();
+      saxReader.setInputSource(inputSource);
+      saxReader.setHandler(adapter);
+      saxReader.read();
+    }
+    assertEquals(2, records.size());
+    assertEquals("<record xmlns=\"urn:r\" xmlns:x=\"urn:x\" n=\"1\">one <x:b>1</x:b></record>", records.get(0));
+    assertEquals("<record xmlns=\"urn:r\" xmlns:x=\"urn:x\" n=\"2\">two<record>nested</record></record>", records.get(1));
+  }
+
+  @Test
+  void testDeeplyNestedMarkup() throws Exception {
+    int depth = 20000;
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 70000; ++i) {
+      text.append((char)('a' + i % 26));
+    }
+    SmaxElement root = new SmaxElement("d").setStartPos(0).setEndPos(text.length());
+    SmaxElement element = root;
+    for (int i = 1; i < depth; ++i) {
+      SmaxElement child = new SmaxElement("d").setStartPos(1).setEndPos(text.length());
+      element.appendChild(child);
+      element = child;
+    }
+    String result = serialize(new SmaxDocument(root, text));
+    StringBuilder expected = new StringBuilder("<d>a");
+    for (int i = 1; i < depth; ++i) {
+      expected.append("<d>");
+    }
+    expected.append(text, 1, text.length());
+    for (int i = 0; i < depth; ++i) {
+      expected.append("</d>");
+    }
+    assertEquals(expected.toString(), result);
+  }
+
+  @Test
+  void testSurrogatePairAtChunkBoundary() throws Exception {
+    // SmaxToSaxAdapter sends text in chunks of at most 65536 characters, so this pair starts at the end of the first chunk.
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 65535; ++i) {
+      text.append('x');
+    }
+    text.append("😀y");
+    List<String> chunks = new ArrayList<>();
+    SmaxToSaxAdapter output = new SmaxToSaxAdapter();
+    output.setHandler(new SaxEventHandler() {
+      @Override
+      public void characters(char[] characters, int start, int length) {
+        chunks.add(new String(characters, start, length));
+      }
+    });
+    output.process(new SmaxDocument(new SmaxElement("test").setStartPos(0).setEndPos(text.length()), text.toString()));
+    assertEquals(text.toString(), String.join("", chunks));
+    for (String chunk : chunks) {
+      assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)), "A chunk ends with a high surrogate.");
+    }
+  }
+
+  @Test
+  void testLargeDocument() throws Exception {
+    char[] chunk = new char[26 << 15];
+    for (int i = 0; i < chunk.length; ++i) {
+      chunk[i] = GeneratedContentBuffer.charFor(i);
+    }
+    int nrChunks = 2521;
+    long size = (long)nrChunks * chunk.length;
+    assertTrue(size > Integer.MAX_VALUE);
+    // The number of characters received, and the position of the last element.
+    long[] received = new long[2];
+    SmaxToSaxAdapter output = new SmaxToSaxAdapter();
+    output.setHandler(new SaxEventHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (localName.equals("last")) {
+          received[1] = received[0];
+        }
+      }
+      @Override
+      public void characters(char[] characters, int start, int length) {
+        assertEquals(GeneratedContentBuffer.charFor(received[0]), characters[start]);
+        assertEquals(GeneratedContentBuffer.charFor(received[0] + length - 1), characters[start + length - 1]);
+        received[0] += length;
+      }
+    });
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter().setContentBufferSupplier(GeneratedContentBuffer::new);
+    adapter.setHandler(output);
+    AttributesImpl noAttributes = new AttributesImpl();
+    adapter.startDocument();
+    adapter.startElement("", "big", "big", noAttributes);
+    for (int i = 0; i < nrChunks; ++i) {
+      adapter.characters(chunk, 0, chunk.length);
+    }
+    adapter.startElement("", "last", "last", noAttributes);
+    adapter.characters(chunk, 0, 1);
+    adapter.endElement("", "last", "last");
+    adapter.endElement("", "big", "big");
+    adapter.endDocument();
+    assertEquals(size + 1, received[0]);
+    assertEquals(size, received[1]);
+  }
+
 }
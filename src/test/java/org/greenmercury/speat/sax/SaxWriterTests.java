@@ -0,0 +1,37 @@
+package org.greenmercury.speat.sax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
+import org.junit.jupiter.api.Test;
+
+class SaxWriterTests extends SpeatTests {
+
+  private String write(SaxWriter serializer, SmaxDocument document) throws Exception {
+    StringOutputSource outputSource = new StringOutputSource();
+    serializer.setHandler(outputSource);
+    SmaxToSaxAdapter smaxToSax = new SmaxToSaxAdapter();
+    smaxToSax.setHandler(serializer);
+    smaxToSax.process(document);
+    return outputSource.getOutput();
+  }
+
+  @Test
+  void testOutputPropertiesPerWriter() throws Exception {
+    SmaxDocument document = parse("<test>x</test>");
+    SaxWriter omitting = new SaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    SaxWriter declaring = new SaxWriter();
+    // The serializers are taken from a shared pool, but the output properties belong to each SaxWriter.
+    for (int i = 0; i < 3; ++i) {
+      assertEquals("<test>x</test>", write(omitting, document));
+      assertTrue(write(declaring, document).startsWith("<?xml"));
+    }
+  }
+
+}
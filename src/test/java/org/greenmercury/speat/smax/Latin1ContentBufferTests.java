@@ -0,0 +1,67 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.sax.to.smax.SaxToSmaxAdapter;
+import org.junit.jupiter.api.Test;
+
+class Latin1ContentBufferTests extends SpeatTests {
+
+  private static Latin1ContentBuffer buffer(String text) {
+    Latin1ContentBuffer buffer = new Latin1ContentBuffer();
+    buffer.append(text.toCharArray(), 0, text.length());
+    return buffer;
+  }
+
+  @Test
+  void testLatin1() {
+    Latin1ContentBuffer buffer = buffer("café crème");
+    assertTrue(buffer.isLatin1());
+    buffer.insert(4, " au lait,");
+    buffer.delete(0, 5);
+    buffer.setCharAt(0, 'A');
+    assertEquals("Au lait, crème", buffer.toString());
+    assertEquals('è', buffer.charAt(11));
+    assertTrue(buffer.isLatin1());
+  }
+
+  @Test
+  void testInflate() {
+    Latin1ContentBuffer buffer = buffer("abc € def");
+    assertFalse(buffer.isLatin1());
+    assertEquals("abc € def", buffer.toString());
+    buffer = buffer("abcdef");
+    buffer.insert(3, "Δ");
+    assertFalse(buffer.isLatin1());
+    assertEquals("abcΔdef", buffer.toString());
+    buffer = buffer("abcdef");
+    buffer.setCharAt(5, 'Ω');
+    assertEquals("abcdeΩ", buffer.toString());
+  }
+
+  @Test
+  void testGrow() {
+    Latin1ContentBuffer buffer = new Latin1ContentBuffer();
+    StringBuilder expected = new StringBuilder();
+    char[] chunk = "0123456789".toCharArray();
+    for (int i = 0; i < 500; ++i) {
+      buffer.append(chunk, 0, chunk.length);
+      expected.append(chunk);
+    }
+    char[] chars = new char[20];
+    buffer.getChars(995, 1015, chars, 0);
+    assertEquals(expected.substring(995, 1015), new String(chars));
+    assertEquals(expected.toString(), buffer.toString());
+  }
+
+  @Test
+  void testPipeline() throws Exception {
+    String input = "<test><p>naïve</p><p>‘quoted’</p></test>";
+    SaxToSmaxAdapter adapter = new SaxToSmaxAdapter().setContentBufferSupplier(Latin1ContentBuffer::new);
+    assertEquals(input, serialize(parse(input, adapter)));
+  }
+
+}
@@ -0,0 +1,60 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.greenmercury.speat.SpeatTests;
+import org.junit.jupiter.api.Test;
+
+class MappedFileContentBufferTests extends SpeatTests {
+
+  private Path tempFile(String text, Charset charset) throws Exception {
+    Path file = Files.createTempFile("speat", ".txt");
+    file.toFile().deleteOnExit();
+    Files.write(file, text.getBytes(charset));
+    return file;
+  }
+
+  @Test
+  void testLatin1() throws Exception {
+    String text = "Dès Noël où un zéphyr haï";
+    MappedFileContentBuffer buffer = new MappedFileContentBuffer(tempFile(text, StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1);
+    assertEquals(text.length(), buffer.longLength());
+    assertEquals('è', buffer.charAt(1));
+    assertEquals(text, buffer.toString());
+    assertEquals("Noël", buffer.subSequence(4, 8).toString());
+    assertThrows(UnsupportedOperationException.class, () -> buffer.setCharAt(0, 'd'));
+  }
+
+  @Test
+  void testWindows1252() throws Exception {
+    Charset windows1252 = Charset.forName("windows-1252");
+    String text = "“quoted” – €5";
+    MappedFileContentBuffer buffer = new MappedFileContentBuffer(tempFile(text, windows1252), windows1252);
+    assertEquals(text, buffer.toString());
+  }
+
+  @Test
+  void testUtf8() throws Exception {
+    // UTF-8 is rejected, even for a file that contains only ASCII characters.
+    Path file = tempFile("plain ASCII", StandardCharsets.UTF_8);
+    assertThrows(UnsupportedEncodingException.class, () -> new MappedFileContentBuffer(file, StandardCharsets.UTF_8));
+    assertEquals("plain ASCII", new MappedFileContentBuffer(file, StandardCharsets.US_ASCII).toString());
+  }
+
+  @Test
+  void testInsertMarkup() throws Exception {
+    String text = "one two three";
+    MappedFileContentBuffer buffer = new MappedFileContentBuffer(tempFile(text, StandardCharsets.US_ASCII), StandardCharsets.US_ASCII);
+    SmaxDocument document = new SmaxDocument(new SmaxElement("text").setEndPos(buffer.longLength()), (CharSequence)buffer);
+    document.insertMarkup(new SmaxElement("w"), Balancing.OUTER, 4, 7);
+    assertEquals("<text>one <w>two</w> three</text>", serialize(document));
+  }
+
+}
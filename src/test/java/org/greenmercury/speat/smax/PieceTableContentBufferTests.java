@@ -0,0 +1,65 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class PieceTableContentBufferTests {
+
+  @Test
+  void testEdits() {
+    ContentBuffer buffer = new PieceTableContentBuffer("Hello world");
+    buffer.insert(5, ",");
+    buffer.append(new char[] {'!', '!'}, 0, 1);
+    assertEquals("Hello, world!", buffer.toString());
+    buffer.delete(0, 7);
+    buffer.replace(0, 5, "there");
+    buffer.setCharAt(0, 'T');
+    assertEquals("There!", buffer.toString());
+    assertEquals(6, buffer.length());
+    assertEquals('!', buffer.charAt(5));
+    assertEquals("her", buffer.subSequence(1, 4).toString());
+  }
+
+  @Test
+  void testRandomEdits() {
+    Random random = new Random(42);
+    StringBuilder expected = new StringBuilder("The quick brown fox jumps over the lazy dog.");
+    ContentBuffer buffer = new PieceTableContentBuffer(expected.toString());
+    for (int i = 0; i < 2000; ++i) {
+      int start = random.nextInt(expected.length() + 1);
+      int end = Math.min(expected.length(), start + random.nextInt(5));
+      switch (random.nextInt(3)) {
+      case 0:
+        String text = Integer.toString(i);
+        expected.insert(start, text);
+        buffer.insert(start, text);
+        break;
+      case 1:
+        expected.delete(start, end);
+        buffer.delete(start, end);
+        break;
+      default:
+        expected.replace(start, end, "#");
+        buffer.replace(start, end, "#");
+      }
+      assertEquals(expected.length(), buffer.length());
+      if (expected.length() > 0) {
+        int index = random.nextInt(expected.length());
+        assertEquals(expected.charAt(index), buffer.charAt(index));
+      }
+    }
+    assertEquals(expected.toString(), buffer.toString());
+    StringBuilder sequential = new StringBuilder();
+    for (int i = 0; i < buffer.length(); ++i) {
+      sequential.append(buffer.charAt(i));
+    }
+    assertEquals(expected.toString(), sequential.toString());
+    char[] chars = new char[10];
+    buffer.getChars(5, 15, chars, 0);
+    assertEquals(expected.substring(5, 15), new String(chars));
+  }
+
+}
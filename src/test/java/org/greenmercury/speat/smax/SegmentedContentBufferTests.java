@@ -0,0 +1,73 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.greenmercury.speat.SpeatTests;
+import org.junit.jupiter.api.Test;
+
+class SegmentedContentBufferTests extends SpeatTests {
+
+  @Test
+  void testAppendAcrossSegments() {
+    SegmentedContentBuffer buffer = new SegmentedContentBuffer();
+    char[] chunk = new char[100000];
+    for (int i = 0; i < chunk.length; ++i) {
+      chunk[i] = (char)('a' + i % 26);
+    }
+    for (int i = 0; i < 25; ++i) {
+      buffer.append(chunk, 0, chunk.length);
+    }
+    assertEquals(2500000L, buffer.longLength());
+    long pos = 1 << 20;
+    assertEquals(chunk[(int)(pos % chunk.length)], buffer.charAt(pos));
+    char[] chars = new char[10];
+    buffer.getChars(pos - 5, pos + 5, chars, 0);
+    assertEquals(buffer.window(pos - 5, pos + 5).toString(), new String(chars));
+    assertEquals(new String(chunk, 0, 10), buffer.window(2400000L, 2400010L).toString());
+    assertThrows(UnsupportedOperationException.class, () -> buffer.insert(0, "x"));
+  }
+
+  @Test
+  void testEnsureCapacity() {
+    SegmentedContentBuffer buffer = new SegmentedContentBuffer();
+    buffer.ensureCapacity(3000000L);
+    char[] chunk = "abcdefghij".toCharArray();
+    for (int i = 0; i < 300000; ++i) {
+      buffer.append(chunk, 0, chunk.length);
+    }
+    assertEquals(3000000L, buffer.longLength());
+    assertEquals('j', buffer.charAt(2999999L));
+    assertEquals("abcdefghij", buffer.window(1048570L, 1048580L).toString());
+  }
+
+  @Test
+  void testWindowMatching() {
+    SegmentedContentBuffer buffer = new SegmentedContentBuffer();
+    char[] text = "one two three".toCharArray();
+    buffer.append(text, 0, text.length);
+    Matcher matcher = Pattern.compile("t\\w+").matcher(buffer.window(4, 13));
+    matcher.find();
+    assertEquals("two", matcher.group());
+    matcher.find();
+    assertEquals("three", matcher.group());
+  }
+
+  @Test
+  void testPipeline() throws Exception {
+    SmaxDocument document = parse("<test><p>one</p> <p>two</p></test>");
+    assertEquals("one two", document.getContentView().toString());
+    assertEquals("<test><p>one</p> <p>two</p></test>", serialize(new SmaxDocument(document.getMarkup(), copy(document.getContentView()))));
+  }
+
+  private SegmentedContentBuffer copy(CharSequence text) {
+    SegmentedContentBuffer buffer = new SegmentedContentBuffer();
+    char[] chars = text.toString().toCharArray();
+    buffer.append(chars, 0, chars.length);
+    return buffer;
+  }
+
+}
@@ -1,6 +1,7 @@
 package org.greenmercury.speat.smax;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.junit.jupiter.api.Test;
 
@@ -189,6 +190,31 @@ class SmaxContentTests {
     assertEquals(10, content.indexOf("ef", 6));
   }
   
+  @Test
+  void testSearchLikeString() {
+    String text = "abcabcaabbcc";
+    SmaxContent content = new SmaxContent(new StringBuffer("xx"+text+"yy"), 2, 2 + text.length());
+    for (String str : new String[] {"", "a", "abc", "bca", "cc", "ccy", "xa", "abcabcaabbcc", "abcabcaabbccy"}) {
+      for (int from = -1; from <= text.length() + 1; ++from) {
+        assertEquals(text.indexOf(str, from), content.indexOf(str, from), str+" from "+from);
+        assertEquals(text.lastIndexOf(str, from), content.lastIndexOf(str, from), str+" from "+from);
+      }
+      assertEquals(text.indexOf(str), content.indexOf(str));
+      assertEquals(text.lastIndexOf(str), content.lastIndexOf(str));
+    }
+  }
+
+  @Test
+  void testSubSequenceIsView() {
+    StringBuffer buffer = new StringBuffer("abcdefghi");
+    SmaxContent content = new SmaxContent(buffer, 3, 9);
+    CharSequence sub = content.subSequence(1, 4);
+    assertTrue(sub instanceof SmaxContent);
+    buffer.setCharAt(5, 'F');
+    assertEquals("eFg", sub.toString());
+    assertEquals("F", sub.subSequence(1, 2).toString());
+  }
+
   @Test
   void testLastIndexOf() {
     SmaxContent content;
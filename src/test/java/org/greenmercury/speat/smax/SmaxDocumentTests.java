@@ -1,6 +1,9 @@
 package org.greenmercury.speat.smax;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.List;
 import java.util.regex.Matcher;
@@ -127,4 +130,136 @@ class SmaxDocumentTests extends SpeatTests {
     assertEquals("<test><p><a><M path=\"p/a\">!</M></a></p><p><b><M path=\"p/b\">!</M></b></p></test>", result);
   }
 
+  /* Tests for content edits */
+
+  class RedactTransformer extends SmaxDocumentTransformer {
+    private Pattern pattern;
+    private String replacement;
+    public RedactTransformer(Pattern pattern, String replacement) {
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+    @Override
+    protected void transform(SmaxDocument document) {
+      // Replace from the end, so that earlier match positions remain valid.
+      Matcher matcher = pattern.matcher(document.getContentView().toString());
+      List<int[]> matches = new java.util.ArrayList<>();
+      while (matcher.find()) {
+        matches.add(new int[] {matcher.start(), matcher.end()});
+      }
+      for (int i = matches.size() - 1; i >= 0; --i) {
+        document.replaceContent(matches.get(i)[0], matches.get(i)[1], replacement);
+      }
+    }
+  }
+
+  @Test
+  void testReplaceContent01() throws Exception {
+    String input = "<test><p>secret</p>-<q>x</q></test>";
+    SmaxDocumentTransformer transformer = new RedactTransformer(Pattern.compile("secret"), "[...]");
+    String result = runPipeline(transformer, input);
+    assertEquals("<test><p>[...]</p>-<q>x</q></test>", result);
+  }
+
+  @Test
+  void testReplaceContent02() throws Exception {
+    String input = "<test><p>a<b>bb</b>c</p><p>a<b>bb</b>c</p><q>abbc</q></test>";
+    SmaxDocumentTransformer transformer = new RedactTransformer(Pattern.compile("bb"), "BBBB")
+        .setTransformWithin(new SmaxElement("p"));
+    String result = runPipeline(transformer, input);
+    assertEquals("<test><p>a<b>BBBB</b>c</p><p>a<b>BBBB</b>c</p><q>abbc</q></test>", result);
+  }
+
+  @Test
+  void testReplaceContent03() throws Exception {
+    String input = "<test><p>a<b>b</b>c</p><p>abc</p></test>";
+    SmaxDocumentTransformer transformer = new RedactTransformer(Pattern.compile("a.*c"), "")
+        .setTransformWithin(new SmaxElement("p"));
+    String result = runPipeline(transformer, input);
+    assertEquals("<test><p><b/></p><p/></test>", result);
+  }
+
+  @Test
+  void testEditPieceTable() throws Exception {
+    SmaxDocument parsed = parse("<test><p>one</p> <p>two</p> <p>three</p></test>");
+    SmaxDocument document = new SmaxDocument(parsed.getMarkup(), new PieceTableContentBuffer(parsed.getUnderlyingContent().toString()));
+    SmaxDocument second = document.subDocument(document.getMarkup().getChildren().get(1));
+    second.insertContent(0, "number ");
+    second.deleteContent(7, 8);
+    assertEquals("number wo", second.getContentView().toString());
+    assertEquals("one number wo three", document.getContentView().toString());
+    assertEquals("<p 0..3><p 4..13><p 14..19>", document.getMarkup().getChildren().stream()
+        .map(SmaxElement::toString).collect(Collectors.joining()));
+    document.insertMarkup(new SmaxElement("n"), Balancing.OUTER, 4, 10);
+    assertEquals("<p 4..13>", second.getMarkup().toString());
+    assertEquals("<n 4..10>", second.getMarkup().getChildren().get(0).toString());
+  }
+
+  @Test
+  void testInsertAtEndOfSubDocument() throws Exception {
+    SmaxDocument document = parse("<r><p>abc</p><q>def</q></r>");
+    SmaxDocument first = document.subDocument(document.getMarkup().getChildren().get(0));
+    first.insertContent(3, "XYZ");
+    assertEquals("abcXYZ", first.getContentView().toString());
+    assertEquals("<p 0..6><q 6..9>", document.getMarkup().getChildren().stream()
+        .map(SmaxElement::toString).collect(Collectors.joining()));
+    assertEquals("<r 0..9>", document.getMarkup().toString());
+    assertEquals("def", document.subDocument(document.getMarkup().getChildren().get(1)).getContentView().toString());
+  }
+
+  @Test
+  void testInsertAtEndOfDocument() throws Exception {
+    SmaxDocument document = parse("<r><p>abc</p><q>def</q><e/></r>");
+    document.insertContent(3, "XYZ");
+    document.insertContent(9, "END");
+    assertEquals("abcXYZdefEND", document.getContentView().toString());
+    assertEquals("<r 0..12>", document.getMarkup().toString());
+    assertEquals("<p 0..3><q 3..9><e 9..9>", document.getMarkup().getChildren().stream()
+        .map(SmaxElement::toString).collect(Collectors.joining()));
+  }
+
+  /* Tests for snapshots */
+
+  @Test
+  void testSnapshot01() throws Exception {
+    SmaxDocument document = parse("<test><p>one two</p><q>three</q></test>");
+    SmaxDocument snapshot = document.snapshot();
+    SmaxElement q = document.getMarkup().getChildren().get(1);
+    snapshot.insertMarkup(new SmaxElement("w"), Balancing.OUTER, 0, 3);
+    document.insertMarkup(new SmaxElement("w"), Balancing.OUTER, 4, 7);
+    assertEquals("<test><p><w>one</w> two</p><q>three</q></test>", serialize(snapshot));
+    assertEquals("<test><p>one <w>two</w></p><q>three</q></test>", serialize(document));
+    // The untouched subtree is shared, the changed path is not.
+    assertSame(q, snapshot.getMarkup().getChildren().get(1));
+    assertSame(q, document.getMarkup().getChildren().get(1));
+    assertNotSame(document.getMarkup().getChildren().get(0), snapshot.getMarkup().getChildren().get(0));
+  }
+
+  @Test
+  void testSnapshot02() throws Exception {
+    SmaxDocument document = parse("<test><p>one two</p></test>");
+    SmaxDocument snapshot = document.snapshot();
+    snapshot.insertMarkup(new SmaxElement("all"), Balancing.OUTER, 0, 7);
+    assertEquals("<test><p><all>one two</all></p></test>", serialize(snapshot));
+    assertEquals("<test><p>one two</p></test>", serialize(document));
+  }
+
+  @Test
+  void testSnapshotSubDocument() throws Exception {
+    SmaxDocument document = parse("<test><p>one</p><p>two</p></test>");
+    SmaxDocument snapshot = document.snapshot();
+    SmaxDocument second = snapshot.subDocument(snapshot.getMarkup().getChildren().get(1));
+    second.insertMarkup(new SmaxElement("w"), Balancing.OUTER, 0, 3);
+    assertEquals("<test><p>one</p><p><w>two</w></p></test>", serialize(snapshot));
+    assertEquals("<test><p>one</p><p>two</p></test>", serialize(document));
+  }
+
+  @Test
+  void testSnapshotContentIsReadOnly() throws Exception {
+    SmaxDocument document = parse("<test><p>one</p></test>");
+    SmaxDocument snapshot = document.snapshot();
+    assertThrows(IllegalStateException.class, () -> document.insertContent(0, "x"));
+    assertThrows(IllegalStateException.class, () -> snapshot.deleteContent(0, 1));
+  }
+
 }
@@ -0,0 +1,47 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class SmaxNameTests {
+
+  @Test
+  void testInterned() {
+    assertSame(SmaxName.of("T", "p", "p"), SmaxName.of("T", "p"));
+    assertSame(SmaxName.of(null, "p", "p"), SmaxName.of("", "p"));
+    assertSame(SmaxName.of("T", "p", "x:p"), SmaxName.of("T", "x:p"));
+    assertSame(new SmaxElement("T", "x:p").getName(), new SmaxElement("T", "p", "x:p").getName());
+  }
+
+  @Test
+  void testParts() {
+    SmaxName name = SmaxName.of("T", "x:p");
+    assertEquals("T", name.getNamespaceUri());
+    assertEquals("x", name.getNamespacePrefix());
+    assertEquals("p", name.getLocalName());
+    assertEquals("x:p", name.getQualifiedName());
+    assertEquals("", SmaxName.of(null, "p").getNamespaceUri());
+    assertEquals("", SmaxName.of(null, "p").getNamespacePrefix());
+  }
+
+  @Test
+  void testExpandedName() {
+    assertSame(SmaxName.of("T", "p"), SmaxName.of("T", "x:p").getExpandedName());
+    assertSame(SmaxName.of("T", "y:p").getExpandedName(), SmaxName.of("T", "x:p").getExpandedName());
+    assertSame(SmaxName.of("T", "y:p"), SmaxName.of("T", "x:p").withPrefix("y"));
+    assertSame(SmaxName.of("T", "p"), SmaxName.of("T", "x:p").withPrefix(""));
+  }
+
+  @Test
+  void testMatches() {
+    assertTrue(new SmaxElement("T", "x:p").matches(new SmaxElement("T", "p")));
+    assertFalse(new SmaxElement("T", "x:p").matches(new SmaxElement("U", "x:p")));
+    assertTrue(new SmaxElement("T", "x:p").setAttribute("a", "1").matches(new SmaxElement("T", "p").setAttribute("a", "1")));
+    assertFalse(new SmaxElement("T", "x:p").setAttribute("a", "1").matches(new SmaxElement("T", "p").setAttribute("a", "2")));
+  }
+
+}
@@ -0,0 +1,82 @@
+package org.greenmercury.speat.smax;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import javax.xml.transform.OutputKeys;
+
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.io.output.StringOutputSource;
+import org.junit.jupiter.api.Test;
+
+class SmaxWriterTests extends SpeatTests {
+
+  private String write(SmaxDocument document, String encoding) throws Exception {
+    StringOutputSource outputSource = new StringOutputSource();
+    SmaxWriter writer = new SmaxWriter().setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    if (encoding != null) {
+      writer.setOutputProperty(OutputKeys.ENCODING, encoding);
+    }
+    writer.setHandler(outputSource);
+    writer.process(document);
+    return outputSource.getOutput();
+  }
+
+  @Test
+  void testSameAsSaxWriter() throws Exception {
+    String[] inputs = {
+        "<test/>",
+        "<test>a<b>bb</b>c<d/>e</test>",
+        "<test a=\"1\" b=\"x &amp; &lt;y&gt; &quot;z&quot;\">1 &lt; 2 &amp;&amp; 3 &gt; 2</test>",
+        "<test><p>one</p> <p>two</p></test>",
+    };
+    for (String input : inputs) {
+      SmaxDocument document = parse(input);
+      assertEquals(serialize(document), write(document, null), input);
+    }
+  }
+
+  @Test
+  void testNamespaces() throws Exception {
+    String input = "<x:test xmlns:x=\"urn:x\" xmlns=\"urn:d\"><p x:a=\"1\">text</p></x:test>";
+    assertEquals(input, write(parse(input), null));
+  }
+
+  @Test
+  void testNamespaceFixup() throws Exception {
+    SmaxElement root = new SmaxElement("urn:x", "x:test").setStartPos(0).setEndPos(4);
+    root.appendChild(new SmaxElement("p").setStartPos(1).setEndPos(3));
+    root.appendChild(new SmaxElement("urn:y", "q").setStartPos(4).setEndPos(4));
+    assertEquals("<x:test xmlns:x=\"urn:x\">a<p>bc</p>d<q xmlns=\"urn:y\"/></x:test>", write(new SmaxDocument(root, "abcd"), null));
+  }
+
+  @Test
+  void testEncoding() throws Exception {
+    SmaxElement root = new SmaxElement("test").setStartPos(0).setEndPos(5).setAttribute("a", "é€\n");
+    SmaxDocument document = new SmaxDocument(root, "é€😀\r");
+    assertEquals("<test a=\"é&#x20AC;&#xA;\">é&#x20AC;&#x1F600;&#xD;</test>", write(document, "ISO-8859-1"));
+    assertEquals("<test a=\"é€&#xA;\">é€😀&#xD;</test>", write(document, "UTF-8"));
+  }
+
+  @Test
+  void testSurrogatePairAtChunkBoundary() throws Exception {
+    // SmaxWriter copies text in chunks of 8192 characters, so this pair starts at the end of the first chunk.
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 8191; ++i) {
+      text.append('x');
+    }
+    text.append("😀y");
+    SmaxElement root = new SmaxElement("test").setStartPos(0).setEndPos(text.length());
+    String output = write(new SmaxDocument(root, text.toString()), "ISO-8859-1");
+    assertEquals("&#x1F600;y</test>", output.substring(output.length() - 17));
+  }
+
+  @Test
+  void testXmlDeclaration() throws Exception {
+    StringOutputSource outputSource = new StringOutputSource();
+    SmaxWriter writer = new SmaxWriter();
+    writer.setHandler(outputSource);
+    writer.process(parse("<test>x</test>"));
+    assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?><test>x</test>", outputSource.getOutput());
+  }
+
+}
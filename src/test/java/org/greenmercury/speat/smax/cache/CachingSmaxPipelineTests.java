@@ -0,0 +1,159 @@
+package org.greenmercury.speat.smax.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.greenmercury.speat.ConfigurationException;
+import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.io.input.FileInputSource;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.to.smax.RegexContentMatcher;
+import org.junit.jupiter.api.Test;
+
+class CachingSmaxPipelineTests extends SpeatTests {
+
+  /**
+   * A transformer that counts the documents it processes.
+   */
+  private static class CountingMatcher extends RegexContentMatcher {
+    final AtomicInteger count = new AtomicInteger();
+    @Override
+    protected void prepare(SmaxDocument document) throws ConfigurationException, PipelineException, IOException {
+      count.incrementAndGet();
+      super.prepare(document);
+    }
+  }
+
+  private static void deleteRecursively(Path directory) throws IOException {
+    Files.walk(directory).sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+  }
+
+  @Test
+  void testCacheHit() throws Exception {
+    Path directory = Files.createTempDirectory("speat-cache");
+    try {
+      CountingMatcher matcher = new CountingMatcher();
+      matcher.setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n"));
+      CachingSmaxPipeline cache = new CachingSmaxPipeline(matcher, new DiskLruCacheStore(directory, 1 << 20));
+      String expected = "<doc>one <n>1</n>, two <n>22</n></doc>";
+      assertEquals(expected, runPipeline(cache, "<doc>one 1, two 22</doc>"));
+      assertEquals(expected, runPipeline(cache, "<doc>one 1, two 22</doc>"));
+      assertEquals(1, matcher.count.get());
+      assertEquals(1, cache.getHits());
+      assertEquals(1, cache.getMisses());
+      assertEquals("<doc>three <n>3</n></doc>", runPipeline(cache, "<doc>three 3</doc>"));
+      assertEquals(2, matcher.count.get());
+      // A new store on the same directory finds the stored results.
+      CachingSmaxPipeline reopened = new CachingSmaxPipeline(matcher, new DiskLruCacheStore(directory, 1 << 20));
+      assertEquals(expected, runPipeline(reopened, "<doc>one 1, two 22</doc>"));
+      assertEquals(2, matcher.count.get());
+      assertEquals(1, reopened.getHits());
+    } finally {
+      deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  void testCorruptEntry() throws Exception {
+    Path directory = Files.createTempDirectory("speat-cache");
+    try {
+      CountingMatcher matcher = new CountingMatcher();
+      matcher.setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n"));
+      CachingSmaxPipeline cache = new CachingSmaxPipeline(matcher, new DiskLruCacheStore(directory, 1 << 20));
+      String expected = "<doc>one <n>1</n></doc>";
+      assertEquals(expected, runPipeline(cache, "<doc>one 1</doc>"));
+      // Corrupt the first string index of the stored entry.
+      List<Path> entries;
+      try (Stream<Path> files = Files.list(directory)) {
+        entries = files.collect(Collectors.toList());
+      }
+      assertEquals(1, entries.size());
+      byte[] bytes = Files.readAllBytes(entries.get(0));
+      ByteBuffer.wrap(bytes).putInt(16 + 2 * "one 1".length(), -2);
+      Files.write(entries.get(0), bytes);
+      assertEquals(expected, runPipeline(cache, "<doc>one 1</doc>"));
+      assertEquals(2, matcher.count.get());
+      assertEquals(0, cache.getHits());
+      // The corrupt entry has been replaced.
+      assertEquals(expected, runPipeline(cache, "<doc>one 1</doc>"));
+      assertEquals(1, cache.getHits());
+    } finally {
+      deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  void testDependencyChange() throws Exception {
+    Path directory = Files.createTempDirectory("speat-cache");
+    try {
+      Path grammar = directory.resolve("grammar.txt");
+      Files.write(grammar, "one <- 1\n".getBytes("UTF-8"));
+      Files.setLastModifiedTime(grammar, FileTime.fromMillis(1000000000000L));
+      CountingMatcher matcher = new CountingMatcher();
+      matcher.setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n"));
+      try (FileInputSource dependency = new FileInputSource(grammar.toFile())) {
+        CachingSmaxPipeline cache = new CachingSmaxPipeline(matcher, new DiskLruCacheStore(directory.resolve("store"), 1 << 20));
+        cache.addDependency(dependency).addFingerprint("[0-9]+");
+        runPipeline(cache, "<doc>1</doc>");
+        runPipeline(cache, "<doc>1</doc>");
+        assertEquals(1, matcher.count.get());
+        Files.setLastModifiedTime(grammar, FileTime.fromMillis(1000000001000L));
+        runPipeline(cache, "<doc>1</doc>");
+        assertEquals(2, matcher.count.get());
+        assertEquals(2, cache.getMisses());
+      }
+    } finally {
+      deleteRecursively(directory);
+    }
+  }
+
+  @Test
+  void testLruEviction() throws Exception {
+    Path directory = Files.createTempDirectory("speat-cache");
+    try {
+      DiskLruCacheStore store = new DiskLruCacheStore(directory, 30);
+      store.put("aaaa", new byte[10]);
+      store.put("bbbb", new byte[10]);
+      store.put("cccc", new byte[10]);
+      assertNotNull(store.get("aaaa"));
+      store.put("dddd", new byte[10]);
+      // bbbb was used least recently.
+      assertNull(store.get("bbbb"));
+      assertNotNull(store.get("aaaa"));
+      assertNotNull(store.get("cccc"));
+      assertEquals(3, store.getEntryCount());
+      assertEquals(30, store.getTotalBytes());
+      // Too large to store.
+      store.put("eeee", new byte[31]);
+      assertNull(store.get("eeee"));
+      store.remove("aaaa");
+      assertEquals(20, store.getTotalBytes());
+      assertEquals(2, new File(directory.toFile(), ".").list().length);
+      // The order of use survives reopening.
+      Files.setLastModifiedTime(directory.resolve("dddd.smaxc"), FileTime.fromMillis(1000000000000L));
+      Files.setLastModifiedTime(directory.resolve("cccc.smaxc"), FileTime.fromMillis(1000000001000L));
+      DiskLruCacheStore reopened = new DiskLruCacheStore(directory, 30);
+      reopened.put("ffff", new byte[20]);
+      assertNull(reopened.get("dddd"));
+      assertNotNull(reopened.get("cccc"));
+      assertNotNull(reopened.get("ffff"));
+    } finally {
+      deleteRecursively(directory);
+    }
+  }
+
+}
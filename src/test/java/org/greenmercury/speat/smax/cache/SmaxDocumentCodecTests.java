@@ -0,0 +1,81 @@
+package org.greenmercury.speat.smax.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.greenmercury.speat.SpeatTests;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.junit.jupiter.api.Test;
+
+class SmaxDocumentCodecTests extends SpeatTests {
+
+  private void assertRoundTrip(String xml) throws Exception {
+    SmaxDocument document = parse(xml);
+    byte[] encoding = SmaxDocumentCodec.encode(document);
+    SmaxDocument decoded = SmaxDocumentCodec.decode(encoding);
+    assertEquals(serialize(document), serialize(decoded));
+    assertArrayEquals(encoding, SmaxDocumentCodec.encode(decoded));
+  }
+
+  @Test
+  void testRoundTrip01() throws Exception {
+    assertRoundTrip("<doc>Hello <b>world</b>!</doc>");
+  }
+
+  @Test
+  void testRoundTrip02() throws Exception {
+    assertRoundTrip("<doc xmlns='http://example.org/a' xmlns:b='http://example.org/b'>"+
+        "<p b:x='1' y='two'>one<b:q/>two</p><p/>é€😀</doc>");
+  }
+
+  @Test
+  void testDeepNesting() throws Exception {
+    StringBuilder xml = new StringBuilder();
+    int depth = 5000;
+    for (int i = 0; i < depth; ++i) xml.append("<e>");
+    xml.append("x");
+    for (int i = 0; i < depth; ++i) xml.append("</e>");
+    SmaxDocument document = parse(xml.toString());
+    SmaxDocument decoded = SmaxDocumentCodec.decode(SmaxDocumentCodec.encode(document));
+    assertArrayEquals(SmaxDocumentCodec.encode(document), SmaxDocumentCodec.encode(decoded));
+  }
+
+  @Test
+  void testDifferentDocuments() throws Exception {
+    byte[] a = SmaxDocumentCodec.encode(parse("<doc><p>text</p></doc>"));
+    byte[] b = SmaxDocumentCodec.encode(parse("<doc><p>tex</p>t</doc>"));
+    byte[] c = SmaxDocumentCodec.encode(parse("<doc><p a='1'>text</p></doc>"));
+    assertFalse(Arrays.equals(a, b));
+    assertFalse(Arrays.equals(a, c));
+  }
+
+  @Test
+  void testInvalidEncoding() throws Exception {
+    assertThrows(IOException.class, () -> SmaxDocumentCodec.decode(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+    byte[] encoding = SmaxDocumentCodec.encode(parse("<doc>text</doc>"));
+    byte[] truncated = Arrays.copyOf(encoding, encoding.length - 3);
+    assertThrows(IOException.class, () -> SmaxDocumentCodec.decode(truncated));
+  }
+
+  @Test
+  void testCorruptEncoding() throws Exception {
+    // The header is 8 bytes, followed by the content length (8 bytes), the content (8 bytes), and the first string index.
+    byte[] encoding = SmaxDocumentCodec.encode(parse("<doc>text</doc>"));
+    byte[] badLength = encoding.clone();
+    ByteBuffer.wrap(badLength).putLong(8, Integer.MAX_VALUE);
+    assertThrows(IOException.class, () -> SmaxDocumentCodec.decode(badLength));
+    byte[] badIndex = encoding.clone();
+    ByteBuffer.wrap(badIndex).putInt(24, -2);
+    assertThrows(IOException.class, () -> SmaxDocumentCodec.decode(badIndex));
+    byte[] badStringLength = encoding.clone();
+    ByteBuffer.wrap(badStringLength).putInt(28, Integer.MAX_VALUE);
+    assertThrows(IOException.class, () -> SmaxDocumentCodec.decode(badStringLength));
+  }
+
+}
@@ -1,6 +1,9 @@
 package org.greenmercury.speat.smax.to.smax;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
 
 import javax.xml.transform.OutputKeys;
 
@@ -18,6 +21,10 @@ import org.junit.jupiter.api.Test;
 class NamedEntityRecognizerTests {
 
   String testNER(String grammar, String input, SmaxElement matchNodeTemplate) throws Exception {
+    return testNER(grammar, input, matchNodeTemplate, null, null);
+  }
+
+  String testNER(String grammar, String input, SmaxElement matchNodeTemplate, SmaxElement transformWithin, ForkJoinPool pool) throws Exception {
     if (matchNodeTemplate == null) {
       matchNodeTemplate = new SmaxElement(null, "ntt", "ntt").setAttribute("name", "");
     }
@@ -30,6 +37,9 @@ class NamedEntityRecognizerTests {
         setCaseInsensitiveMinLength(3).
         setMatchNodeTemplate(matchNodeTemplate).
         setBalancing(Balancing.OUTER);
+      if (transformWithin != null) {
+        ner.setTransformWithin(transformWithin).setParallel(pool);
+      }
       SaxReader saxReader = new SaxReader(); // Pipeline<InputSource, Sax>
       saxReader.setInputSource(inputSource);
       SaxWriter saxWriter = new SaxWriter(); // Pipeline<Sax, OutputSource>
@@ -175,4 +185,27 @@ class NamedEntityRecognizerTests {
     }
   }
 
+  @Test
+  void testParallelSections() throws Exception {
+    String grammar = "#ff0000 <- red\n#00ff00 <- green\n#0000ff <- blue\n";
+    StringBuilder input = new StringBuilder("<law>");
+    for (int i = 0; i < 300; ++i) {
+      input.append("<section n=\"").append(i).append("\">Section ").append(i).append(" is <b>red</b>, green");
+      for (int j = 0; j < i % 7; ++j) {
+        input.append(" and blue");
+      }
+      input.append(".</section><note>red</note>");
+    }
+    input.append("</law>");
+    SmaxElement section = new SmaxElement("section");
+    String sequential = testNER(grammar, input.toString(), null, section, null);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      assertEquals(sequential, testNER(grammar, input.toString(), null, section, pool));
+    } finally {
+      pool.shutdown();
+    }
+    assertTrue(sequential.startsWith("<law><section n=\"0\">Section 0 is <b><ntt name=\"#ff0000\">red</ntt></b>, <ntt name=\"#00ff00\">green</ntt>.</section><note>red</note>"));
+  }
+
 }
@@ -1,10 +1,13 @@
 package org.greenmercury.speat.smax.to.smax;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.SpeatTests;
 import org.greenmercury.speat.smax.SmaxContent;
 import org.greenmercury.speat.smax.SmaxDocument;
@@ -45,14 +48,19 @@ class SmaxDocumentTransformerTests extends SpeatTests {
   
   class MatchTextWithinTransformer extends SmaxDocumentTransformer {
     private Pattern pattern;
+    private String name;
     public MatchTextWithinTransformer(Pattern pattern) {
+      this(pattern, "M");
+    }
+    public MatchTextWithinTransformer(Pattern pattern, String name) {
       this.pattern = pattern;
+      this.name = name;
     }
     @Override
     protected void transform(SmaxDocument document) {
       Matcher matcher = pattern.matcher(document.getContentView());
       while (matcher.find()) {
-        SmaxElement matchNode = new SmaxElement("M");
+        SmaxElement matchNode = new SmaxElement(name);
         document.insertMarkup(matchNode, balancing, matcher.start(), matcher.end());
       }
     }
@@ -66,4 +74,55 @@ class SmaxDocumentTransformerTests extends SpeatTests {
     assertEquals("<test>!<p>!<q><q><M>???</M></q></q>!</p><q><M>?<r>?</r>?</M></q>?</test>", result);
   }
 
+  /* Tests for fused transformers */
+
+  @Test
+  void testFused01() throws Exception {
+    String input = "<test>!<p>!<q>a?b</q></p><q>?<r>c</r>?</q><r>cc</r></test>";
+    SmaxDocumentTransformer t1 = new MatchTextWithinTransformer(Pattern.compile("[?]+"), "M").setTransformWithin(new SmaxElement("q"));
+    SmaxDocumentTransformer t2 = new MatchTextWithinTransformer(Pattern.compile("[a-c]"), "N").setTransformWithin(new SmaxElement("q"));
+    SmaxDocumentTransformer t3 = new MatchTextWithinTransformer(Pattern.compile("c+"), "O").setTransformWithin(new SmaxElement("r"));
+    SmaxDocumentTransformer t4 = new MatchTextWithinTransformer(Pattern.compile("!"), "P");
+    String chained = runPipeline(t4, runPipeline(t3, runPipeline(t2, runPipeline(t1, input))));
+    FusedSmaxDocumentTransformer fused = SmaxDocumentTransformer.fuse(t1, t2, t3, t4);
+    assertEquals(3, fused.getGroupCount());
+    assertEquals(chained, runPipeline(fused, input));
+    assertEquals("<test><P>!</P><p><P>!</P><q><N>a</N><M>?</M><N>b</N></q></p><q><M>?</M><r><N><O>c</O></N></r><M>?</M></q><r><O>cc</O></r></test>", runPipeline(fused, input));
+  }
+
+  @Test
+  void testFusedWithContentEdits() throws Exception {
+    String input = "<test><p>!!!</p><q>?a?</q><q>b</q></test>";
+    SmaxDocumentTransformer hide = new HideTextWithinTransformer().setTransformWithin(new SmaxElement("q"));
+    SmaxDocumentTransformer match = new MatchTextWithinTransformer(Pattern.compile("#+")).setTransformWithin(new SmaxElement("q"));
+    FusedSmaxDocumentTransformer fused = SmaxDocumentTransformer.fuse(SmaxDocumentTransformer.fuse(hide), match);
+    assertEquals(1, fused.getGroupCount());
+    assertEquals(2, fused.getTransformers().size());
+    assertEquals(runPipeline(match, runPipeline(hide, input)), runPipeline(fused, input));
+  }
+
+  /* Tests for parallel transformation */
+
+  @Test
+  void testParallelNotSupported() throws Exception {
+    SmaxDocumentTransformer transformer = new HideTextWithinTransformer().setTransformWithin(new SmaxElement("q"));
+    assertThrows(ConfigurationException.class, () -> transformer.setParallel(true));
+  }
+
+  @Test
+  void testParallelRegex() throws Exception {
+    StringBuilder input = new StringBuilder("<test>");
+    for (int i = 0; i < 500; ++i) {
+      input.append("<q>a").append(i).append("b<r>").append(i * 7).append("</r></q>!").append(i);
+    }
+    input.append("</test>");
+    SmaxDocumentTransformer sequential = new RegexContentMatcher().setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n")).
+        setTransformWithin(new SmaxElement("q"));
+    SmaxDocumentTransformer parallel = new RegexContentMatcher().setPattern("[0-9]+").setMatchNodeTemplate(new SmaxElement("n")).
+        setTransformWithin(new SmaxElement("q")).setParallel(true);
+    String result = runPipeline(parallel, input.toString());
+    assertEquals(runPipeline(sequential, input.toString()), result);
+    assertTrue(result.startsWith("<test><q>a<n>0</n>b<r><n>0</n></r></q>!0<q>a<n>1</n>b<r><n>7</n></r></q>!1"));
+  }
+
 }
@@ -1,17 +1,29 @@
 package org.greenmercury.speat.text;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.greenmercury.speat.ConfigurationException;
 import org.greenmercury.speat.PipelineException;
+import org.greenmercury.speat.io.input.FileInputSource;
 import org.greenmercury.speat.io.input.ReaderInputSource;
 import org.greenmercury.speat.io.input.StringInputSource;
+import org.greenmercury.speat.sax.SaxEventHandler;
+import org.greenmercury.speat.smax.MappedFileContentBuffer;
+import org.greenmercury.speat.smax.SmaxDocument;
+import org.greenmercury.speat.smax.SmaxElement;
+import org.greenmercury.speat.smax.to.sax.SmaxToSaxAdapter;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
 
 class TextDocumentReaderTests {
 
@@ -28,8 +40,10 @@ class TextDocumentReaderTests {
 
   class TextDocumentToStringHandler implements TextDocumentApi {
     public String document;
+    public CharSequence text;
     @Override
     public void process(CharSequence text) {
+      this.text = text;
       document = text.toString();
     }
   }
@@ -86,4 +100,74 @@ class TextDocumentReaderTests {
     assertEquals(testString.replaceAll("\\r\\n?", "\n"), result.document);
   }
 
+  @Test
+  void testReadMemoryMapped() throws Exception {
+    Path file = Files.createTempFile("speat", ".txt");
+    file.toFile().deleteOnExit();
+    Files.write(file, "façade\nhello again".getBytes(StandardCharsets.ISO_8859_1));
+    textDocumentReader.setMemoryMapped(true);
+    try (FileInputSource inputSource = new FileInputSource(file.toFile(), "ISO-8859-1")) {
+      textDocumentReader.setInputSource(inputSource);
+      textDocumentReader.read();
+    }
+    assertTrue(result.text instanceof MappedFileContentBuffer);
+    assertEquals("façade\nhello again", result.document);
+    // A file without an explicit encoding is read into memory, as UTF-8.
+    Files.write(file, "façade\n".getBytes(StandardCharsets.UTF_8));
+    try (FileInputSource inputSource = new FileInputSource(file.toFile())) {
+      textDocumentReader.setInputSource(inputSource);
+      textDocumentReader.read();
+    }
+    assertTrue(result.text instanceof String);
+    assertEquals("façade", result.document);
+  }
+
+  @Test
+  void testReadMemoryMappedLargeFile() throws Exception {
+    // A sparse file of more than 2^31 bytes, which ends with a word.
+    long length = (1L << 31) + 3;
+    Path file = Files.createTempFile("speat", ".txt");
+    file.toFile().deleteOnExit();
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      raf.setLength(length);
+      raf.seek(length - 3);
+      raf.write("END".getBytes(StandardCharsets.US_ASCII));
+    }
+    textDocumentReader.setMemoryMapped(true);
+    try (FileInputSource inputSource = new FileInputSource(file.toFile(), "US-ASCII")) {
+      textDocumentReader.setInputSource(inputSource);
+      // Do not convert the text into a String.
+      textDocumentReader.setHandler(text -> result.text = text);
+      textDocumentReader.read();
+    }
+    MappedFileContentBuffer buffer = (MappedFileContentBuffer)result.text;
+    assertEquals(length, buffer.longLength());
+    SmaxElement root = new SmaxElement("text").setEndPos(length);
+    root.appendChild(new SmaxElement("end").setStartPos(length - 3).setEndPos(length));
+    SmaxDocument document = new SmaxDocument(root, buffer);
+    assertEquals(length, document.getContentView().longLength());
+    // The number of characters received, and the text of the end element.
+    long[] received = new long[1];
+    StringBuilder end = new StringBuilder();
+    SmaxToSaxAdapter output = new SmaxToSaxAdapter();
+    output.setHandler(new SaxEventHandler() {
+      @Override
+      public void startElement(String uri, String localName, String qName, Attributes attributes) {
+        if (localName.equals("end")) {
+          end.append(received[0]);
+        }
+      }
+      @Override
+      public void characters(char[] characters, int start, int length) {
+        received[0] += length;
+        if (end.length() > 0) {
+          end.append(characters, start, length);
+        }
+      }
+    });
+    output.process(document);
+    assertEquals(length, received[0]);
+    assertEquals((length - 3)+"END", end.toString());
+  }
+
 }